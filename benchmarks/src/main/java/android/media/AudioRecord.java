@@ -0,0 +1,136 @@
+package android.media;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Synthetic stand-in for the platform audio recorder used to run the library on a plain JVM.
+ * Generates one second of a 440 Hz tone mixed with noise for the requested sample rate,
+ * channel configuration and encoding, and replays it as fast as it is read.
+ */
+public class AudioRecord {
+
+    public static final int STATE_UNINITIALIZED = 0;
+    public static final int STATE_INITIALIZED = 1;
+    public static final int RECORDSTATE_STOPPED = 1;
+    public static final int RECORDSTATE_RECORDING = 3;
+    public static final int SUCCESS = 0;
+    public static final int ERROR = -1;
+    public static final int ERROR_BAD_VALUE = -2;
+    public static final int ERROR_INVALID_OPERATION = -3;
+
+    private final int mSampleRate;
+    private final int mChannelConfig;
+    private final int mAudioFormat;
+    private final int mChannelCount;
+    /**
+     * One second of generated PCM data.
+     */
+    private final byte[] mSignal;
+    private int mSignalPosition;
+    private int mState = STATE_INITIALIZED;
+    private int mRecordingState = RECORDSTATE_STOPPED;
+
+    public AudioRecord(int audioSource, int sampleRateInHz, int channelConfig, int audioFormat, int bufferSizeInBytes) {
+        mSampleRate = sampleRateInHz;
+        mChannelConfig = channelConfig;
+        mAudioFormat = audioFormat;
+        mChannelCount = channelConfig == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1;
+        mSignal = generate(sampleRateInHz, mChannelCount, audioFormat == AudioFormat.ENCODING_PCM_16BIT);
+    }
+
+    public static int getMinBufferSize(int sampleRateInHz, int channelConfig, int audioFormat) {
+        int channels = channelConfig == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1;
+        int bytesPerSample = audioFormat == AudioFormat.ENCODING_PCM_16BIT ? 2 : 1;
+        // 40 ms like a typical device
+        return sampleRateInHz / 25 * channels * bytesPerSample;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getAudioFormat() {
+        return mAudioFormat;
+    }
+
+    public int getChannelConfiguration() {
+        return mChannelConfig;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public int getRecordingState() {
+        return mRecordingState;
+    }
+
+    public void startRecording() {
+        mRecordingState = RECORDSTATE_RECORDING;
+    }
+
+    public void stop() {
+        mRecordingState = RECORDSTATE_STOPPED;
+    }
+
+    public void release() {
+        mRecordingState = RECORDSTATE_STOPPED;
+        mState = STATE_UNINITIALIZED;
+    }
+
+    public int read(byte[] audioData, int offsetInBytes, int sizeInBytes) {
+        if (mState != STATE_INITIALIZED) {
+            return ERROR_INVALID_OPERATION;
+        }
+        int read = 0;
+        while (read < sizeInBytes) {
+            int count = Math.min(sizeInBytes - read, mSignal.length - mSignalPosition);
+            System.arraycopy(mSignal, mSignalPosition, audioData, offsetInBytes + read, count);
+            read += count;
+            mSignalPosition = (mSignalPosition + count) % mSignal.length;
+        }
+        return read;
+    }
+
+    public int read(ByteBuffer audioBuffer, int sizeInBytes) {
+        if (mState != STATE_INITIALIZED) {
+            return ERROR_INVALID_OPERATION;
+        }
+        ByteBuffer target = audioBuffer.duplicate();
+        target.clear();
+        int read = 0;
+        while (read < sizeInBytes) {
+            int count = Math.min(sizeInBytes - read, mSignal.length - mSignalPosition);
+            target.put(mSignal, mSignalPosition, count);
+            read += count;
+            mSignalPosition = (mSignalPosition + count) % mSignal.length;
+        }
+        return read;
+    }
+
+    private static byte[] generate(int sampleRate, int channels, boolean pcm16) {
+        Random random = new Random(0);
+        int bytesPerSample = pcm16 ? 2 : 1;
+        byte[] signal = new byte[sampleRate * channels * bytesPerSample];
+        int index = 0;
+        for (int frame = 0; frame < sampleRate; frame++) {
+            double value = 0.5 * Math.sin(2 * Math.PI * 440 * frame / sampleRate) + 0.1 * random.nextGaussian();
+            value = Math.max(-1, Math.min(1, value));
+            for (int channel = 0; channel < channels; channel++) {
+                if (pcm16) {
+                    short sample = (short) (value * Short.MAX_VALUE);
+                    signal[index++] = (byte) sample;
+                    signal[index++] = (byte) (sample >> 8);
+                } else {
+                    signal[index++] = (byte) (128 + value * 127);
+                }
+            }
+        }
+        return signal;
+    }
+}
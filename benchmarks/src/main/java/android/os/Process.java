@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Stand-in for the platform process utilities used to run the library on a plain JVM.
+ * Thread priorities are ignored.
+ */
+public class Process {
+
+    public static final int THREAD_PRIORITY_DEFAULT = 0;
+    public static final int THREAD_PRIORITY_URGENT_AUDIO = -19;
+
+    public static void setThreadPriority(int priority) {
+        // ignored
+    }
+}
@@ -0,0 +1,80 @@
+package pl.bgadzala.arl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writes of different sizes to file backed audio streams.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AudioStreamBenchmark {
+
+    /**
+     * Output file is rewound to the beginning after that many bytes.
+     */
+    private static final long MAX_LENGTH = 64 * 1024 * 1024;
+
+    @Param({"4", "64", "1024", "16384", "65536"})
+    public int size;
+    @Param({"RAF", "CHANNEL", "BUFFERED"})
+    public OutputType output;
+
+    private File mFile;
+    private AudioStream mStream;
+    private byte[] mData;
+    private long mWritten;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("arl-bench", ".pcm");
+        mStream = output.open(mFile);
+        mData = new byte[size];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mStream.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public void write(Throughput throughput) {
+        if (mWritten >= MAX_LENGTH) {
+            mStream.seek(0);
+            mWritten = 0;
+        }
+        mStream.write(mData, 0, size);
+        mWritten += size;
+        throughput.bytes += size;
+    }
+
+    @Benchmark
+    public void writeInt(Throughput throughput) {
+        if (mWritten >= MAX_LENGTH) {
+            mStream.seek(0);
+            mWritten = 0;
+        }
+        mStream.write(size);
+        mWritten += 4;
+        throughput.bytes += 4;
+    }
+}
@@ -0,0 +1,67 @@
+package pl.bgadzala.arl;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+
+/**
+ * Runs benchmarks with allocation profiling and prints a summary with MB/s, ns/sample
+ * and bytes allocated per operation. Accepts standard JMH command line options,
+ * e.g. a regular expression selecting benchmarks to run.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class);
+        Collection<RunResult> results = new Runner(options.build()).run();
+
+        System.out.println();
+        System.out.println(String.format("%-90s %12s %12s %14s", "Benchmark", "MB/s", "ns/sample", "alloc B/op"));
+        for (RunResult result : results) {
+            System.out.println(String.format("%-90s %12s %12s %14s",
+                    describe(result.getParams()),
+                    format(getSecondary(result, "bytes"), 1e-6),
+                    formatInverse(getSecondary(result, "samples"), 1e9),
+                    format(getSecondary(result, "gc.alloc.rate.norm"), 1)));
+        }
+    }
+
+    private static String describe(BenchmarkParams params) {
+        String name = params.getBenchmark();
+        StringBuilder description = new StringBuilder(name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1));
+        for (String key : params.getParamsKeys()) {
+            description.append(' ').append(key).append('=').append(params.getParam(key));
+        }
+        return description.toString();
+    }
+
+    private static Result<?> getSecondary(RunResult result, String label) {
+        return result.getSecondaryResults().get(label);
+    }
+
+    private static String format(Result<?> result, double scale) {
+        if (result == null || Double.isNaN(result.getScore())) {
+            return "-";
+        }
+        return String.format("%.2f", result.getScore() * scale);
+    }
+
+    private static String formatInverse(Result<?> result, double scale) {
+        if (result == null || result.getScore() <= 0) {
+            return "-";
+        }
+        return String.format("%.3f", scale / result.getScore());
+    }
+}
@@ -0,0 +1,63 @@
+package pl.bgadzala.arl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link WavRecorder#onSampleRead} of WAV recorders which encode PCM before writing it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressedWavBenchmark {
+
+    @Param({"8000", "44100"})
+    public int sampleRate;
+    @Param({"1", "2"})
+    public int channels;
+    @Param({"WAV_IMA_ADPCM", "WAV_MU_LAW", "WAV_A_LAW"})
+    public Format format;
+
+    private File mFile;
+    private WavRecorder mRecorder;
+    private byte[] mChunk;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("arl-bench", ".wav");
+        mRecorder = (WavRecorder) format.createRecorder(SyntheticAudio.createAudioRecord(sampleRate, channels),
+                OutputType.NULL.open(mFile));
+        mChunk = SyntheticAudio.readChunk(mRecorder.mSource);
+        mRecorder.onRecordingStarted();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRecorder.onRecordingFinished();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public void onSampleRead(Throughput throughput) {
+        mRecorder.onSampleRead(mChunk, mChunk.length);
+        throughput.bytes += mChunk.length;
+        throughput.samples += SyntheticAudio.SAMPLES_PER_OPERATION;
+    }
+}
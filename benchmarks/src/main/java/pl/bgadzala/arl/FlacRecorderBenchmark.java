@@ -0,0 +1,77 @@
+package pl.bgadzala.arl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link FlacRecorder#onSampleRead}, which encodes a frame every {@link FlacRecorder#BLOCK_SIZE} samples.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FlacRecorderBenchmark {
+
+    @Param({"16000", "44100"})
+    public int sampleRate;
+    @Param({"1", "2"})
+    public int channels;
+    @Param({"NULL", "BUFFERED"})
+    public OutputType output;
+    /**
+     * Number of threads encoding frames, 1 to encode frames in the calling thread.
+     */
+    @Param({"1", "4"})
+    public int threads;
+
+    private File mFile;
+    private FlacRecorder mRecorder;
+    private byte[] mChunk;
+    private ExecutorService mExecutor;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("arl-bench", ".flac");
+        mRecorder = new FlacRecorder(SyntheticAudio.createAudioRecord(sampleRate, channels), output.open(mFile));
+        mChunk = SyntheticAudio.readChunk(mRecorder.mSource);
+        if (threads > 1) {
+            mExecutor = Executors.newFixedThreadPool(threads);
+            mRecorder.setEncodingExecutor(mExecutor, 2 * threads);
+        }
+        mRecorder.onRecordingStarted();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRecorder.onRecordingFinished();
+        mFile.delete();
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void onSampleRead(Throughput throughput) {
+        mRecorder.onSampleRead(mChunk, mChunk.length);
+        throughput.bytes += mChunk.length;
+        throughput.samples += SyntheticAudio.SAMPLES_PER_OPERATION;
+    }
+}
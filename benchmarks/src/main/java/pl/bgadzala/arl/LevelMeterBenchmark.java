@@ -0,0 +1,65 @@
+package pl.bgadzala.arl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures levels computed by the capture thread for every read chunk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LevelMeterBenchmark {
+
+    @Param({"8000", "16000", "44100"})
+    public int sampleRate;
+    @Param({"1", "2"})
+    public int channels;
+
+    private LevelMeter mMeter;
+    private Levels mLevels;
+    /**
+     * Samples of a chunk, converted once by the recorder for all stages.
+     */
+    private short[] mSamples;
+    private int mSize;
+
+    @Setup
+    public void setUp() {
+        PcmSource source = new AudioRecordPcmSource(SyntheticAudio.createAudioRecord(sampleRate, channels));
+        mMeter = new LevelMeter(channels, 16, sampleRate, LevelMeter.DEFAULT_WINDOW_MILLIS);
+        mLevels = new Levels(channels);
+        PcmChunk chunk = new PcmChunk(SyntheticAudio.SAMPLES_PER_OPERATION * 2);
+        chunk.setSize(source.read(chunk.getData(), 0, chunk.getCapacity()));
+        mSize = chunk.getSize();
+        mSamples = new short[mSize / 2];
+        SampleConverter.toShort(chunk.getBuffer(), 0, SampleFormat.PCM_16, mSamples, mSamples.length);
+    }
+
+    @Benchmark
+    public int process(Throughput throughput) {
+        mMeter.process(mSamples, mSamples.length);
+        throughput.bytes += mSize;
+        throughput.samples += SyntheticAudio.SAMPLES_PER_OPERATION;
+        return mMeter.getAndResetMaxAmplitude();
+    }
+
+    @Benchmark
+    public Levels getLevels() {
+        return mMeter.getLevels(mLevels);
+    }
+}
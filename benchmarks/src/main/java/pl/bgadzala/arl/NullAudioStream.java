@@ -0,0 +1,59 @@
+package pl.bgadzala.arl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Audio stream which discards all data. Used to measure cost of the library code alone.
+ */
+public class NullAudioStream implements AudioStream {
+
+    @Override
+    public void setDataType(DataType dataType) {
+        // ignored
+    }
+
+    @Override
+    public void seek(long position) {
+        // ignored
+    }
+
+    @Override
+    public void setLength(long length) {
+        // ignored
+    }
+
+    @Override
+    public void write(byte[] data) {
+        // ignored
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int size) {
+        // ignored
+    }
+
+    @Override
+    public void write(ByteBuffer data) {
+        data.position(data.limit());
+    }
+
+    @Override
+    public void write(int data) {
+        // ignored
+    }
+
+    @Override
+    public void write(short data) {
+        // ignored
+    }
+
+    @Override
+    public void sync() {
+        // ignored
+    }
+
+    @Override
+    public void close() {
+        // ignored
+    }
+}
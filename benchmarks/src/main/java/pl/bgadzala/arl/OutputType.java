@@ -0,0 +1,56 @@
+package pl.bgadzala.arl;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.RandomAccessFile;
+
+/**
+ * Audio stream implementations compared by benchmarks.
+ */
+public enum OutputType {
+    /**
+     * Discards all data.
+     */
+    NULL {
+        @Override
+        public AudioStream open(File file) {
+            return new NullAudioStream();
+        }
+    },
+    /**
+     * {@link RAFAudioStream}.
+     */
+    RAF {
+        @Override
+        public AudioStream open(File file) throws FileNotFoundException {
+            return new RAFAudioStream(new RandomAccessFile(file, "rw"));
+        }
+    },
+    /**
+     * {@link FileChannelAudioStream}.
+     */
+    CHANNEL {
+        @Override
+        public AudioStream open(File file) throws FileNotFoundException {
+            return new FileChannelAudioStream(new RandomAccessFile(file, "rw").getChannel());
+        }
+    },
+    /**
+     * {@link BufferedAudioStream} over {@link RAFAudioStream}.
+     */
+    BUFFERED {
+        @Override
+        public AudioStream open(File file) throws FileNotFoundException {
+            return new BufferedAudioStream(RAF.open(file));
+        }
+    };
+
+    /**
+     * Opens stream writing to the specified file.
+     *
+     * @param file output file
+     * @return new audio stream
+     * @throws FileNotFoundException if file cannot be opened
+     */
+    public abstract AudioStream open(File file) throws FileNotFoundException;
+}
@@ -0,0 +1,79 @@
+package pl.bgadzala.arl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Audio stream tracking position of another stream, e.g. to find where the header written by a recorder ends.
+ */
+public class PositionAudioStream implements AudioStream {
+
+    private final AudioStream mStream;
+    private long mPosition;
+
+    public PositionAudioStream(AudioStream stream) {
+        mStream = stream;
+    }
+
+    /**
+     * @return position where the next data is written
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    @Override
+    public void setDataType(DataType dataType) {
+        mStream.setDataType(dataType);
+    }
+
+    @Override
+    public void seek(long position) {
+        mStream.seek(position);
+        mPosition = position;
+    }
+
+    @Override
+    public void setLength(long length) {
+        mStream.setLength(length);
+    }
+
+    @Override
+    public void write(byte[] data) {
+        mStream.write(data);
+        mPosition += data.length;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int size) {
+        mStream.write(data, offset, size);
+        mPosition += size;
+    }
+
+    @Override
+    public void write(ByteBuffer data) {
+        mPosition += data.remaining();
+        mStream.write(data);
+    }
+
+    @Override
+    public void write(int data) {
+        mStream.write(data);
+        mPosition += 4;
+    }
+
+    @Override
+    public void write(short data) {
+        mStream.write(data);
+        mPosition += 2;
+    }
+
+    @Override
+    public void sync() {
+        mStream.sync();
+    }
+
+    @Override
+    public void close() {
+        mStream.close();
+    }
+}
@@ -0,0 +1,82 @@
+package pl.bgadzala.arl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures bulk conversions of a direct chunk between sample formats and primitive arrays.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SampleConverterBenchmark {
+
+    @Param({"PCM_8", "PCM_16", "PCM_24", "FLOAT"})
+    public SampleFormat format;
+
+    private ByteBuffer mChunk;
+    private short[] mShorts;
+    private float[] mFloats;
+
+    @Setup
+    public void setUp() {
+        PcmSource source = new AudioRecordPcmSource(SyntheticAudio.createAudioRecord(44100, 1));
+        byte[] pcm = SyntheticAudio.readChunk(source);
+        mShorts = new short[SyntheticAudio.SAMPLES_PER_OPERATION];
+        mFloats = new float[SyntheticAudio.SAMPLES_PER_OPERATION];
+        SampleConverter.toShort(ByteBuffer.wrap(pcm).order(ByteOrder.LITTLE_ENDIAN), 0, SampleFormat.PCM_16,
+                mShorts, mShorts.length);
+        mChunk = ByteBuffer.allocateDirect(mShorts.length * format.getBytesPerSample()).order(ByteOrder.LITTLE_ENDIAN);
+        SampleConverter.fromShort(mShorts, mShorts.length, format, mChunk, 0);
+        SampleConverter.toFloat(mChunk, 0, format, mFloats, mFloats.length);
+    }
+
+    @Benchmark
+    public short[] toShort(Throughput throughput) {
+        SampleConverter.toShort(mChunk, 0, format, mShorts, mShorts.length);
+        count(throughput);
+        return mShorts;
+    }
+
+    @Benchmark
+    public float[] toFloat(Throughput throughput) {
+        SampleConverter.toFloat(mChunk, 0, format, mFloats, mFloats.length);
+        count(throughput);
+        return mFloats;
+    }
+
+    @Benchmark
+    public ByteBuffer fromShort(Throughput throughput) {
+        SampleConverter.fromShort(mShorts, mShorts.length, format, mChunk, 0);
+        count(throughput);
+        return mChunk;
+    }
+
+    @Benchmark
+    public ByteBuffer fromFloat(Throughput throughput) {
+        SampleConverter.fromFloat(mFloats, mFloats.length, format, mChunk, 0);
+        count(throughput);
+        return mChunk;
+    }
+
+    private void count(Throughput throughput) {
+        throughput.bytes += mChunk.capacity();
+        throughput.samples += SyntheticAudio.SAMPLES_PER_OPERATION;
+    }
+}
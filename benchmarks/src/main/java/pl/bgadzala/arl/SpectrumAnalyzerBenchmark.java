@@ -0,0 +1,66 @@
+package pl.bgadzala.arl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures spectrum analysis computed by the capture thread for every read chunk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SpectrumAnalyzerBenchmark {
+
+    @Param({"16000", "44100"})
+    public int sampleRate;
+    @Param({"1", "2"})
+    public int channels;
+    @Param({"512", "2048"})
+    public int fftSize;
+
+    private SpectrumAnalyzer mAnalyzer;
+    private Spectrum mSpectrum;
+    /**
+     * Samples of a chunk, converted once by the recorder for all stages.
+     */
+    private short[] mSamples;
+    private int mSize;
+
+    @Setup
+    public void setUp() {
+        PcmSource source = new AudioRecordPcmSource(SyntheticAudio.createAudioRecord(sampleRate, channels));
+        mAnalyzer = new SpectrumAnalyzer(channels, 16, sampleRate, fftSize, fftSize / 2, SpectrumAnalyzer.Window.HANN, 40);
+        mSpectrum = mAnalyzer.createSpectrum();
+        PcmChunk chunk = new PcmChunk(SyntheticAudio.SAMPLES_PER_OPERATION * 2);
+        chunk.setSize(source.read(chunk.getData(), 0, chunk.getCapacity()));
+        mSize = chunk.getSize();
+        mSamples = new short[mSize / 2];
+        SampleConverter.toShort(chunk.getBuffer(), 0, SampleFormat.PCM_16, mSamples, mSamples.length);
+    }
+
+    @Benchmark
+    public void process(Throughput throughput) {
+        mAnalyzer.process(mSamples, mSamples.length);
+        throughput.bytes += mSize;
+        throughput.samples += SyntheticAudio.SAMPLES_PER_OPERATION;
+    }
+
+    @Benchmark
+    public Spectrum getSpectrum() {
+        return mAnalyzer.getSpectrum(mSpectrum);
+    }
+}
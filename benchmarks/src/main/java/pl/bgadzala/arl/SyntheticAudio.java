@@ -0,0 +1,45 @@
+package pl.bgadzala.arl;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+/**
+ * Creates synthetic audio recorders for benchmarks.
+ */
+public final class SyntheticAudio {
+
+    /**
+     * Number of samples (of all channels) processed by a single benchmark operation.
+     */
+    public static final int SAMPLES_PER_OPERATION = 4096;
+
+    private SyntheticAudio() {
+    }
+
+    /**
+     * Creates synthetic 16-bit audio recorder.
+     *
+     * @param sampleRate sample rate in Hz
+     * @param channels   number of channels, 1 or 2
+     * @return synthetic audio recorder
+     */
+    public static AudioRecord createAudioRecord(int sampleRate, int channels) {
+        int channelConfig = channels == 2 ? AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO;
+        int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
+        int bufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig, audioFormat);
+        return new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, channelConfig, audioFormat, 2 * bufferSize);
+    }
+
+    /**
+     * Reads PCM data of {@link #SAMPLES_PER_OPERATION} samples.
+     *
+     * @param source 16-bit PCM source
+     * @return 16-bit PCM data
+     */
+    public static byte[] readChunk(PcmSource source) {
+        byte[] chunk = new byte[SAMPLES_PER_OPERATION * 2];
+        source.read(chunk, 0, chunk.length);
+        return chunk;
+    }
+}
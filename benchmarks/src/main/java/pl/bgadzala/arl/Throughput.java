@@ -0,0 +1,31 @@
+package pl.bgadzala.arl;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary benchmark results counting processed bytes and samples. In throughput mode they are
+ * reported per second next to the primary score, {@link BenchmarkRunner} converts them to MB/s and ns/sample.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+    /**
+     * Number of processed bytes.
+     */
+    public long bytes;
+    /**
+     * Number of processed samples (a stereo frame is two samples).
+     */
+    public long samples;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        bytes = 0;
+        samples = 0;
+    }
+}
@@ -0,0 +1,58 @@
+package pl.bgadzala.arl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures voice activity detection of the writer thread for every chunk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VoiceActivityDetectorBenchmark {
+
+    @Param({"16000", "44100"})
+    public int sampleRate;
+    @Param({"1", "2"})
+    public int channels;
+
+    private VoiceActivityDetector mDetector;
+    /**
+     * Samples of a chunk, converted once by the recorder for all stages.
+     */
+    private short[] mSamples;
+    private int mSize;
+
+    @Setup
+    public void setUp() {
+        PcmSource source = new AudioRecordPcmSource(SyntheticAudio.createAudioRecord(sampleRate, channels));
+        mDetector = new VoiceActivityDetector();
+        mDetector.start(channels, 16, sampleRate);
+        PcmChunk chunk = new PcmChunk(SyntheticAudio.SAMPLES_PER_OPERATION * 2);
+        chunk.setSize(source.read(chunk.getData(), 0, chunk.getCapacity()));
+        mSize = chunk.getSize();
+        mSamples = new short[mSize / 2];
+        SampleConverter.toShort(chunk.getBuffer(), 0, SampleFormat.PCM_16, mSamples, mSamples.length);
+    }
+
+    @Benchmark
+    public boolean process(Throughput throughput) {
+        throughput.bytes += mSize;
+        throughput.samples += SyntheticAudio.SAMPLES_PER_OPERATION;
+        return mDetector.process(mSamples, mSamples.length);
+    }
+}
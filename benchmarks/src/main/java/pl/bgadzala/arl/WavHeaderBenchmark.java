@@ -0,0 +1,66 @@
+package pl.bgadzala.arl;
+
+import android.media.AudioRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing WAV header when recording starts and patching it when recording finishes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WavHeaderBenchmark {
+
+    @Param({"NULL", "RAF", "CHANNEL", "BUFFERED"})
+    public OutputType output;
+
+    private File mFile;
+    private AudioRecord mAudioRecord;
+    private WavRecorder mRecorder;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        mFile = File.createTempFile("arl-bench", ".wav");
+        mAudioRecord = SyntheticAudio.createAudioRecord(44100, 2);
+    }
+
+    /**
+     * Creates recorder for every invocation because finishing recording closes the output.
+     * Allocations of the recorder itself are included in reported allocation rate.
+     */
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException {
+        mRecorder = new WavRecorder(mAudioRecord, output.open(mFile));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public void writeAndPatchHeader(Throughput throughput) {
+        mRecorder.onRecordingStarted();
+        mRecorder.onRecordingFinished();
+        throughput.bytes += 44;
+    }
+}
@@ -0,0 +1,101 @@
+package pl.bgadzala.arl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link WavRecorder#onSampleRead} for byte arrays and direct buffers, written as read
+ * or converted to other sample formats.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WavRecorderBenchmark {
+
+    /**
+     * Output file is rewound to the end of the header after that many bytes.
+     */
+    private static final long MAX_PAYLOAD = 64 * 1024 * 1024;
+
+    @Param({"8000", "16000", "44100"})
+    public int sampleRate;
+    @Param({"1", "2"})
+    public int channels;
+    @Param({"NULL", "RAF", "CHANNEL", "BUFFERED"})
+    public OutputType output;
+    @Param({"PCM_16", "PCM_24", "FLOAT"})
+    public SampleFormat sampleFormat;
+
+    private File mFile;
+    private PositionAudioStream mStream;
+    private WavRecorder mRecorder;
+    private byte[] mChunk;
+    private ByteBuffer mDirectChunk;
+    /**
+     * Position following the header, which depends on the container and sample format.
+     */
+    private long mDataStart;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("arl-bench", ".wav");
+        mStream = new PositionAudioStream(output.open(mFile));
+        mRecorder = new WavRecorder(SyntheticAudio.createAudioRecord(sampleRate, channels), mStream);
+        mRecorder.setSampleFormat(sampleFormat);
+        mChunk = SyntheticAudio.readChunk(mRecorder.mSource);
+        mDirectChunk = ByteBuffer.allocateDirect(mChunk.length);
+        mDirectChunk.put(mChunk).flip();
+        mRecorder.onRecordingStarted();
+        mDataStart = mStream.getPosition();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRecorder.onRecordingFinished();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public void onSampleReadArray(Throughput throughput) {
+        rewindIfNeeded();
+        mRecorder.onSampleRead(mChunk, mChunk.length);
+        count(throughput);
+    }
+
+    @Benchmark
+    public void onSampleReadDirect(Throughput throughput) {
+        rewindIfNeeded();
+        mDirectChunk.clear();
+        mRecorder.onSampleRead(mDirectChunk, mDirectChunk.limit());
+        count(throughput);
+    }
+
+    private void rewindIfNeeded() {
+        if (mStream.getPosition() - mDataStart >= MAX_PAYLOAD) {
+            mStream.seek(mDataStart);
+        }
+    }
+
+    private void count(Throughput throughput) {
+        throughput.bytes += mChunk.length;
+        throughput.samples += SyntheticAudio.SAMPLES_PER_OPERATION;
+    }
+}
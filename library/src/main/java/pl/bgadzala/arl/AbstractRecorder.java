@@ -1,34 +1,215 @@
 package pl.bgadzala.arl;
 
-import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.os.Process;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Abstract audio recorder which is format unaware. Handles state switching
- * and reading audio data from platform audio recorder.
+ * and reading audio data from a {@link PcmSource} - platform audio recorder, file or generated signal.
+ * <p/>
+ * Audio is read on a capture thread into {@link PcmChunk}s taken from
+ * a preallocated {@link PcmChunkPool}. Every chunk holds one period of audio (20 ms by default,
+ * see {@link #setPeriod(int)}), so amplitude and data are delivered in near real time.
+ * Chunks are handed over through a lock-free {@link RingBuffer} to a separate writer thread.
+ * Only the writer thread invokes {@link #onRecordingStarted()}, {@link #onSampleRead(byte[], int)}
+ * and {@link #onRecordingFinished()}, so slow output never stalls reading from {@link AudioRecord}.
+ * When the writer falls behind for longer than the backlog (see {@link #setBacklog(int)})
+ * and all chunks are queued, read audio of real time sources is handled by the backpressure policy -
+ * capture waits, the oldest or the newest audio is dropped or audio is spilled to an overflow buffer,
+ * see {@link #setBackpressure(Backpressure)}. Dropped audio is counted as an overrun and reported
+ * to {@link OverrunListener}, timeline and timing of the following audio are not affected.
+ * Sources which are not real time (see {@link PcmSource#isRealTime()}) are read as fast as the output
+ * allows and recording finishes when they reach the end of stream, see {@link #transcode()}.
+ * <p/>
+ * Optional {@link SpectrumAnalyzer} computes spectrum of captured audio on the capture thread, see
+ * {@link #setSpectrumAnalyzer(SpectrumAnalyzer)}.
+ * <p/>
+ * Stages working on samples get them converted to 16 bits by {@link SampleConverter} once per chunk -
+ * the level meter and spectrum analyzer on the capture thread, the voice activity detector and
+ * recorders encoding samples (see {@link #isEncodingSamples()}) on the writer thread.
+ * <p/>
+ * Captured chunks are passed to subscribed {@link PcmListener}s as read-only views without copying,
+ * before they are written, see {@link #addPcmListener(PcmListener, Executor)}. A chunk returns to the pool
+ * when the writer and all listeners have released it.
+ * <p/>
+ * Optional {@link VoiceActivityDetector} skips silence before it reaches the output, see
+ * {@link #setVoiceActivityDetector(VoiceActivityDetector)} and {@link #getTimeline()}.
+ * <p/>
+ * Output could be split into segments of limited duration or size, see
+ * {@link #setSegmentation(long, long, SegmentListener)}. Finished segments are sealed
+ * by a background thread, see {@link #finishSegment()}.
+ * <p/>
+ * Output could be made valid periodically, so a crash loses at most the audio since the last
+ * checkpoint, see {@link #setCheckpointInterval(long)}, {@link #setSyncPolicy(SyncPolicy)}
+ * and {@link #onCheckpoint()}.
+ * <p/>
+ * Recording could be retroactive - the last seconds of audio are kept in memory and nothing is written
+ * until {@link #trigger()} is called, see {@link #setHistory(int)}.
  * <p/>
  * Stopped recording could be started until recorder is released. Such behaviour
  * allows to implement a pause function which is unavailable in {@link AudioRecord}.
+ * While paused the capture thread is blocked until recording is resumed or stopped. The source
+ * could be stopped during long pauses and audio buffered by the source while paused is discarded
+ * or kept, see {@link #setPauseStopDelay(long)} and {@link #setPauseBacklog(PauseBacklog)}.
+ * <p/>
+ * Every recording runs on its own capture and writer threads, unless a {@link RecorderScheduler} shared
+ * by many recorders is set, see {@link #setScheduler(RecorderScheduler)}.
  *
  * @author Bartosz Gadzała
  */
 public abstract class AbstractRecorder implements Recorder, Runnable {
 
     /**
-     * Wrapped audio recorder.
+     * What happens with audio of a real time source read when all chunks are queued for the writer.
+     */
+    public enum Backpressure {
+        /**
+         * Capture waits for a free chunk. The source buffers audio meanwhile and may lose it without notice.
+         */
+        BLOCK,
+        /**
+         * The oldest queued chunk is dropped and reused for the new audio.
+         */
+        DROP_OLDEST,
+        /**
+         * The new audio is dropped.
+         */
+        DROP_NEWEST,
+        /**
+         * The new audio is stored in a bounded overflow buffer and queued when chunks are free, see
+         * {@link #setSpill(int, File)}. The new audio is dropped when the overflow buffer is full.
+         */
+        SPILL
+    }
+
+    /**
+     * What happens with audio buffered by a real time source while recording is paused.
+     */
+    public enum PauseBacklog {
+        /**
+         * Source is restarted on resume, so recording continues with live audio.
+         */
+        DISCARD,
+        /**
+         * Audio buffered while paused, at most the internal buffer of the source, is recorded after resume.
+         */
+        KEEP
+    }
+
+    /**
+     * Default duration of audio held by a single PCM chunk.
+     */
+    public static final int DEFAULT_PERIOD_MILLIS = 20;
+    /**
+     * Default duration of audio which could be queued for the writer thread.
+     */
+    public static final int DEFAULT_BACKLOG_MILLIS = 500;
+    /**
+     * Maximum time a waiting thread parks before checking recorder state again.
+     */
+    private static final long WRITER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /**
+     * Default duration of audio which could be spilled to the overflow buffer.
+     */
+    public static final int DEFAULT_SPILL_MILLIS = 10000;
+    /**
+     * Default duration of audio a PCM listener could lag behind before it is skipped.
+     */
+    public static final int DEFAULT_PCM_LISTENER_BACKLOG_MILLIS = 250;
+    /**
+     * Returned by {@link #capture()} when capture has finished.
+     */
+    static final long CAPTURE_FINISHED = -1;
+
+    /**
+     * Source of recorded audio.
      */
-    protected AudioRecord mAudioRecord;
+    protected PcmSource mSource;
     /**
      * Output stream for recorded audio.
      */
     protected AudioStream mOutput;
     /**
-     * Buffer for raw PCM data.
+     * Buffer for raw PCM data which is read and discarded when all chunks are queued for writing.
      */
     protected byte[] mPcmBuffer;
+    /**
+     * Duration of audio held by a single PCM chunk.
+     */
+    private int mPeriodMillis = DEFAULT_PERIOD_MILLIS;
+    /**
+     * Duration of audio which could be queued for the writer thread.
+     */
+    private int mBacklogMillis = DEFAULT_BACKLOG_MILLIS;
+    /**
+     * <code>true</code> if chunks are backed by direct buffers.
+     */
+    private boolean mDirectBuffers;
+    /**
+     * Buffer used by the writer thread to copy direct chunks for subclasses which handle only byte arrays.
+     */
+    private byte[] mWriterBuffer;
+    /**
+     * Samples converted by the writer thread and the chunk they were converted from, identified also by its
+     * capture frame as chunks are reused, or <code>null</code> if they were converted from another buffer.
+     */
+    private short[] mWriterSamples;
+    private PcmChunk mWriterSamplesChunk;
+    private long mWriterSamplesFrame;
+    /**
+     * Chunks ready to be filled by the capture thread.
+     */
+    private PcmChunkPool mChunkPool;
+    /**
+     * Chunks filled by the capture thread waiting for the writer thread.
+     */
+    private RingBuffer<PcmChunk> mFilledChunks;
+    /**
+     * Counters and latencies, including number of reads dropped because writer thread did not keep up.
+     */
+    private final RecorderMetrics mMetrics = new RecorderMetrics();
+    /**
+     * Thread writing chunks to the output stream.
+     */
+    private volatile Thread mWriterThread;
+    /**
+     * <code>true</code> if writer thread is parked waiting for chunks.
+     */
+    private volatile boolean mWriterWaiting;
+    /**
+     * Thread reading audio from the source.
+     */
+    private volatile Thread mCaptureThread;
+    /**
+     * <code>true</code> if capture thread is parked waiting for free chunks.
+     */
+    private volatile boolean mCaptureWaiting;
+    /**
+     * <code>true</code> when source has been released and recorder cannot be started again.
+     */
+    private volatile boolean mReleased;
+    /**
+     * <code>true</code> when capture thread will not queue any more chunks.
+     */
+    private volatile boolean mCaptureFinished;
+    /**
+     * Error which has terminated the writer thread.
+     */
+    private volatile RuntimeException mWriterError;
     /**
      * <code>true</code> if recording is started
      */
@@ -38,20 +219,180 @@ public abstract class AbstractRecorder implements Recorder, Runnable {
      */
     private AtomicBoolean mRecording = new AtomicBoolean(false);
     /**
-     * Max amplitude of read samples.
+     * <code>true</code> from start of a recording until its capture and output have finished, even if
+     * {@link #mRecording} has already been cleared.
+     */
+    private AtomicBoolean mRunning = new AtomicBoolean(false);
+    /**
+     * Measures levels of read samples.
+     */
+    private LevelMeter mLevelMeter;
+    /**
+     * Analyzes spectrum of captured audio or <code>null</code>.
+     */
+    private SpectrumAnalyzer mSpectrumAnalyzer;
+    /**
+     * Detects voice in chunks taken by the writer thread or <code>null</code> if all audio is written.
+     */
+    private VoiceActivityDetector mVoiceDetector;
+    /**
+     * Number of chunks reserved for pre-roll of voice activity detection.
+     */
+    private int mPreRollChunks;
+    /**
+     * Maps output time to capture time.
+     */
+    private final RecordingTimeline mTimeline;
+    /**
+     * Supplies streams of segments or <code>null</code> if output is not segmented.
+     */
+    private SegmentListener mSegmentListener;
+    /**
+     * Maximum duration of a segment or 0 if not limited.
+     */
+    private long mSegmentMillis;
+    /**
+     * Maximum size of PCM audio of a segment or 0 if not limited.
+     */
+    private long mSegmentBytes;
+    /**
+     * Error which has occurred while sealing a segment.
+     */
+    private volatile RuntimeException mSealError;
+    /**
+     * Duration of audio between checkpoints or 0 if output is checkpointed only when synced.
+     */
+    private long mCheckpointMillis;
+    /**
+     * Defines how often output is forced to the storage device.
+     */
+    private SyncPolicy mSyncPolicy = SyncPolicy.NEVER;
+    /**
+     * Circular buffer keeping audio until the recording is triggered or <code>null</code> if audio
+     * is written from the start.
+     */
+    private ByteBuffer mHistory;
+    /**
+     * Duration of audio kept until the recording is triggered.
+     */
+    private int mHistoryMillis;
+    /**
+     * <code>true</code> when kept audio should be written followed by live audio.
+     */
+    private volatile boolean mTriggered;
+    /**
+     * Duration of a pause after which the source is stopped or negative value if it is never stopped.
+     */
+    private long mPauseStopMillis = -1;
+    /**
+     * What happens with audio buffered by the source while paused.
+     */
+    private PauseBacklog mPauseBacklog = PauseBacklog.DISCARD;
+    /**
+     * Scheduler running recordings or <code>null</code> if every recording has its own threads.
+     */
+    private RecorderScheduler mScheduler;
+    /**
+     * Priority of recordings in the scheduler.
+     */
+    private int mPriority;
+    /**
+     * Current recording in the scheduler or <code>null</code> if recording has its own threads.
+     */
+    private volatile RecorderScheduler.Task mTask;
+    /**
+     * Writes chunks of the current recording.
+     */
+    private WriterTask mWriter;
+    /**
+     * Handling of audio read when all chunks are queued.
+     */
+    private Backpressure mBackpressure = Backpressure.DROP_NEWEST;
+    /**
+     * Duration of audio which could be spilled to the overflow buffer.
+     */
+    private int mSpillMillis = DEFAULT_SPILL_MILLIS;
+    /**
+     * Directory of the overflow file or <code>null</code> if overflow is kept in memory.
+     */
+    private File mSpillDirectory;
+    /**
+     * Overflow buffer of the current recording or <code>null</code> if audio is not spilled.
+     */
+    private SpillBuffer mSpill;
+    /**
+     * Receives ranges of dropped audio or <code>null</code>.
+     */
+    private OverrunListener mOverrunListener;
+    /**
+     * Duration of audio PCM listeners could lag behind and number of chunks holding it, shared by all listeners.
+     */
+    private int mPcmListenerBacklogMillis = DEFAULT_PCM_LISTENER_BACKLOG_MILLIS;
+    private int mPcmListenerChunks;
+    /**
+     * Number of chunks queued for all PCM listeners, never more than {@link #mPcmListenerChunks}.
+     */
+    private final AtomicInteger mPcmListenerQueued = new AtomicInteger();
+    /**
+     * Subscribed PCM listeners, replaced on every change, so capture iterates them without locking.
+     */
+    private volatile PcmSubscription[] mPcmSubscriptions = new PcmSubscription[0];
+    private final Object mPcmListenerLock = new Object();
+
+    // state of the capture, used only by the capture thread
+    private boolean mRealTime;
+    private int mInvalidSize;
+    /**
+     * Samples of the captured chunk, converted once for the level meter and spectrum analyzer.
+     */
+    private short[] mCaptureSamples;
+    /**
+     * Chunk acquired for the next read or <code>null</code> if there was no free chunk.
+     */
+    private PcmChunk mCaptureChunk;
+    /**
+     * <code>true</code> if capture has been paused and the source is not prepared for resume yet.
+     */
+    private boolean mPaused;
+    /**
+     * Time in nanoseconds when paused source should be stopped.
+     */
+    private long mPauseStopAt;
+    private boolean mSourceStopped;
+    /**
+     * Time in nanoseconds when the last read has returned or 0 if the next read starts the measurement.
+     */
+    private long mLastReadNanos;
+    /**
+     * Time in nanoseconds when the last read has returned, kept while paused.
+     */
+    private long mLastCaptureNanos;
+    /**
+     * Number of frames read from the source, including dropped ones.
+     */
+    private long mCaptureFrames;
+    /**
+     * Range of dropped audio which has not been reported yet.
      */
-    private int mAmplitude;
+    private long mDropStart;
+    private long mDropFrames;
 
     public AbstractRecorder(AudioRecord audioRecord, AudioStream out) {
-        if (audioRecord == null) {
-            throw new NullPointerException("Audio recorder is mandatory");
+        this(new AudioRecordPcmSource(audioRecord), out);
+    }
+
+    public AbstractRecorder(PcmSource source, AudioStream out) {
+        if (source == null) {
+            throw new NullPointerException("Audio source is mandatory");
         } else if (out == null) {
             throw new NullPointerException("Output file is mandatory");
         }
 
-        mAudioRecord = audioRecord;
+        mSource = source;
         mOutput = out;
-        mPcmBuffer = createPCMBuffer();
+        mLevelMeter = createLevelMeter(LevelMeter.DEFAULT_WINDOW_MILLIS);
+        mTimeline = new RecordingTimeline(source.getSampleRate());
+        allocateChunks();
     }
 
     /**
@@ -59,14 +400,33 @@ public abstract class AbstractRecorder implements Recorder, Runnable {
      */
     @Override
     public void start() {
-        if (mAudioRecord == null) {
+        if (mReleased) {
             throw new IllegalStateException("Audio recorder is already stopped");
         }
         mStarted.set(true);
-        mAmplitude = 0;
+        mLevelMeter.getAndResetMaxAmplitude();
         if (!mRecording.getAndSet(true)) {
-            Thread t = new Thread(this, "AudioRecorderTask");
-            t.start();
+            if (mRunning.getAndSet(true)) {
+                // previous recording is still finishing and will release the source
+                mStarted.set(false);
+                mRecording.set(false);
+                throw new IllegalStateException("Audio recorder is already stopped");
+            }
+            if (mScheduler == null) {
+                Thread t = new Thread(this, "AudioRecorderTask");
+                t.start();
+                return;
+            }
+            try {
+                mScheduler.start(this);
+            } catch (RuntimeException ex) {
+                mStarted.set(false);
+                mRecording.set(false);
+                mRunning.set(false);
+                throw ex;
+            }
+        } else {
+            signalCapture();
         }
     }
 
@@ -75,11 +435,12 @@ public abstract class AbstractRecorder implements Recorder, Runnable {
      */
     @Override
     public void pause() {
-        if (mAudioRecord == null) {
+        if (mReleased) {
             throw new IllegalStateException("Audio recorder is already stopped");
         }
         mStarted.set(false);
-        mAmplitude = 0;
+        mLevelMeter.getAndResetMaxAmplitude();
+        signalCapture();
     }
 
     /**
@@ -87,10 +448,30 @@ public abstract class AbstractRecorder implements Recorder, Runnable {
      */
     @Override
     public void stop() {
-        if (mAudioRecord == null) {
+        if (mReleased) {
             throw new IllegalStateException("Audio recorder is already stopped");
         }
         mRecording.set(false);
+        signalCapture();
+    }
+
+    /**
+     * Records the whole source in the calling thread, as fast as the output allows, and returns when output
+     * is finished. Intended for sources which are not real time, e.g. for re-encoding files. Scheduler
+     * is not used.
+     */
+    public void transcode() {
+        if (mReleased) {
+            throw new IllegalStateException("Audio recorder is already stopped");
+        } else if (mRecording.getAndSet(true)) {
+            throw new IllegalStateException("Audio recorder is already recording");
+        } else if (mRunning.getAndSet(true)) {
+            mRecording.set(false);
+            throw new IllegalStateException("Audio recorder is already stopped");
+        }
+        mStarted.set(true);
+        mLevelMeter.getAndResetMaxAmplitude();
+        run();
     }
 
     /**
@@ -114,123 +495,1637 @@ public abstract class AbstractRecorder implements Recorder, Runnable {
      */
     @Override
     public int getMaxAmplitude() {
-        int result = mAmplitude;
-        mAmplitude = 0;
-        return result;
+        return mLevelMeter.getAndResetMaxAmplitude();
     }
 
     /**
-     * Reads audio to PCM buffer in a separate thread.
+     * {@inheritDoc}
      */
     @Override
-    public void run() {
-        startAudioRecorder();
-        onRecordingStarted();
+    public Levels getLevels(Levels levels) {
+        return mLevelMeter.getLevels(levels);
+    }
 
-        int invalidSize = 0;
-        try {
-            int readSize;
-            while (mRecording.get()) {
-                if (mStarted.get()) {
-                    readSize = mAudioRecord.read(mPcmBuffer, 0, mPcmBuffer.length);
-                    if (readSize < 0) {
-                        invalidSize++;
-                    } else if (readSize > 0) {
-                        invalidSize = 0;
-                        readAmplitude();
-                        onSampleRead(mPcmBuffer, readSize);
-                    }
-                    if (invalidSize >= 10) {
-                        throw new RuntimeException("AudioRecorder returned [" + readSize + "] bytes");
-                    }
-                } else {
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException ex) {
-                        break;
-                    }
-                }
-            }
-        } finally {
-            onRecordingFinished();
-            stopAudioRecorder();
+    /**
+     * Sets duration of a window over which peak, RMS and clipped samples are measured.
+     * Can be changed only before recording is started.
+     *
+     * @param windowMillis window in milliseconds
+     */
+    public void setLevelWindow(int windowMillis) {
+        checkNotRecording();
+        mLevelMeter = createLevelMeter(windowMillis);
+    }
+
+    /**
+     * Sets analyzer which computes spectrum of captured audio on the capture thread, before audio is queued
+     * for the writer. Spectra are polled with {@link SpectrumAnalyzer#getSpectrum(Spectrum)} or passed to
+     * its listener. Can be changed only before recording is started.
+     *
+     * @param analyzer analyzer created for format of the source or <code>null</code> to disable analysis
+     */
+    public void setSpectrumAnalyzer(SpectrumAnalyzer analyzer) {
+        if (analyzer != null && (analyzer.getChannelCount() != mSource.getChannelCount()
+                || analyzer.getBitsPerSample() != mSource.getBitsPerSample()
+                || analyzer.getSampleRate() != mSource.getSampleRate())) {
+            throw new IllegalArgumentException(String.format("Analyzer format [%d ch, %d bit, %d Hz] does not match source [%d ch, %d bit, %d Hz]",
+                    analyzer.getChannelCount(), analyzer.getBitsPerSample(), analyzer.getSampleRate(),
+                    mSource.getChannelCount(), mSource.getBitsPerSample(), mSource.getSampleRate()));
         }
+        checkNotRecording();
+        mSpectrumAnalyzer = analyzer;
+    }
+
+    /**
+     * @return analyzer which computes spectrum of captured audio or <code>null</code>
+     */
+    public SpectrumAnalyzer getSpectrumAnalyzer() {
+        return mSpectrumAnalyzer;
     }
 
     /**
-     * Creates PCM buffer capable to hold 5 seconds of audio.
+     * Sets duration of audio held by a single PCM chunk. Shorter periods deliver audio
+     * and amplitude with lower latency at the cost of more frequent reads and writes.
+     * Can be changed only before recording is started.
      *
-     * @return PCM buffer
+     * @param periodMillis period in milliseconds (e.g. 10, 20 or 50)
      */
-    protected byte[] createPCMBuffer() {
-        int audioFormat = mAudioRecord.getAudioFormat() == AudioFormat.ENCODING_PCM_16BIT ? 16 : 8;
-        return new byte[mAudioRecord.getSampleRate() * (audioFormat / 8) * mAudioRecord.getChannelCount() * 5];
+    public void setPeriod(int periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Period must be positive but was [" + periodMillis + "]");
+        }
+        checkNotRecording();
+        mPeriodMillis = periodMillis;
+        allocateChunks();
     }
 
     /**
-     * Computes minimum size of the buffer.
+     * @return duration of audio held by a single PCM chunk in milliseconds
+     */
+    public int getPeriod() {
+        return mPeriodMillis;
+    }
+
+    /**
+     * Sets duration of audio which could be queued while output is slower than capture.
+     * It is never shorter than the internal buffer of {@link AudioRecord}.
+     * Can be changed only before recording is started.
      *
-     * @return minimum size of the buffer
+     * @param backlogMillis backlog in milliseconds
      */
-    protected int getMinBufferSize() {
-        final int minBufferSize = AudioRecord.getMinBufferSize(
-                mAudioRecord.getSampleRate(), mAudioRecord.getChannelConfiguration(), mAudioRecord.getAudioFormat());
-        if (minBufferSize < 0) {
-            throw new IllegalStateException("Invalid audio recorder - cannot compute minimum buffer size");
+    public void setBacklog(int backlogMillis) {
+        if (backlogMillis <= 0) {
+            throw new IllegalArgumentException("Backlog must be positive but was [" + backlogMillis + "]");
         }
-        return minBufferSize;
+        checkNotRecording();
+        mBacklogMillis = backlogMillis;
+        allocateChunks();
     }
 
-    protected abstract void onRecordingStarted();
+    /**
+     * @return duration of audio which could be queued for output in milliseconds
+     */
+    public int getBacklog() {
+        return mBacklogMillis;
+    }
 
-    protected abstract void onSampleRead(byte[] buffer, int size);
+    /**
+     * Enables reading audio into direct buffers with {@link AudioRecord#read(ByteBuffer, int)}.
+     * Together with {@link AudioStream#write(ByteBuffer)} of a channel backed stream (e.g.
+     * {@link FileChannelAudioStream}) audio is written without copying it to the Java heap.
+     * Can be changed only before recording is started.
+     *
+     * @param directBuffers <code>true</code> to use direct buffers
+     */
+    public void setDirectBuffers(boolean directBuffers) {
+        checkNotRecording();
+        mDirectBuffers = directBuffers;
+        allocateChunks();
+    }
 
-    protected abstract void onRecordingFinished();
+    /**
+     * @return <code>true</code> if audio is read into direct buffers
+     */
+    public boolean isDirectBuffers() {
+        return mDirectBuffers;
+    }
 
     /**
-     * Starts audio recorder.
+     * Sets detector of voice activity, which makes the writer thread skip silence. Silence preceding voice
+     * is kept for pre-roll, so the pool of chunks grows by pre-roll. Can be changed only before recording is started.
+     *
+     * @param detector detector of voice activity or <code>null</code> to write all audio
      */
-    private void startAudioRecorder() {
-        android.os.Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+    public void setVoiceActivityDetector(VoiceActivityDetector detector) {
+        checkNotRecording();
+        mVoiceDetector = detector;
+        allocateChunks();
+    }
 
-        if (mAudioRecord != null && mAudioRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
-            mAudioRecord.startRecording();
+    /**
+     * Sets how often the output is made valid while recording, see {@link #onCheckpoint()}. A crash loses
+     * at most the audio recorded since the last checkpoint which has reached the storage device,
+     * see {@link #setSyncPolicy(SyncPolicy)}. Can be changed only before recording is started.
+     *
+     * @param intervalMillis duration of recorded audio between checkpoints or 0 to checkpoint only when synced
+     */
+    public void setCheckpointInterval(long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("Checkpoint interval must not be negative but was [" + intervalMillis + "]");
         }
+        checkNotRecording();
+        mCheckpointMillis = intervalMillis;
+    }
+
+    /**
+     * @return duration of recorded audio between checkpoints or 0 if output is checkpointed only when synced
+     */
+    public long getCheckpointInterval() {
+        return mCheckpointMillis;
     }
 
     /**
-     * Stops audio recorder.
+     * Sets how often output is forced to the storage device. Every sync is preceded by a checkpoint.
+     * Can be changed only before recording is started.
+     *
+     * @param policy sync policy, {@link SyncPolicy#NEVER} by default
      */
-    private void stopAudioRecorder() {
-        if (mAudioRecord != null && mAudioRecord.getRecordingState() != AudioRecord.RECORDSTATE_STOPPED) {
-            mAudioRecord.stop();
-            mAudioRecord.release();
-            mAudioRecord = null;
+    public void setSyncPolicy(SyncPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("Sync policy is mandatory");
         }
+        checkNotRecording();
+        mSyncPolicy = policy;
+    }
+
+    /**
+     * @return how often output is forced to the storage device
+     */
+    public SyncPolicy getSyncPolicy() {
+        return mSyncPolicy;
+    }
 
-        Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+    /**
+     * Splits output into segments. A new segment is started before a read buffer which would exceed
+     * any of the limits, so no audio is lost between segments and only a segment holding a single buffer
+     * could exceed the limits. The size limit applies to PCM audio, the size of encoded segments is lower
+     * for compressing formats. Can be changed only before recording is started.
+     *
+     * @param maxMillis maximum duration of a segment or 0 if not limited
+     * @param maxBytes  maximum size of PCM audio of a segment or 0 if not limited
+     * @param listener  listener supplying streams of segments or <code>null</code> to write a single output
+     */
+    public void setSegmentation(long maxMillis, long maxBytes, SegmentListener listener) {
+        if (maxMillis < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException(String.format("Invalid segment duration [%d] or size [%d]",
+                    maxMillis, maxBytes));
+        } else if (listener != null && maxMillis == 0 && maxBytes == 0) {
+            throw new IllegalArgumentException("Segment duration or size must be limited");
+        }
+        checkNotRecording();
+        mSegmentMillis = maxMillis;
+        mSegmentBytes = maxBytes;
+        mSegmentListener = listener;
+    }
 
-        mRecording.set(false);
-        mStarted.set(false);
-        mAmplitude = 0;
+    /**
+     * Makes the recording retroactive. After start the last seconds of audio are kept in a circular buffer
+     * outside of the Java heap and nothing is written to the output. When {@link #trigger()} is called,
+     * the output is started with the kept audio and continues with live audio without any gap. Keeping
+     * audio does not allocate, the buffer is allocated by this method. If recording is stopped before
+     * it is triggered, the output is closed without writing anything. Can be changed only before
+     * recording is started.
+     *
+     * @param historyMillis duration of audio kept before the trigger or 0 to write audio from the start
+     */
+    public void setHistory(int historyMillis) {
+        if (historyMillis < 0) {
+            throw new IllegalArgumentException("History must not be negative but was [" + historyMillis + "]");
+        }
+        checkNotRecording();
+        mHistoryMillis = historyMillis;
+        if (historyMillis == 0) {
+            mHistory = null;
+        } else {
+            long frames = Math.max(1, (long) mSource.getSampleRate() * historyMillis / 1000);
+            mHistory = ByteBuffer.allocateDirect((int) (frames * getFrameSize())).order(ByteOrder.LITTLE_ENDIAN);
+        }
     }
 
-    private void readAmplitude() {
-        if (mAudioRecord.getAudioFormat() == AudioFormat.ENCODING_PCM_16BIT) {
-            // 16bit sample size
-            for (int i = 0; i < mPcmBuffer.length / 2; i++) {
-                short curSample = (short) (mPcmBuffer[i * 2] | mPcmBuffer[i * 2 + 1] << 8);
-                if (curSample > mAmplitude) {
-                    mAmplitude = curSample;
-                }
-            }
-        } else if (mAudioRecord.getAudioFormat() == AudioFormat.ENCODING_PCM_8BIT) {
-            // 8bit sample size
-            for (int i = 0; i < mPcmBuffer.length; i++) {
-                if (mPcmBuffer[i] > mAmplitude) {
-                    mAmplitude = 0xff & mPcmBuffer[i];
+    /**
+     * @return duration of audio kept before the trigger or 0 if audio is written from the start
+     */
+    public int getHistory() {
+        return mHistoryMillis;
+    }
+
+    /**
+     * Starts writing retroactive recording, see {@link #setHistory(int)}. Kept audio is written by the writer
+     * thread when it takes the next buffer. Could be called from any thread, does nothing if recording
+     * is not retroactive or it has been already triggered.
+     */
+    public void trigger() {
+        mTriggered = true;
+    }
+
+    /**
+     * @return <code>true</code> if retroactive recording has been triggered
+     */
+    public boolean isTriggered() {
+        return mTriggered;
+    }
+
+    /**
+     * Sets duration of a pause after which the source is stopped, e.g. to release the microphone and
+     * save power during long pauses. The source is started again on resume, which may take a few
+     * milliseconds. Can be changed only before recording is started.
+     *
+     * @param millis duration of a pause, 0 to stop the source immediately or negative value to keep
+     *               the source running while paused (default)
+     */
+    public void setPauseStopDelay(long millis) {
+        checkNotRecording();
+        mPauseStopMillis = millis;
+    }
+
+    /**
+     * @return duration of a pause after which the source is stopped or negative value if it is never stopped
+     */
+    public long getPauseStopDelay() {
+        return mPauseStopMillis;
+    }
+
+    /**
+     * Defines what happens with audio buffered by a real time source which keeps running while paused.
+     * Audio buffered by a stopped source is always discarded. Can be changed only before recording
+     * is started.
+     *
+     * @param backlog policy for buffered audio, {@link PauseBacklog#DISCARD} by default
+     */
+    public void setPauseBacklog(PauseBacklog backlog) {
+        if (backlog == null) {
+            throw new NullPointerException("Pause backlog policy is mandatory");
+        }
+        checkNotRecording();
+        mPauseBacklog = backlog;
+    }
+
+    /**
+     * @return policy for audio buffered by the source while paused
+     */
+    public PauseBacklog getPauseBacklog() {
+        return mPauseBacklog;
+    }
+
+    /**
+     * Sets what happens with audio of a real time source read when output does not keep up and all chunks are
+     * queued. Sources which are not real time are always read when a chunk is free. Can be changed only
+     * before recording is started.
+     *
+     * @param backpressure backpressure policy, {@link Backpressure#DROP_NEWEST} by default
+     */
+    public void setBackpressure(Backpressure backpressure) {
+        if (backpressure == null) {
+            throw new NullPointerException("Backpressure policy is mandatory");
+        }
+        checkNotRecording();
+        mBackpressure = backpressure;
+    }
+
+    /**
+     * @return handling of audio read when all chunks are queued
+     */
+    public Backpressure getBackpressure() {
+        return mBackpressure;
+    }
+
+    /**
+     * Sets size and location of the overflow buffer used by {@link Backpressure#SPILL}. The buffer is created
+     * when recording starts and released when it finishes, spilled audio is written before output is finished.
+     * Can be changed only before recording is started.
+     *
+     * @param spillMillis duration of audio which could be spilled, {@link #DEFAULT_SPILL_MILLIS} by default
+     * @param directory   directory of a temporary overflow file or <code>null</code> to keep overflow in memory
+     *                    outside of the Java heap (default)
+     */
+    public void setSpill(int spillMillis, File directory) {
+        if (spillMillis <= 0) {
+            throw new IllegalArgumentException("Spill duration must be positive but was [" + spillMillis + "]");
+        }
+        checkNotRecording();
+        mSpillMillis = spillMillis;
+        mSpillDirectory = directory;
+    }
+
+    /**
+     * @return duration of audio which could be spilled to the overflow buffer
+     */
+    public int getSpill() {
+        return mSpillMillis;
+    }
+
+    /**
+     * @return directory of the overflow file or <code>null</code> if overflow is kept in memory
+     */
+    public File getSpillDirectory() {
+        return mSpillDirectory;
+    }
+
+    /**
+     * Can be changed only before recording is started.
+     *
+     * @param listener listener receiving ranges of dropped audio or <code>null</code>
+     */
+    public void setOverrunListener(OverrunListener listener) {
+        checkNotRecording();
+        mOverrunListener = listener;
+    }
+
+    /**
+     * Sets how long PCM listeners could lag behind capture before chunks are skipped for them. Chunks are
+     * not copied for listeners, so recorder allocates additional chunks for this backlog. The backlog is
+     * shared by all listeners, every listener could lag behind by its equal part of the backlog, but at least
+     * by one chunk while chunks of the backlog remain. Can be changed only before recording is started.
+     *
+     * @param backlogMillis backlog in milliseconds, {@link #DEFAULT_PCM_LISTENER_BACKLOG_MILLIS} by default
+     */
+    public void setPcmListenerBacklog(int backlogMillis) {
+        if (backlogMillis <= 0) {
+            throw new IllegalArgumentException("Backlog must be positive but was [" + backlogMillis + "]");
+        }
+        checkNotRecording();
+        mPcmListenerBacklogMillis = backlogMillis;
+        allocateChunks();
+    }
+
+    /**
+     * @return duration of audio PCM listeners could lag behind in milliseconds
+     */
+    public int getPcmListenerBacklog() {
+        return mPcmListenerBacklogMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PcmSubscription addPcmListener(PcmListener listener, Executor executor) {
+        if (listener == null) {
+            throw new NullPointerException("Listener is mandatory");
+        } else if (executor == null) {
+            throw new NullPointerException("Executor is mandatory");
+        }
+        PcmSubscription subscription = new PcmSubscription(this, listener, executor, mPcmListenerChunks,
+                getFrameSize(), mSource.getBitsPerSample());
+        synchronized (mPcmListenerLock) {
+            PcmSubscription[] subscriptions = mPcmSubscriptions;
+            subscriptions = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            subscriptions[subscriptions.length - 1] = subscription;
+            mPcmSubscriptions = subscriptions;
+        }
+        return subscription;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removePcmListener(PcmListener listener) {
+        for (PcmSubscription subscription : mPcmSubscriptions) {
+            if (subscription.getListener() == listener) {
+                subscription.cancel();
+            }
+        }
+    }
+
+    /**
+     * Removes a cancelled subscription from the subscribed listeners.
+     */
+    void removePcmSubscription(PcmSubscription subscription) {
+        synchronized (mPcmListenerLock) {
+            PcmSubscription[] subscriptions = mPcmSubscriptions;
+            for (int i = 0; i < subscriptions.length; i++) {
+                if (subscriptions[i] == subscription) {
+                    PcmSubscription[] remaining = new PcmSubscription[subscriptions.length - 1];
+                    System.arraycopy(subscriptions, 0, remaining, 0, i);
+                    System.arraycopy(subscriptions, i + 1, remaining, i, remaining.length - i);
+                    mPcmSubscriptions = remaining;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets scheduler which runs recordings on threads shared with other recorders instead of starting
+     * capture and writer threads for every recording. Can be changed only before recording is started.
+     *
+     * @param scheduler scheduler or <code>null</code> to run every recording on its own threads
+     */
+    public void setScheduler(RecorderScheduler scheduler) {
+        checkNotRecording();
+        mScheduler = scheduler;
+    }
+
+    /**
+     * @return scheduler running recordings or <code>null</code> if every recording runs on its own threads
+     */
+    public RecorderScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * Sets priority of recordings in the scheduler. Recordings with higher priority are read first by
+     * a capture thread and are written first when they wait for an I/O thread. Can be changed only before
+     * recording is started.
+     *
+     * @param priority priority of recordings, 0 by default
+     */
+    public void setPriority(int priority) {
+        checkNotRecording();
+        mPriority = priority;
+    }
+
+    /**
+     * @return priority of recordings in the scheduler
+     */
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return detector of voice activity or <code>null</code> if all audio is written
+     */
+    public VoiceActivityDetector getVoiceActivityDetector() {
+        return mVoiceDetector;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RecorderMetrics getMetrics(RecorderMetrics metrics) {
+        return mMetrics.copyTo(metrics, mSource.getSampleRate(), mFilledChunks.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RecordingTimeline getTimeline() {
+        return mTimeline;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getQueueDepth() {
+        return mFilledChunks.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getOverrunCount() {
+        return mMetrics.getOverrunCount();
+    }
+
+    /**
+     * Reads audio to PCM chunks in a separate thread and queues them for the writer thread.
+     * Returns when all queued chunks are written and output is finished. The thread runs with urgent
+     * audio priority while it captures a real time source, threads of {@link RecorderScheduler} have
+     * their priority set by the scheduler.
+     */
+    @Override
+    public void run() {
+        boolean urgent = mSource.isRealTime();
+        if (urgent) {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        }
+        try {
+            startCapture(Thread.currentThread(), null);
+            long wait;
+            while ((wait = capture()) != CAPTURE_FINISHED) {
+                if (wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                    if (Thread.interrupted()) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            try {
+                finishCapture();
+                awaitWriter();
+            } finally {
+                if (urgent) {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                }
+            }
+        }
+        if (mWriterError != null) {
+            throw new RuntimeException("Error while writing recorded audio", mWriterError);
+        }
+    }
+
+    /**
+     * Prepares capture of a new recording and starts its writer.
+     *
+     * @param captureThread thread which captures audio
+     * @param task          recording in the scheduler or <code>null</code> if the writer runs on its own thread
+     */
+    void startCapture(Thread captureThread, RecorderScheduler.Task task) {
+        mCaptureThread = captureThread;
+        mTask = task;
+        mRealTime = mSource.isRealTime();
+        mInvalidSize = 0;
+        mCaptureChunk = null;
+        mPaused = false;
+        mSourceStopped = false;
+        mLastReadNanos = 0;
+        mCaptureFrames = mTimeline.getCaptureFrameCount();
+        mDropFrames = 0;
+        mCaptureFinished = false;
+        mWriterError = null;
+        mWriter = new WriterTask();
+        if (task == null) {
+            mWriterThread = new Thread(mWriter, "AudioWriterTask");
+            mWriterThread.start();
+        } else {
+            signalWriter(); // output is started without waiting for audio
+        }
+        // created once the writer exists, so an error creating the spill file finishes the recording cleanly;
+        // the writer reads the spill only after capture has finished
+        if (mBackpressure == Backpressure.SPILL && mRealTime) {
+            int entries = (getBytesForMillis(mSpillMillis) + mPcmBuffer.length - 1) / mPcmBuffer.length;
+            long capacity = (long) entries * (mPcmBuffer.length + SpillBuffer.HEADER_SIZE);
+            if (mSpillDirectory == null) {
+                mSpill = new SpillBuffer((int) Math.min(Integer.MAX_VALUE, capacity));
+            } else {
+                mSpill = new SpillBuffer(capacity, mSpillDirectory);
+            }
+        }
+        mSource.start();
+    }
+
+    /**
+     * Reads a single chunk of audio and queues it for the writer. Does not block unless the source blocks
+     * until audio is available.
+     *
+     * @return {@link #CAPTURE_FINISHED} if capture has finished, 0 if it should continue or maximum time
+     * in nanoseconds to wait before capture is continued, unless the capture thread is unparked earlier
+     */
+    long capture() {
+        if (!mRecording.get()) {
+            return CAPTURE_FINISHED;
+        } else if (!mStarted.get()) {
+            return pauseCapture();
+        } else if (mPaused) {
+            resumeCapture();
+        }
+
+        if (mSpill != null && !mSpill.isEmpty()) {
+            drainSpill();
+        }
+        PcmChunk chunk = mCaptureChunk;
+        if (chunk == null && (mSpill == null || mSpill.isEmpty())) {
+            chunk = mChunkPool.acquire();
+            if (chunk == null && (!mRealTime || mBackpressure == Backpressure.BLOCK)) {
+                // writer releasing a chunk sees the flag or capture sees the released chunk
+                mCaptureWaiting = true;
+                return mChunkPool.getAvailable() == 0 ? WRITER_PARK_NANOS : 0;
+            } else if (chunk == null && mBackpressure == Backpressure.DROP_OLDEST) {
+                // the read is dropped only if no queued chunk could be reclaimed
+                while (chunk == null && (chunk = mFilledChunks.poll()) != null) {
+                    drop(chunk.getCaptureFrame(), chunk.getSize() / getFrameSize());
+                    if (!chunk.release()) {
+                        // PCM listeners return the chunk to the pool, maybe already another one
+                        chunk = mChunkPool.acquire();
+                    }
+                }
+            } else if (chunk != null) {
+                reportDrop(); // output keeps up again, so dropping has stopped
+            }
+            mCaptureWaiting = false;
+            mCaptureChunk = chunk;
+        }
+
+        int readSize;
+        long readStart = System.nanoTime();
+        if (chunk == null) {
+            readSize = mSource.read(mPcmBuffer, 0, mPcmBuffer.length);
+        } else if (chunk.isDirect()) {
+            readSize = mSource.read(chunk.getBuffer(), chunk.getCapacity());
+        } else {
+            readSize = mSource.read(chunk.getData(), 0, chunk.getCapacity());
+        }
+        long readEnd = System.nanoTime();
+        if (readSize != PcmSource.END_OF_STREAM) {
+            mMetrics.recordRead(readEnd - readStart, readSize);
+            if (readSize > 0) {
+                if (mLastReadNanos != 0) {
+                    mMetrics.recordInterval(readEnd - mLastReadNanos, readSize / getFrameSize());
+                }
+                mLastReadNanos = readEnd;
+                mLastCaptureNanos = readEnd;
+            }
+        }
+        if (readSize == PcmSource.END_OF_STREAM) {
+            return CAPTURE_FINISHED;
+        } else if (readSize < 0) {
+            if (++mInvalidSize >= 10) {
+                throw new RuntimeException("AudioRecorder returned [" + readSize + "] bytes");
+            }
+        } else if (readSize > 0) {
+            mInvalidSize = 0;
+            long captureFrame = mCaptureFrames;
+            int frames = readSize / getFrameSize();
+            mCaptureFrames += frames;
+            if (chunk != null) {
+                chunk.setSize(readSize);
+                chunk.setCaptureFrame(captureFrame);
+                measure(chunk);
+                publish(chunk);
+                mFilledChunks.offer(chunk);
+                mCaptureChunk = null;
+                signalWriter();
+            } else if (mSpill != null && mSpill.offer(captureFrame, mPcmBuffer, readSize)) {
+                reportDrop();
+            } else {
+                drop(captureFrame, frames);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Moves spilled audio to free chunks, the oldest first.
+     */
+    private void drainSpill() {
+        PcmChunk chunk;
+        while (!mSpill.isEmpty() && (chunk = mChunkPool.acquire()) != null) {
+            mSpill.poll(chunk);
+            measure(chunk);
+            publish(chunk);
+            mFilledChunks.offer(chunk);
+            signalWriter();
+        }
+    }
+
+    /**
+     * Converts samples of a captured chunk and passes them to the level meter and spectrum analyzer.
+     */
+    private void measure(PcmChunk chunk) {
+        int count = chunk.getSize() / (mSource.getBitsPerSample() / 8);
+        SampleConverter.toShort(chunk.getBuffer(), 0, SampleFormat.forBitsPerSample(mSource.getBitsPerSample()),
+                mCaptureSamples, count);
+        mLevelMeter.process(mCaptureSamples, count);
+        if (mSpectrumAnalyzer != null) {
+            mSpectrumAnalyzer.process(mCaptureSamples, count, chunk.getCaptureFrame());
+        }
+    }
+
+    /**
+     * Takes reference of the writer to a captured chunk and passes the chunk to PCM listeners.
+     */
+    private void publish(PcmChunk chunk) {
+        chunk.retain(1);
+        long captureFrame = chunk.getCaptureFrame();
+        chunk.setCaptureNanos(mLastCaptureNanos - (mCaptureFrames - captureFrame) * 1000000000L / mSource.getSampleRate());
+        int frames = chunk.getSize() / getFrameSize();
+        PcmSubscription[] subscriptions = mPcmSubscriptions;
+        if (subscriptions.length > 0) {
+            int maxLag = Math.max(1, mPcmListenerChunks / subscriptions.length);
+            for (PcmSubscription subscription : subscriptions) {
+                subscription.offer(chunk, frames, maxLag);
+            }
+        }
+    }
+
+    /**
+     * Reserves a chunk of the PCM listener backlog for a chunk queued for a listener. Invoked only by
+     * the capture thread, so the backlog could only grow between the check and the reservation.
+     *
+     * @return <code>true</code> if the backlog has a free chunk
+     */
+    boolean reservePcmListenerChunk() {
+        if (mPcmListenerQueued.get() >= mPcmListenerChunks) {
+            return false;
+        }
+        mPcmListenerQueued.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Releases a chunk queued for a PCM listener and its reservation of the backlog.
+     */
+    void releasePcmListenerChunk(PcmChunk chunk) {
+        mPcmListenerQueued.decrementAndGet();
+        releaseChunk(chunk);
+    }
+
+    /**
+     * Releases a reference to a chunk and returns the chunk to the pool if it was the last one. Chunks are
+     * released by the writer and by PCM listeners.
+     */
+    void releaseChunk(PcmChunk chunk) {
+        if (chunk.release()) {
+            synchronized (mChunkPool) {
+                mChunkPool.release(chunk);
+            }
+            if (mCaptureWaiting) {
+                LockSupport.unpark(mCaptureThread);
+            }
+        }
+    }
+
+    /**
+     * Counts dropped audio and merges it with the unreported range if they are contiguous.
+     */
+    private void drop(long captureFrame, long frames) {
+        mMetrics.recordOverrun(frames);
+        if (mDropFrames > 0 && mDropStart + mDropFrames != captureFrame) {
+            reportDrop();
+        }
+        if (mDropFrames == 0) {
+            mDropStart = captureFrame;
+        }
+        mDropFrames += frames;
+    }
+
+    /**
+     * Reports the range of dropped audio, if any.
+     */
+    private void reportDrop() {
+        if (mDropFrames > 0) {
+            long frames = mDropFrames;
+            mDropFrames = 0;
+            if (mOverrunListener != null) {
+                mOverrunListener.onOverrun(mDropStart, frames);
+            }
+        }
+    }
+
+    /**
+     * Releases the source and lets the writer finish output when all queued chunks are written.
+     */
+    void finishCapture() {
+        try {
+            reportDrop();
+            stopSource();
+        } finally {
+            mCaptureFinished = true;
+            signalWriter();
+        }
+    }
+
+    /**
+     * Writes chunks queued so far without waiting for more. Used by I/O threads of the scheduler.
+     *
+     * @param maxChunks maximum number of chunks to write
+     * @return <code>true</code> if output is finished
+     */
+    boolean write(int maxChunks) {
+        return mWriter.write(maxChunks);
+    }
+
+    /**
+     * @return <code>true</code> if there are chunks to write or output should be finished
+     */
+    boolean hasPendingWrites() {
+        return !mFilledChunks.isEmpty() || mCaptureFinished;
+    }
+
+    /**
+     * Resets state after a recording run by the scheduler has finished capture and output.
+     *
+     * @param captureError error which has terminated capture or <code>null</code>
+     * @return error which has terminated the recording or <code>null</code>
+     */
+    RuntimeException finishScheduled(RuntimeException captureError) {
+        mTask = null;
+        resetState();
+        if (mWriterError != null) {
+            return new RuntimeException("Error while writing recorded audio", mWriterError);
+        }
+        return captureError;
+    }
+
+    /**
+     * Creates PCM buffer capable to hold one period of audio.
+     *
+     * @return PCM buffer
+     */
+    protected byte[] createPCMBuffer() {
+        return new byte[getBytesForMillis(mPeriodMillis)];
+    }
+
+    /**
+     * @return size of a single frame (one sample for every channel) in bytes
+     */
+    protected int getFrameSize() {
+        return (mSource.getBitsPerSample() / 8) * mSource.getChannelCount();
+    }
+
+    /**
+     * Computes number of bytes of audio recorded in specified time, rounded up to whole frames.
+     *
+     * @param millis duration in milliseconds
+     * @return number of bytes, at least one frame
+     */
+    protected int getBytesForMillis(int millis) {
+        long frames = ((long) mSource.getSampleRate() * millis + 999) / 1000;
+        return (int) Math.max(1, frames) * getFrameSize();
+    }
+
+    /**
+     * Computes minimum size of the buffer.
+     *
+     * @return minimum size of the buffer
+     */
+    protected int getMinBufferSize() {
+        return mSource.getMinBufferSize();
+    }
+
+    protected abstract void onRecordingStarted();
+
+    protected abstract void onSampleRead(byte[] buffer, int size);
+
+    /**
+     * Invoked every time PCM buffer was read. Default implementation passes the backing array
+     * (or a copy of a direct buffer) to {@link #onSampleRead(byte[], int)}, or converted samples
+     * to {@link #onSampleRead(short[], int)} if the recorder encodes samples. Subclasses able to handle
+     * buffers directly should override this method to avoid copying.
+     *
+     * @param buffer little endian PCM buffer with position 0 and limit equal to its size
+     * @param size   size of PCM buffer
+     */
+    protected void onSampleRead(ByteBuffer buffer, int size) {
+        if (isEncodingSamples()) {
+            int count = size / (mSource.getBitsPerSample() / 8);
+            onSampleRead(toWriterSamples(buffer, count), count);
+        } else if (buffer.hasArray()) {
+            onSampleRead(buffer.array(), size);
+        } else {
+            if (mWriterBuffer == null || mWriterBuffer.length < size) {
+                mWriterBuffer = new byte[buffer.capacity()];
+            }
+            buffer.get(mWriterBuffer, 0, size);
+            onSampleRead(mWriterBuffer, size);
+        }
+    }
+
+    /**
+     * Tells whether the recorder encodes samples rather than bytes of PCM buffers. Such recorder gets samples
+     * by {@link #onSampleRead(short[], int)} instead of {@link #onSampleRead(ByteBuffer, int)}, converted once
+     * per chunk and shared with the voice activity detector. Invoked by the writer thread for every buffer.
+     * <p/>
+     * Default implementation returns <code>false</code>.
+     *
+     * @return <code>true</code> if the recorder encodes samples
+     */
+    protected boolean isEncodingSamples() {
+        return false;
+    }
+
+    /**
+     * Invoked every time PCM buffer was read, if the recorder encodes samples, see {@link #isEncodingSamples()}.
+     *
+     * @param samples interleaved samples converted to 16 bits, see {@link SampleConverter#toShort}, valid
+     *                only until this method returns
+     * @param count   number of samples
+     */
+    protected void onSampleRead(short[] samples, int count) {
+        throw new UnsupportedOperationException("Recorder does not encode samples");
+    }
+
+    protected abstract void onRecordingFinished();
+
+    /**
+     * Invoked by the writer thread when a segment of segmented output is full or recording has finished.
+     * Returns a task completing the current output (e.g. updating header and closing the stream), which
+     * is run by a background thread while the writer thread continues with the next segment and
+     * {@link #onRecordingStarted()}. The task must not use state of the recorder other than captured
+     * when this method was invoked.
+     * <p/>
+     * Default implementation completes the output in the writer thread by {@link #onRecordingFinished()}.
+     *
+     * @return task completing the current output or <code>null</code> if the output is already completed
+     */
+    protected Runnable finishSegment() {
+        onRecordingFinished();
+        return null;
+    }
+
+    /**
+     * Invoked by the writer thread at every checkpoint, see {@link #setCheckpointInterval(long)}.
+     * Responsible for making all audio written so far readable if the recording is never finished,
+     * e.g. by updating sizes in the header, and for leaving the output ready for further audio.
+     * <p/>
+     * Default implementation does nothing, which suits formats readable without a finished header.
+     */
+    protected void onCheckpoint() {
+    }
+
+    /**
+     * Allocates pool of PCM chunks for the current period and backlog. The pool is large enough
+     * to hold both the backlog and the whole internal buffer of {@link AudioRecord}.
+     */
+    private void allocateChunks() {
+        mPcmBuffer = createPCMBuffer();
+        mCaptureSamples = new short[mPcmBuffer.length / (mSource.getBitsPerSample() / 8)];
+        int backlogSize = Math.max(getBytesForMillis(mBacklogMillis), 2 * getMinBufferSize());
+        int chunkCount = Math.max(2, (backlogSize + mPcmBuffer.length - 1) / mPcmBuffer.length);
+        mPreRollChunks = 0;
+        if (mVoiceDetector != null) {
+            int preRollSize = getBytesForMillis(mVoiceDetector.getPreRoll());
+            mPreRollChunks = (preRollSize + mPcmBuffer.length - 1) / mPcmBuffer.length + 1;
+            chunkCount += mPreRollChunks;
+        }
+        mPcmListenerChunks = (getBytesForMillis(mPcmListenerBacklogMillis) + mPcmBuffer.length - 1) / mPcmBuffer.length;
+        chunkCount += mPcmListenerChunks;
+        mChunkPool = new PcmChunkPool(chunkCount, mPcmBuffer.length, mDirectBuffers);
+        mFilledChunks = new RingBuffer<PcmChunk>(chunkCount);
+    }
+
+    private LevelMeter createLevelMeter(int windowMillis) {
+        return new LevelMeter(mSource.getChannelCount(), mSource.getBitsPerSample(), mSource.getSampleRate(), windowMillis);
+    }
+
+    /**
+     * Ensures recorder configuration could be changed, used by configuration setters of subclasses too.
+     */
+    protected void checkNotRecording() {
+        if (mRecording.get()) {
+            throw new IllegalStateException("Cannot change configuration while recording");
+        }
+    }
+
+    /**
+     * Stops and releases audio source.
+     */
+    private void stopSource() {
+        if (!mReleased) {
+            mReleased = true;
+            try {
+                mSource.stop();
+            } finally {
+                mSource.release();
+            }
+        }
+    }
+
+    /**
+     * Handles paused recording. Stops the source when the pause lasts longer than the stop delay.
+     *
+     * @return maximum time in nanoseconds to wait for resume
+     */
+    private long pauseCapture() {
+        long now = System.nanoTime();
+        if (!mPaused) {
+            mPaused = true;
+            mLastReadNanos = 0;
+            mPauseStopAt = now + TimeUnit.MILLISECONDS.toNanos(Math.max(0, mPauseStopMillis));
+        }
+        if (mPauseStopMillis >= 0 && !mSourceStopped) {
+            long remaining = mPauseStopAt - now;
+            if (remaining > 0) {
+                return remaining;
+            }
+            mSource.stop();
+            mSourceStopped = true;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Prepares the source for recording after pause.
+     */
+    private void resumeCapture() {
+        mPaused = false;
+        if (mSourceStopped) {
+            mSourceStopped = false;
+            mSource.start();
+        } else if (mRealTime && mPauseBacklog == PauseBacklog.DISCARD) {
+            mSource.stop();
+            mSource.start();
+        }
+    }
+
+    /**
+     * Wakes up capture thread if it waits for resume.
+     */
+    private void signalCapture() {
+        Thread captureThread = mCaptureThread;
+        if (captureThread != null) {
+            LockSupport.unpark(captureThread);
+        }
+    }
+
+    /**
+     * Wakes up writer thread if it waits for chunks or queues the recording for an I/O thread of the scheduler.
+     */
+    private void signalWriter() {
+        RecorderScheduler.Task task = mTask;
+        if (task != null) {
+            task.schedule();
+        } else if (mWriterWaiting) {
+            LockSupport.unpark(mWriterThread);
+        }
+    }
+
+    /**
+     * Waits until writer thread has written all queued chunks and resets recorder state.
+     */
+    private void awaitWriter() {
+        boolean interrupted = false;
+        Thread writerThread = mWriterThread;
+        while (writerThread != null && writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        resetState();
+    }
+
+    /**
+     * Converts samples of a chunk for the writer thread, unless they have been converted already.
+     */
+    private short[] getWriterSamples(PcmChunk chunk, int count) {
+        if (chunk != mWriterSamplesChunk || chunk.getCaptureFrame() != mWriterSamplesFrame) {
+            toWriterSamples(chunk.getBuffer(), count);
+            mWriterSamplesChunk = chunk;
+            mWriterSamplesFrame = chunk.getCaptureFrame();
+        }
+        return mWriterSamples;
+    }
+
+    /**
+     * Converts samples of a PCM buffer to the array used by the writer thread.
+     */
+    private short[] toWriterSamples(ByteBuffer buffer, int count) {
+        if (mWriterSamples == null || mWriterSamples.length < count) {
+            mWriterSamples = new short[Math.max(count, mPcmBuffer.length / (mSource.getBitsPerSample() / 8))];
+        }
+        SampleConverter.toShort(buffer, 0, SampleFormat.forBitsPerSample(mSource.getBitsPerSample()), mWriterSamples, count);
+        mWriterSamplesChunk = null;
+        return mWriterSamples;
+    }
+
+    /**
+     * Resets recorder state after recording has finished.
+     */
+    private void resetState() {
+        if (mSpill != null) {
+            try {
+                mSpill.close();
+            } finally {
+                mSpill = null;
+            }
+        }
+        mRecording.set(false);
+        mStarted.set(false);
+        mLevelMeter.getAndResetMaxAmplitude();
+        mRunning.set(false);
+    }
+
+    /**
+     * Writes chunks queued by the capture thread to the output.
+     */
+    private class WriterTask implements Runnable {
+
+        /**
+         * Silent chunks kept for pre-roll of voice, in order of capture.
+         */
+        private final ArrayDeque<PcmChunk> mPreRoll = new ArrayDeque<PcmChunk>();
+        /**
+         * Number of frames in pre-roll chunks.
+         */
+        private long mPreRollFrames;
+        /**
+         * Captured frame following the last written one or -1 if the output is not continuous.
+         */
+        private long mNextCaptureFrame = -1;
+        /**
+         * <code>true</code> if the last chunk was silent.
+         */
+        private boolean mSilence;
+        /**
+         * Digital silence replacing spans of silence.
+         */
+        private ByteBuffer mMarker;
+        /**
+         * Seals finished segments or <code>null</code> if output is not segmented.
+         */
+        private ExecutorService mSealer;
+        /**
+         * Index of the current segment.
+         */
+        private int mSegment;
+        /**
+         * Number of frames written to the current segment.
+         */
+        private long mSegmentFrames;
+        /**
+         * Number of PCM bytes written to the current segment.
+         */
+        private long mSegmentSize;
+        /**
+         * Number of frames written since the last checkpoint.
+         */
+        private long mCheckpointFrames;
+        /**
+         * Number of frames and PCM bytes written since the last sync.
+         */
+        private long mSyncFrames;
+        private long mSyncSize;
+        /**
+         * Position in the history buffer where the next audio is kept.
+         */
+        private int mHistoryPosition;
+        /**
+         * <code>true</code> if the history buffer has been filled at least once.
+         */
+        private boolean mHistoryFull;
+        /**
+         * Capture frame following the kept audio.
+         */
+        private long mHistoryEndFrame;
+        /**
+         * <code>true</code> if audio is kept until the recording is triggered.
+         */
+        private boolean mArmed;
+        /**
+         * <code>true</code> if output has been started.
+         */
+        private boolean mBegun;
+        private VoiceActivityDetector mDetector;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            try {
+                begin();
+                PcmChunk chunk;
+                while ((chunk = takeChunk()) != null) {
+                    process(chunk);
+                }
+            } catch (RuntimeException ex) {
+                fail(ex);
+            } finally {
+                end();
+            }
+        }
+
+        /**
+         * Writes chunks queued so far without waiting for more, see {@link AbstractRecorder#write(int)}.
+         */
+        boolean write(int maxChunks) {
+            try {
+                if (!mBegun) {
+                    begin();
+                }
+                for (int i = 0; i < maxChunks; i++) {
+                    boolean finished = mCaptureFinished;
+                    PcmChunk chunk = mFilledChunks.poll();
+                    if (chunk == null && finished) {
+                        chunk = takeSpilled();
+                    }
+                    if (chunk == null) {
+                        break;
+                    }
+                    process(chunk);
+                }
+                if (!mCaptureFinished || !mFilledChunks.isEmpty() || hasSpilled()) {
+                    return false;
+                }
+            } catch (RuntimeException ex) {
+                fail(ex);
+            }
+
+            try {
+                end();
+            } catch (RuntimeException ex) {
+                if (mWriterError == null) {
+                    mWriterError = ex;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Starts output unless recording is retroactive.
+         */
+        private void begin() {
+            mBegun = true;
+            mDetector = mVoiceDetector;
+            if (mSegmentListener != null) {
+                mSealer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "AudioSegmentSealer");
+                    }
+                });
+            }
+            mArmed = mHistory != null && !mTriggered;
+            if (!mArmed) {
+                onRecordingStarted();
+            }
+            if (mDetector != null) {
+                mDetector.start(mSource.getChannelCount(), mSource.getBitsPerSample(), mSource.getSampleRate());
+            }
+        }
+
+        /**
+         * Keeps, writes or gates a chunk taken from the queue.
+         */
+        private void process(PcmChunk chunk) {
+            long captureFrame = chunk.getCaptureFrame();
+            mTimeline.addCapture(captureFrame + chunk.getSize() / getFrameSize() - mTimeline.getCaptureFrameCount());
+            if (mArmed) {
+                if (!mTriggered) {
+                    keep(chunk);
+                    return;
+                }
+                mArmed = false;
+                onRecordingStarted();
+                writeHistory();
+            }
+            if (mDetector == null) {
+                writeAndRelease(chunk, captureFrame);
+            } else {
+                gate(mDetector, chunk, captureFrame);
+            }
+        }
+
+        private void fail(RuntimeException ex) {
+            mWriterError = ex;
+            mRecording.set(false);
+            signalCapture(); // capture may be parked while paused
+        }
+
+        /**
+         * Finishes output, or closes it if recording has not been triggered.
+         */
+        private void end() {
+            while (!mPreRoll.isEmpty()) {
+                release(mPreRoll.poll());
+            }
+            if (mArmed) {
+                mOutput.close(); // nothing has been written
+                if (mSealer != null) {
+                    awaitSealer();
+                }
+            } else if (mSealer == null) {
+                onRecordingFinished();
+            } else {
+                try {
+                    sealSegment();
+                } finally {
+                    awaitSealer();
+                }
+            }
+        }
+
+        /**
+         * Writes voice with preceding pre-roll and keeps silence for pre-roll.
+         */
+        private void gate(VoiceActivityDetector detector, PcmChunk chunk, long captureFrame) {
+            boolean voice;
+            try {
+                int count = chunk.getSize() / (mSource.getBitsPerSample() / 8);
+                voice = detector.process(getWriterSamples(chunk, count), count);
+            } catch (RuntimeException ex) {
+                release(chunk);
+                throw ex;
+            }
+
+            if (voice) {
+                while (!mPreRoll.isEmpty()) {
+                    PcmChunk preRoll = mPreRoll.poll();
+                    mPreRollFrames -= preRoll.getSize() / getFrameSize();
+                    writeAndRelease(preRoll, preRoll.getCaptureFrame());
+                }
+                mSilence = false;
+                writeAndRelease(chunk, captureFrame);
+                return;
+            }
+
+            if (!mSilence) {
+                mSilence = true;
+                if (detector.getSilenceMode() == VoiceActivityDetector.SilenceMode.MARK
+                        && mTimeline.getOutputFrameCount() > 0) {
+                    writeMarker(detector, captureFrame);
+                }
+            }
+            mPreRoll.add(chunk);
+            mPreRollFrames += chunk.getSize() / getFrameSize();
+            long preRollLimit = detector.getPreRollFrames();
+            while (!mPreRoll.isEmpty() && (mPreRoll.size() > mPreRollChunks
+                    || mPreRollFrames - mPreRoll.peek().getSize() / getFrameSize() >= preRollLimit)) {
+                PcmChunk dropped = mPreRoll.poll();
+                mPreRollFrames -= dropped.getSize() / getFrameSize();
+                release(dropped);
+            }
+        }
+
+        /**
+         * Keeps chunk in the history buffer, overwriting the oldest audio, and releases it. Kept audio is
+         * discarded when audio preceding the chunk has been dropped, so the history is always contiguous
+         * and maps to a single segment of the timeline.
+         */
+        private void keep(PcmChunk chunk) {
+            try {
+                ByteBuffer data = chunk.getBuffer();
+                int size = chunk.getSize();
+                int capacity = mHistory.capacity();
+                if (chunk.getCaptureFrame() != mHistoryEndFrame) {
+                    mHistoryPosition = 0;
+                    mHistoryFull = false;
+                }
+                mHistoryEndFrame = chunk.getCaptureFrame() + size / getFrameSize();
+                if (size >= capacity) {
+                    data.position(size - capacity);
+                    mHistory.clear();
+                    mHistory.put(data);
+                    mHistoryPosition = 0;
+                    mHistoryFull = true;
+                    return;
+                }
+
+                int first = Math.min(size, capacity - mHistoryPosition);
+                mHistory.limit(mHistoryPosition + first);
+                mHistory.position(mHistoryPosition);
+                data.limit(first);
+                mHistory.put(data);
+                if (first < size) {
+                    data.limit(size);
+                    mHistory.clear();
+                    mHistory.put(data);
+                }
+                mHistoryFull |= mHistoryPosition + size >= capacity;
+                mHistoryPosition = (mHistoryPosition + size) % capacity;
+            } finally {
+                release(chunk);
+            }
+        }
+
+        /**
+         * Writes kept audio in pieces of the size of chunks, the oldest first.
+         */
+        private void writeHistory() {
+            long endFrame = mHistoryEndFrame;
+            int capacity = mHistory.capacity();
+            int stored = mHistoryFull ? capacity : mHistoryPosition;
+            if (stored == 0) {
+                return;
+            }
+            mTimeline.startSegment(endFrame - stored / getFrameSize());
+            int pieceSize = mChunkPool.getChunkSize() / getFrameSize() * getFrameSize();
+            int start = mHistoryFull ? mHistoryPosition : 0;
+            for (int written = 0; written < stored; ) {
+                int position = (start + written) % capacity;
+                int size = Math.min(pieceSize, Math.min(stored - written, capacity - position));
+                mHistory.limit(position + size);
+                mHistory.position(position);
+                ByteBuffer piece = mHistory.slice().order(ByteOrder.LITTLE_ENDIAN);
+                int frames = size / getFrameSize();
+                startSegmentIfFull(frames, size);
+                output(piece, size);
+                mTimeline.addOutput(frames);
+                onWritten(frames, size);
+                written += size;
+            }
+            mHistoryPosition = 0;
+            mHistoryFull = false;
+            mNextCaptureFrame = endFrame;
+        }
+
+        /**
+         * Writes digital silence replacing a span of silence.
+         */
+        private void writeMarker(VoiceActivityDetector detector, long captureFrame) {
+            int frames = detector.getMarkerFrames();
+            if (mMarker == null || mMarker.capacity() != frames * getFrameSize()) {
+                byte silence = mSource.getBitsPerSample() == 8 ? (byte) 0x80 : 0;
+                byte[] marker = new byte[frames * getFrameSize()];
+                Arrays.fill(marker, silence);
+                mMarker = ByteBuffer.wrap(marker).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            mMarker.clear();
+            startSegmentIfFull(frames, mMarker.capacity());
+            mTimeline.startSegment(captureFrame);
+            output(mMarker, mMarker.capacity());
+            mTimeline.addOutput(frames);
+            onWritten(frames, mMarker.capacity());
+            mNextCaptureFrame = -1;
+        }
+
+        private void writeAndRelease(PcmChunk chunk, long captureFrame) {
+            try {
+                int frames = chunk.getSize() / getFrameSize();
+                startSegmentIfFull(frames, chunk.getSize());
+                if (captureFrame != mNextCaptureFrame) {
+                    mTimeline.startSegment(captureFrame);
+                }
+                output(chunk);
+                mTimeline.addOutput(frames);
+                onWritten(frames, chunk.getSize());
+                mNextCaptureFrame = captureFrame + frames;
+            } finally {
+                release(chunk);
+            }
+        }
+
+        /**
+         * Passes PCM buffer to the output and measures latency.
+         */
+        private void output(ByteBuffer buffer, int size) {
+            long start = System.nanoTime();
+            onSampleRead(buffer, size);
+            mMetrics.recordWrite(System.nanoTime() - start, size);
+        }
+
+        /**
+         * Passes a chunk to the output, as samples if the recorder encodes them, and measures latency.
+         */
+        private void output(PcmChunk chunk) {
+            if (!isEncodingSamples()) {
+                output(chunk.getBuffer(), chunk.getSize());
+                return;
+            }
+            long start = System.nanoTime();
+            int count = chunk.getSize() / (mSource.getBitsPerSample() / 8);
+            onSampleRead(getWriterSamples(chunk, count), count);
+            mMetrics.recordWrite(System.nanoTime() - start, chunk.getSize());
+        }
+
+        /**
+         * Counts written audio and makes a checkpoint or sync when it is due.
+         *
+         * @param frames number of written frames
+         * @param size   number of written PCM bytes
+         */
+        private void onWritten(int frames, int size) {
+            mSegmentFrames += frames;
+            mSegmentSize += size;
+            mCheckpointFrames += frames;
+            mSyncFrames += frames;
+            mSyncSize += size;
+
+            int sampleRate = mSource.getSampleRate();
+            SyncPolicy policy = mSyncPolicy;
+            boolean sync = (policy.getBytes() > 0 && mSyncSize >= policy.getBytes())
+                    || (policy.getMillis() > 0 && mSyncFrames >= policy.getMillis() * sampleRate / 1000);
+            if (sync || (mCheckpointMillis > 0 && mCheckpointFrames >= mCheckpointMillis * sampleRate / 1000)) {
+                onCheckpoint();
+                mCheckpointFrames = 0;
+            }
+            if (sync) {
+                mOutput.sync();
+                mSyncFrames = 0;
+                mSyncSize = 0;
+            }
+        }
+
+        /**
+         * Starts a new segment if the current one could not hold more audio.
+         *
+         * @param frames number of frames to write
+         * @param size   number of PCM bytes to write
+         */
+        private void startSegmentIfFull(int frames, int size) {
+            if (mSealer == null || mSegmentFrames == 0) {
+                return;
+            }
+            long maxFrames = mSegmentMillis * mSource.getSampleRate() / 1000;
+            if ((maxFrames > 0 && mSegmentFrames + frames > maxFrames)
+                    || (mSegmentBytes > 0 && mSegmentSize + size > mSegmentBytes)) {
+                sealSegment();
+                mSegment++;
+                AudioStream out = mSegmentListener.onNextSegment(mSegment);
+                if (out == null) {
+                    throw new NullPointerException("Output of segment [" + mSegment + "] is mandatory");
+                }
+                mOutput = out;
+                mSegmentFrames = 0;
+                mSegmentSize = 0;
+                mCheckpointFrames = 0;
+                mSyncFrames = 0;
+                mSyncSize = 0;
+                onRecordingStarted();
+            }
+        }
+
+        /**
+         * Finishes the current segment and passes it to the sealing thread.
+         */
+        private void sealSegment() {
+            final int segment = mSegment;
+            final AudioStream out = mOutput;
+            final Runnable finish = finishSegment();
+            final SegmentListener listener = mSegmentListener;
+            mSealer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (finish != null) {
+                            finish.run();
+                        }
+                        listener.onSegmentSealed(segment, out);
+                    } catch (RuntimeException ex) {
+                        if (mSealError == null) {
+                            mSealError = ex;
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Waits until all segments are sealed.
+         */
+        private void awaitSealer() {
+            mSealer.shutdown();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (mSealer.awaitTermination(WRITER_PARK_NANOS, TimeUnit.NANOSECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (mSealError != null && mWriterError == null) {
+                mWriterError = mSealError;
+            }
+        }
+
+        /**
+         * Moves the oldest spilled audio to a free chunk once capture has finished and the queue is empty.
+         * Pre-roll keeps fewer chunks than the pool holds, so a chunk is free unless PCM listeners lag behind.
+         *
+         * @return chunk or <code>null</code> if nothing is spilled or no chunk is free
+         */
+        private PcmChunk takeSpilled() {
+            if (!hasSpilled()) {
+                return null;
+            }
+            PcmChunk chunk = mChunkPool.acquire();
+            if (chunk == null) {
+                return null;
+            }
+            mSpill.poll(chunk);
+            publish(chunk);
+            return chunk;
+        }
+
+        private boolean hasSpilled() {
+            return mSpill != null && !mSpill.isEmpty();
+        }
+
+        private void release(PcmChunk chunk) {
+            releaseChunk(chunk);
+        }
+
+        /**
+         * Waits for the next filled chunk.
+         *
+         * @return next chunk or <code>null</code> if capture has finished and all chunks were taken
+         */
+        private PcmChunk takeChunk() {
+            PcmChunk chunk;
+            while ((chunk = mFilledChunks.poll()) == null) {
+                if (mCaptureFinished) {
+                    chunk = mFilledChunks.poll();
+                    if (chunk == null) {
+                        while ((chunk = takeSpilled()) == null && hasSpilled()) {
+                            LockSupport.parkNanos(this, WRITER_PARK_NANOS); // PCM listeners hold all chunks
+                        }
+                    }
+                    return chunk;
+                }
+                mWriterWaiting = true;
+                if (mFilledChunks.isEmpty() && !mCaptureFinished) {
+                    // capture thread either sees the flag or the writer sees the chunk, no timeout is needed
+                    LockSupport.park(this);
                 }
+                mWriterWaiting = false;
             }
+            return chunk;
         }
     }
 }
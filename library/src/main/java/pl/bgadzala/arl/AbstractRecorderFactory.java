@@ -17,4 +17,15 @@ public abstract class AbstractRecorderFactory implements RecorderFactory {
         return createRecorder(AudioRecordFactory.createForBestQuality(audioSource), out);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Recorder createRecorder(int audioSource, int sampleRate, int channelCount, AudioStream out) {
+        PcmSource source = new AudioRecordPcmSource(AudioRecordFactory.createForBestQuality(audioSource));
+        if (source.getSampleRate() == sampleRate && source.getChannelCount() == channelCount) {
+            return createRecorder(source, out);
+        }
+        return createRecorder(new ResamplingPcmSource(source, sampleRate, channelCount), out);
+    }
+
 }
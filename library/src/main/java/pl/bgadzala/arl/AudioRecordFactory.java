@@ -1,11 +1,21 @@
 package pl.bgadzala.arl;
 
+import android.content.SharedPreferences;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Factory for audio recorder.
+ * <p/>
+ * Configuration negotiated for an audio source and list of preferred configurations is cached, so only
+ * the first recorder probes the platform.
+ * The cache is kept in memory and, if {@link #setPreferences(SharedPreferences)} was called, in shared
+ * preferences, so negotiation survives application restarts. Cached configuration which fails to
+ * initialize (e.g. after system update or when the device is busy) is forgotten and negotiated again.
  *
  * @author Bartosz Gadzała
  */
@@ -15,9 +25,167 @@ public class AudioRecordFactory {
     private static final int[] CHANNEL_CONFIGS = new int[]{AudioFormat.CHANNEL_IN_STEREO, AudioFormat.CHANNEL_IN_MONO};
     private static final int[] AUDIO_FORMATS = new int[]{AudioFormat.ENCODING_PCM_16BIT, AudioFormat.ENCODING_PCM_8BIT};
 
+    /**
+     * Prefix of shared preferences keys, followed by cache key.
+     */
+    private static final String PREFERENCES_KEY = "pl.bgadzala.arl.AudioRecordFactory.";
+
+    private static final Configuration[] NO_CONFIGURATIONS = new Configuration[0];
+
+    /**
+     * Negotiated configurations by cache key - audio source followed by preferred configurations, if any.
+     */
+    private static final Map<String, Configuration> sCache = new HashMap<String, Configuration>();
+    private static SharedPreferences sPreferences;
+
+    /**
+     * Configuration of {@link AudioRecord}.
+     */
+    public static final class Configuration {
+
+        private final int mSampleRateInHz;
+        private final int mChannelConfig;
+        private final int mAudioFormat;
+
+        /**
+         * @param sampleRateInHz sample rate in Hz
+         * @param channelConfig  {@link AudioFormat#CHANNEL_IN_MONO} or {@link AudioFormat#CHANNEL_IN_STEREO}
+         * @param audioFormat    {@link AudioFormat#ENCODING_PCM_16BIT} or {@link AudioFormat#ENCODING_PCM_8BIT}
+         */
+        public Configuration(int sampleRateInHz, int channelConfig, int audioFormat) {
+            mSampleRateInHz = sampleRateInHz;
+            mChannelConfig = channelConfig;
+            mAudioFormat = audioFormat;
+        }
+
+        /**
+         * @return sample rate in Hz
+         */
+        public int getSampleRateInHz() {
+            return mSampleRateInHz;
+        }
+
+        /**
+         * @return channel configuration, see {@link AudioFormat}
+         */
+        public int getChannelConfig() {
+            return mChannelConfig;
+        }
+
+        /**
+         * @return audio encoding, see {@link AudioFormat}
+         */
+        public int getAudioFormat() {
+            return mAudioFormat;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            } else if (!(o instanceof Configuration)) {
+                return false;
+            }
+            Configuration other = (Configuration) o;
+            return mSampleRateInHz == other.mSampleRateInHz && mChannelConfig == other.mChannelConfig
+                    && mAudioFormat == other.mAudioFormat;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return (mSampleRateInHz * 31 + mChannelConfig) * 31 + mAudioFormat;
+        }
+
+        /**
+         * @return configuration in format parsed by {@link #parse(String)}
+         */
+        @Override
+        public String toString() {
+            return mSampleRateInHz + "," + mChannelConfig + "," + mAudioFormat;
+        }
+
+        /**
+         * @return configuration written by {@link #toString()} or <code>null</code> if value is not valid
+         */
+        private static Configuration parse(String value) {
+            String[] parts = value.split(",");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new Configuration(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                        Integer.parseInt(parts[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
     private AudioRecordFactory() {
     }
 
+    /**
+     * Sets shared preferences persisting negotiated configurations, e.g.
+     * <code>context.getSharedPreferences("audio", Context.MODE_PRIVATE)</code>.
+     *
+     * @param preferences shared preferences or <code>null</code> to cache configurations only in memory
+     */
+    public static synchronized void setPreferences(SharedPreferences preferences) {
+        sPreferences = preferences;
+    }
+
+    /**
+     * Forgets configurations negotiated for all audio sources.
+     */
+    public static synchronized void clearCache() {
+        if (sPreferences != null) {
+            SharedPreferences.Editor editor = sPreferences.edit();
+            for (String key : sPreferences.getAll().keySet()) {
+                if (key.startsWith(PREFERENCES_KEY)) {
+                    editor.remove(key);
+                }
+            }
+            editor.apply();
+        }
+        sCache.clear();
+    }
+
+    /**
+     * @param audioSource source of audio
+     * @return configuration negotiated for audio source without preferred configurations or <code>null</code>
+     * if not negotiated yet
+     */
+    public static Configuration getCachedConfiguration(int audioSource) {
+        return getCachedConfiguration(audioSource, NO_CONFIGURATIONS);
+    }
+
+    /**
+     * @param audioSource source of audio
+     * @param preferred   preferred configurations passed to {@link #createForBestQuality(int, Configuration...)}
+     * @return configuration negotiated for audio source and preferred configurations or <code>null</code>
+     * if not negotiated yet
+     */
+    public static synchronized Configuration getCachedConfiguration(int audioSource, Configuration... preferred) {
+        String key = getCacheKey(audioSource, preferred);
+        Configuration configuration = sCache.get(key);
+        if (configuration == null && sPreferences != null) {
+            String value = sPreferences.getString(PREFERENCES_KEY + key, null);
+            if (value != null) {
+                configuration = Configuration.parse(value);
+                if (configuration != null) {
+                    sCache.put(key, configuration);
+                }
+            }
+        }
+        return configuration;
+    }
+
     /**
      * Creates audio recorder for best quality which is available on runtime platform.
      *
@@ -25,17 +193,46 @@ public class AudioRecordFactory {
      * @return best available audio recorder or <code>null</code> if recorder can not be created
      */
     public static AudioRecord createForBestQuality(int audioSource) {
-        AudioRecord audioRecord = null;
+        return createForBestQuality(audioSource, NO_CONFIGURATIONS);
+    }
+
+    /**
+     * Creates audio recorder for the first of preferred configurations or best quality which is available
+     * on runtime platform. Configuration cached for the audio source and the same preferred configurations
+     * is tried first, so callers with different preferences do not share negotiated configurations.
+     * Recorders which fail to initialize are released immediately.
+     *
+     * @param audioSource source of audio (could be {@link MediaRecorder.AudioSource#MIC} for example)
+     * @param preferred   configurations tried in order before the default ones
+     * @return best available audio recorder or <code>null</code> if recorder can not be created
+     */
+    public static synchronized AudioRecord createForBestQuality(int audioSource, Configuration... preferred) {
+        String key = getCacheKey(audioSource, preferred);
+        Configuration cached = getCachedConfiguration(audioSource, preferred);
+        if (cached != null) {
+            AudioRecord audioRecord = create(audioSource, cached);
+            if (audioRecord != null) {
+                return audioRecord;
+            }
+            forget(key);
+        }
+
+        for (Configuration configuration : preferred) {
+            AudioRecord audioRecord = create(audioSource, configuration);
+            if (audioRecord != null) {
+                remember(key, configuration);
+                return audioRecord;
+            }
+        }
 
         for (int sampleRateInHz : SAMPLE_RATES_IN_HZ) {
             for (int channelConfig : CHANNEL_CONFIGS) {
                 for (int audioFormat : AUDIO_FORMATS) {
-                    int bufferSize = AudioRecord.getMinBufferSize(sampleRateInHz, channelConfig, audioFormat);
-                    if (bufferSize > 0) {
-                        audioRecord = new AudioRecord(audioSource, sampleRateInHz, channelConfig, audioFormat, 2 * bufferSize);
-                        if (audioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
-                            return audioRecord;
-                        }
+                    Configuration configuration = new Configuration(sampleRateInHz, channelConfig, audioFormat);
+                    AudioRecord audioRecord = create(audioSource, configuration);
+                    if (audioRecord != null) {
+                        remember(key, configuration);
+                        return audioRecord;
                     }
                 }
             }
@@ -43,4 +240,53 @@ public class AudioRecordFactory {
 
         return null;
     }
+
+    /**
+     * @return initialized audio recorder or <code>null</code> if configuration is not supported
+     */
+    private static AudioRecord create(int audioSource, Configuration configuration) {
+        int bufferSize = AudioRecord.getMinBufferSize(configuration.getSampleRateInHz(),
+                configuration.getChannelConfig(), configuration.getAudioFormat());
+        if (bufferSize <= 0) {
+            return null;
+        }
+
+        AudioRecord audioRecord;
+        try {
+            audioRecord = new AudioRecord(audioSource, configuration.getSampleRateInHz(),
+                    configuration.getChannelConfig(), configuration.getAudioFormat(), 2 * bufferSize);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            audioRecord.release(); // free native resources now instead of waiting for finalization
+            return null;
+        }
+        return audioRecord;
+    }
+
+    /**
+     * @return audio source followed by preferred configurations, equal to audio source if there are none
+     */
+    private static String getCacheKey(int audioSource, Configuration[] preferred) {
+        StringBuilder key = new StringBuilder().append(audioSource);
+        for (Configuration configuration : preferred) {
+            key.append(';').append(configuration);
+        }
+        return key.toString();
+    }
+
+    private static void remember(String key, Configuration configuration) {
+        sCache.put(key, configuration);
+        if (sPreferences != null) {
+            sPreferences.edit().putString(PREFERENCES_KEY + key, configuration.toString()).apply();
+        }
+    }
+
+    private static void forget(String key) {
+        sCache.remove(key);
+        if (sPreferences != null) {
+            sPreferences.edit().remove(PREFERENCES_KEY + key).apply();
+        }
+    }
 }
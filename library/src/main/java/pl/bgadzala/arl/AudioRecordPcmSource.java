@@ -0,0 +1,125 @@
+package pl.bgadzala.arl;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PCM source backed by platform {@link AudioRecord}. Priority of the thread reading the source is
+ * set by the recorder or by {@link RecorderScheduler}, which may read other sources on the same thread.
+ * <p/>
+ * Samples are read as bytes even though 16-bit samples could be read into short arrays, because chunks,
+ * spill files, listeners and direct buffers all hold bytes and are passed on without copying. Stages
+ * working on samples convert whole chunks with {@link SampleConverter}.
+ */
+public class AudioRecordPcmSource implements PcmSource {
+
+    /**
+     * Wrapped audio recorder.
+     */
+    private final AudioRecord mAudioRecord;
+
+    public AudioRecordPcmSource(AudioRecord audioRecord) {
+        if (audioRecord == null) {
+            throw new NullPointerException("Audio recorder is mandatory");
+        }
+        mAudioRecord = audioRecord;
+    }
+
+    /**
+     * @return wrapped audio recorder
+     */
+    public AudioRecord getAudioRecord() {
+        return mAudioRecord;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSampleRate() {
+        return mAudioRecord.getSampleRate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getChannelCount() {
+        return mAudioRecord.getChannelCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getBitsPerSample() {
+        return mAudioRecord.getAudioFormat() == AudioFormat.ENCODING_PCM_16BIT ? 16 : 8;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMinBufferSize() {
+        final int minBufferSize = AudioRecord.getMinBufferSize(
+                mAudioRecord.getSampleRate(), mAudioRecord.getChannelConfiguration(), mAudioRecord.getAudioFormat());
+        if (minBufferSize < 0) {
+            throw new IllegalStateException("Invalid audio recorder - cannot compute minimum buffer size");
+        }
+        return minBufferSize;
+    }
+
+    /**
+     * @return always <code>true</code>
+     */
+    @Override
+    public boolean isRealTime() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start() {
+        if (mAudioRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+            mAudioRecord.startRecording();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int size) {
+        return mAudioRecord.read(buffer, offset, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(ByteBuffer buffer, int size) {
+        return mAudioRecord.read(buffer, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() {
+        if (mAudioRecord.getRecordingState() != AudioRecord.RECORDSTATE_STOPPED) {
+            mAudioRecord.stop();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release() {
+        mAudioRecord.release();
+    }
+}
@@ -1,5 +1,7 @@
 package pl.bgadzala.arl;
 
+import java.nio.ByteBuffer;
+
 /**
  * Defines interface for audio streams.
  *
@@ -52,6 +54,14 @@ public interface AudioStream {
      */
     void write(byte[] data, int offset, int size);
 
+    /**
+     * Writes all remaining bytes of the buffer. Position of the buffer is advanced by number of written bytes.
+     * Direct buffers are written without copying them to the Java heap whenever the stream allows it.
+     *
+     * @param data buffer to write to the stream
+     */
+    void write(ByteBuffer data);
+
     /**
      * @param data integer to write
      */
@@ -62,6 +72,12 @@ public interface AudioStream {
      */
     void write(short data);
 
+    /**
+     * Writes all buffered data and forces it to the storage device, e.g. by <code>FileDescriptor.sync()</code>,
+     * so it survives a crash of the process or the device. Could be expensive, see {@link SyncPolicy}.
+     */
+    void sync();
+
     /**
      * Closes stream.
      */
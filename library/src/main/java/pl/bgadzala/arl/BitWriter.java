@@ -0,0 +1,138 @@
+package pl.bgadzala.arl;
+
+/**
+ * Writes big endian bit fields to a reusable byte array. The array grows only when written
+ * data exceeds its capacity, so a writer sized for the worst case never allocates.
+ */
+class BitWriter {
+
+    private byte[] mBuffer;
+    /**
+     * Number of complete bytes in the buffer.
+     */
+    private int mSize;
+    /**
+     * Pending bits, right aligned.
+     */
+    private long mBits;
+    /**
+     * Number of pending bits, always lower than 8 between calls.
+     */
+    private int mBitCount;
+
+    BitWriter(int capacity) {
+        mBuffer = new byte[capacity];
+    }
+
+    /**
+     * Discards all written data.
+     */
+    void reset() {
+        mSize = 0;
+        mBits = 0;
+        mBitCount = 0;
+    }
+
+    /**
+     * Writes the lowest bits of the value.
+     *
+     * @param value value to write
+     * @param bits  number of bits to write, up to 32
+     */
+    void writeBits(int value, int bits) {
+        if (bits == 0) {
+            return;
+        }
+        mBits = (mBits << bits) | (value & (0xffffffffL >>> (32 - bits)));
+        mBitCount += bits;
+        while (mBitCount >= 8) {
+            mBitCount -= 8;
+            put((byte) (mBits >>> mBitCount));
+        }
+    }
+
+    /**
+     * Writes the lowest bits of a long value.
+     *
+     * @param value value to write
+     * @param bits  number of bits to write, up to 64
+     */
+    void writeLong(long value, int bits) {
+        if (bits > 32) {
+            writeBits((int) (value >>> 32), bits - 32);
+            writeBits((int) value, 32);
+        } else {
+            writeBits((int) value, bits);
+        }
+    }
+
+    /**
+     * Writes Rice code of an unsigned value - quotient in unary (zeros terminated by one) followed
+     * by the lowest bits of the remainder.
+     *
+     * @param value     unsigned (zigzag folded) value
+     * @param parameter Rice parameter
+     */
+    void writeRice(int value, int parameter) {
+        int quotient = value >>> parameter;
+        while (quotient >= 32) {
+            writeBits(0, 32);
+            quotient -= 32;
+        }
+        writeBits(1, quotient + 1);
+        writeBits(value, parameter);
+    }
+
+    /**
+     * Writes a value in the UTF-8 like variable length coding used by FLAC frame headers.
+     *
+     * @param value value up to 36 bits
+     */
+    void writeUtf8(long value) {
+        if (value < 0x80) {
+            writeBits((int) value, 8);
+            return;
+        }
+        int bytes = value < 0x800 ? 2 : value < 0x10000 ? 3 : value < 0x200000 ? 4
+                : value < 0x4000000 ? 5 : value < 0x80000000L ? 6 : 7;
+        int shift = 6 * (bytes - 1);
+        int lead = bytes == 7 ? 0xfe : (0xff00 >> bytes) & 0xff;
+        writeBits(lead | (int) (value >>> shift), 8);
+        while (shift > 0) {
+            shift -= 6;
+            writeBits(0x80 | (int) ((value >>> shift) & 0x3f), 8);
+        }
+    }
+
+    /**
+     * Pads the last byte with zero bits.
+     */
+    void alignToByte() {
+        if (mBitCount > 0) {
+            writeBits(0, 8 - mBitCount);
+        }
+    }
+
+    /**
+     * @return buffer holding written bytes
+     */
+    byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return number of complete bytes written
+     */
+    int getSize() {
+        return mSize;
+    }
+
+    private void put(byte value) {
+        if (mSize == mBuffer.length) {
+            byte[] buffer = new byte[mBuffer.length * 2];
+            System.arraycopy(mBuffer, 0, buffer, 0, mSize);
+            mBuffer = buffer;
+        }
+        mBuffer[mSize++] = value;
+    }
+}
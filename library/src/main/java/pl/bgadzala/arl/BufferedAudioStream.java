@@ -0,0 +1,272 @@
+package pl.bgadzala.arl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audio stream decorator which coalesces small writes into large blocks. Blocks are aligned
+ * to multiples of the flush size measured from the beginning of the stream, so after the first
+ * block every write to the wrapped stream is a whole, aligned block.
+ * <p/>
+ * Buffered data is written when a block is full, when it is older than the flush interval
+ * (checked on the next write, so no timer wakes the device up), when data type changes,
+ * before the stream is closed and when {@link #flush()} or {@link #sync()} is called. Seeking within buffered data
+ * patches it in place, seeking anywhere else flushes buffered data first.
+ */
+public class BufferedAudioStream implements AudioStream {
+
+    /**
+     * Default size of a single block in bytes.
+     */
+    public static final int DEFAULT_FLUSH_SIZE = 64 * 1024;
+    /**
+     * Default maximum time data stays in the buffer.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final AudioStream mOut;
+    /**
+     * Size of a single block in bytes.
+     */
+    private final int mFlushSize;
+    /**
+     * Maximum time data stays in the buffer or 0 if it is not limited.
+     */
+    private final long mFlushIntervalNanos;
+    /**
+     * Buffered block.
+     */
+    private final ByteBuffer mBuffer;
+    /**
+     * Position in the stream of the first buffered byte. Wrapped stream is always positioned there.
+     */
+    private long mBufferStart;
+    /**
+     * Number of buffered bytes.
+     */
+    private int mBuffered;
+    /**
+     * Time when data was buffered after the last flush.
+     */
+    private long mBufferedSince;
+    /**
+     * Data type of buffered data.
+     */
+    private DataType mDataType;
+
+    public BufferedAudioStream(AudioStream out) {
+        this(out, DEFAULT_FLUSH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param out                 wrapped stream
+     * @param flushSize           size of a single block in bytes, at least 4
+     * @param flushIntervalMillis maximum time data stays in the buffer or 0 to flush only full blocks
+     */
+    public BufferedAudioStream(AudioStream out, int flushSize, long flushIntervalMillis) {
+        if (out == null) {
+            throw new NullPointerException("Output stream is mandatory");
+        } else if (flushSize < 4) {
+            throw new IllegalArgumentException("Flush size must be at least 4 bytes but was [" + flushSize + "]");
+        } else if (flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("Flush interval cannot be negative but was [" + flushIntervalMillis + "]");
+        }
+
+        mOut = out;
+        mFlushSize = flushSize;
+        mFlushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        mBuffer = ByteBuffer.allocateDirect(flushSize);
+    }
+
+    /**
+     * Flushes buffered data if data type changes.
+     *
+     * @param dataType data type that will be stored after that invocation
+     */
+    @Override
+    public void setDataType(DataType dataType) {
+        if (dataType != mDataType) {
+            flush();
+            mOut.setDataType(dataType);
+            mDataType = dataType;
+        }
+    }
+
+    /**
+     * Moves within buffered data without flushing it. Otherwise flushes buffered data
+     * and seeks the wrapped stream.
+     *
+     * @param position offset measured from the beginning of the stream
+     */
+    @Override
+    public void seek(long position) {
+        if (position >= mBufferStart && position <= mBufferStart + mBuffered) {
+            mBuffer.position((int) (position - mBufferStart));
+        } else {
+            flush();
+            mOut.seek(position);
+            mBufferStart = position;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLength(long length) {
+        flush();
+        mOut.setLength(length);
+        if (mBufferStart > length) {
+            mBufferStart = length;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] data, int offset, int size) {
+        while (size > 0) {
+            int count = Math.min(size, ensureSpace());
+            mBuffer.put(data, offset, count);
+            offset += count;
+            size -= count;
+            onBuffered();
+        }
+    }
+
+    /**
+     * Writes data larger than a block directly to the wrapped stream if there is no buffered data.
+     *
+     * @param data buffer to write to the stream
+     */
+    @Override
+    public void write(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            int space = ensureSpace();
+            if (mBuffered == 0 && data.remaining() >= space) {
+                int count = space + (data.remaining() - space) / mFlushSize * mFlushSize;
+                int limit = data.limit();
+                data.limit(data.position() + count);
+                mOut.write(data);
+                data.limit(limit);
+                mBufferStart += count;
+            } else {
+                int count = Math.min(data.remaining(), space);
+                int limit = data.limit();
+                data.limit(data.position() + count);
+                mBuffer.put(data);
+                data.limit(limit);
+                onBuffered();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int data) {
+        if (ensureSpace() < 4) {
+            flush();
+        }
+        mBuffer.putInt(data);
+        onBuffered();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(short data) {
+        if (ensureSpace() < 2) {
+            flush();
+        }
+        mBuffer.putShort(data);
+        onBuffered();
+    }
+
+    /**
+     * Writes buffered data to the wrapped stream.
+     */
+    public void flush() {
+        if (mBuffered == 0) {
+            return;
+        }
+
+        int position = mBuffer.position();
+        mBuffer.position(0);
+        mBuffer.limit(mBuffered);
+        mOut.write(mBuffer);
+        mBuffer.clear();
+        if (position != mBuffered) {
+            mOut.seek(mBufferStart + position);
+        }
+        mBufferStart += position;
+        mBuffered = 0;
+    }
+
+    /**
+     * Flushes buffered data and syncs wrapped stream.
+     */
+    @Override
+    public void sync() {
+        flush();
+        mOut.sync();
+    }
+
+    /**
+     * Flushes buffered data and closes wrapped stream.
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            mOut.close();
+        }
+    }
+
+    /**
+     * Flushes full block and computes free space up to the next aligned block boundary.
+     *
+     * @return number of bytes which could be buffered
+     */
+    private int ensureSpace() {
+        int space = blockLimit() - mBuffer.position();
+        if (space <= 0) {
+            flush();
+            space = blockLimit();
+        }
+        return space;
+    }
+
+    /**
+     * @return size of the current block ending at an aligned position
+     */
+    private int blockLimit() {
+        return mFlushSize - (int) (mBufferStart % mFlushSize);
+    }
+
+    /**
+     * Updates number of buffered bytes and flushes them if they are buffered for too long.
+     */
+    private void onBuffered() {
+        if (mBuffered == 0) {
+            mBufferedSince = System.nanoTime();
+        }
+        mBuffered = Math.max(mBuffered, mBuffer.position());
+        if (mBuffer.position() >= blockLimit()
+                || (mFlushIntervalNanos > 0 && System.nanoTime() - mBufferedSince >= mFlushIntervalNanos)) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package pl.bgadzala.arl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * File channel backed audio stream. Every write is a positional write at the current
+ * stream position, so seeking back to patch a header never moves the channel itself.
+ * Direct buffers are passed to the channel as they are, without copying to the Java heap.
+ */
+public class FileChannelAudioStream implements AudioStream {
+
+    private FileChannel mChannel;
+    /**
+     * Current position of the stream.
+     */
+    private long mPosition;
+    /**
+     * Reusable buffer for writing integers and shorts.
+     */
+    private final ByteBuffer mScratch = ByteBuffer.allocate(4);
+
+    public FileChannelAudioStream(FileChannel channel) {
+        if (channel == null) {
+            throw new NullPointerException("File channel is mandatory");
+        }
+        mChannel = channel;
+    }
+
+    /**
+     * Method unused.
+     *
+     * @param dataType data type that will be stored after that invocation
+     */
+    @Override
+    public void setDataType(DataType dataType) {
+        // ignored
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void seek(long position) {
+        if (position < 0) {
+            throw new IllegalArgumentException(String.format("Cannot seek to [%d]", position));
+        }
+        mPosition = position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLength(long length) {
+        try {
+            if (length < mChannel.size()) {
+                mChannel.truncate(length);
+            } else if (length > mChannel.size()) {
+                mScratch.clear();
+                mScratch.put((byte) 0).flip();
+                mChannel.write(mScratch, length - 1);
+            }
+            if (mPosition > length) {
+                mPosition = length;
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Cannot set length to [%d]", length), ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] data, int offset, int size) {
+        write(ByteBuffer.wrap(data, offset, size));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(ByteBuffer data) {
+        try {
+            while (data.hasRemaining()) {
+                mPosition += mChannel.write(data, mPosition);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Cannot write [%d] bytes at position [%d]",
+                    data.remaining(), mPosition), ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int data) {
+        mScratch.clear();
+        mScratch.putInt(data).flip();
+        write(mScratch);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(short data) {
+        mScratch.clear();
+        mScratch.putShort(data).flip();
+        write(mScratch);
+    }
+
+    /**
+     * Forces content and length of the file to the storage device, other metadata (e.g. modification time) is not forced.
+     */
+    @Override
+    public void sync() {
+        try {
+            mChannel.force(false);
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot sync stream", ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        try {
+            mChannel.close();
+        } catch (IOException ex) {
+            throw new RuntimeException("Error while closing stream", ex);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package pl.bgadzala.arl;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * PCM source reading an existing WAV file or a file with raw PCM data. It is not real time,
+ * so recorders transcode it as fast as the output allows.
+ */
+public class FilePcmSource implements PcmSource {
+
+    /**
+     * Preferred size of a single read.
+     */
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mBitsPerSample;
+    /**
+     * Position of the first byte after PCM data.
+     */
+    private final long mDataEnd;
+    /**
+     * Position of the next byte to read.
+     */
+    private long mPosition;
+    /**
+     * Array most recently passed to {@link #read(byte[], int, int)} and its wrapping buffer.
+     */
+    private byte[] mArray;
+    private ByteBuffer mArrayBuffer;
+
+    /**
+     * Creates source for raw PCM data (little endian, interleaved channels) filling the whole file.
+     *
+     * @param file          file with raw PCM data
+     * @param sampleRate    sample rate in Hz
+     * @param channelCount  number of channels
+     * @param bitsPerSample number of bits of a single sample, 8 or 16
+     */
+    public FilePcmSource(RandomAccessFile file, int sampleRate, int channelCount, int bitsPerSample) {
+        this(file, sampleRate, channelCount, bitsPerSample, 0, length(file));
+    }
+
+    private FilePcmSource(RandomAccessFile file, int sampleRate, int channelCount, int bitsPerSample,
+                          long dataStart, long dataLength) {
+        if (bitsPerSample != 8 && bitsPerSample != 16) {
+            throw new IllegalArgumentException("Only 8 and 16 bit PCM is supported but was [" + bitsPerSample + "]");
+        } else if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid sample rate [%d] or channel count [%d]",
+                    sampleRate, channelCount));
+        }
+
+        mFile = file;
+        mChannel = file.getChannel();
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBitsPerSample = bitsPerSample;
+        mPosition = dataStart;
+        int frameSize = channelCount * bitsPerSample / 8;
+        mDataEnd = dataStart + dataLength / frameSize * frameSize;
+    }
+
+    /**
+     * Creates source for an 8 or 16-bit PCM WAV or RF64 file, including extensible format with PCM sub format.
+     * Data chunk sizes of unfinished files (e.g. 0) are replaced with the actual length of the file.
+     *
+     * @param file WAV file
+     * @return source reading PCM data of the file
+     */
+    public static FilePcmSource openWav(RandomAccessFile file) {
+        try {
+            file.seek(0);
+            int riff = file.readInt();
+            if (riff != 0x52494646 /* RIFF */ && riff != 0x52463634 /* RF64 */) {
+                throw new IllegalArgumentException("Not a RIFF file");
+            }
+            file.readInt();
+            if (file.readInt() != 0x57415645 /* WAVE */) {
+                throw new IllegalArgumentException("Not a WAVE file");
+            }
+
+            int channels = 0;
+            int sampleRate = 0;
+            int bitsPerSample = 0;
+            long ds64DataSize = -1;
+            while (file.getFilePointer() + 8 <= file.length()) {
+                int tag = file.readInt();
+                long size = Integer.reverseBytes(file.readInt()) & 0xffffffffL;
+                long start = file.getFilePointer();
+                if (tag == 0x64733634 /* ds64 */) {
+                    file.readLong(); // RIFF size
+                    ds64DataSize = Long.reverseBytes(file.readLong());
+                } else if (tag == 0x666d7420 /* fmt */) {
+                    int audioFormat = Short.reverseBytes(file.readShort()) & 0xffff;
+                    channels = Short.reverseBytes(file.readShort());
+                    sampleRate = Integer.reverseBytes(file.readInt());
+                    file.readInt(); // byte rate
+                    file.readShort(); // block align
+                    bitsPerSample = Short.reverseBytes(file.readShort());
+                    if (audioFormat == 0xfffe /* WAVE_FORMAT_EXTENSIBLE */ && size >= 40) {
+                        file.skipBytes(8); // size of format extension, valid bits per sample, channel mask
+                        audioFormat = Short.reverseBytes(file.readShort()) & 0xffff; // first field of sub format GUID
+                    }
+                    if (audioFormat != 1) {
+                        throw new IllegalArgumentException("Only PCM WAV files are supported but format was [" + audioFormat + "]");
+                    }
+                } else if (tag == 0x64617461 /* data */) {
+                    if (channels == 0) {
+                        throw new IllegalArgumentException("Missing fmt chunk before data chunk");
+                    }
+                    if (size == 0xffffffffL && ds64DataSize >= 0) {
+                        size = ds64DataSize;
+                    }
+                    long available = file.length() - start;
+                    long length = size == 0 || size > available ? available : size;
+                    return new FilePcmSource(file, sampleRate, channels, bitsPerSample, start, length);
+                }
+                file.seek(start + size + (size & 1));
+            }
+            throw new IllegalArgumentException("Missing data chunk");
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot read WAV header", ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMinBufferSize() {
+        return READ_SIZE;
+    }
+
+    /**
+     * @return always <code>false</code>
+     */
+    @Override
+    public boolean isRealTime() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start() {
+        // nothing to start
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int size) {
+        if (buffer != mArray) {
+            mArray = buffer;
+            mArrayBuffer = ByteBuffer.wrap(buffer);
+        }
+        return read(mArrayBuffer, offset, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(ByteBuffer buffer, int size) {
+        return read(buffer, 0, size);
+    }
+
+    private int read(ByteBuffer buffer, int offset, int size) {
+        long remaining = mDataEnd - mPosition;
+        if (remaining <= 0) {
+            return END_OF_STREAM;
+        }
+        int count = (int) Math.min(size, remaining);
+        try {
+            buffer.clear();
+            buffer.position(offset);
+            buffer.limit(offset + count);
+            while (buffer.hasRemaining()) {
+                int read = mChannel.read(buffer, mPosition + buffer.position() - offset);
+                if (read < 0) {
+                    break;
+                }
+            }
+            count = buffer.position() - offset;
+            mPosition += count;
+            return count > 0 ? count : END_OF_STREAM;
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Cannot read [%d] bytes at position [%d]", count, mPosition), ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() {
+        // nothing to stop
+    }
+
+    /**
+     * Closes the file.
+     */
+    @Override
+    public void release() {
+        try {
+            mFile.close();
+        } catch (IOException ex) {
+            throw new RuntimeException("Error while closing file", ex);
+        }
+    }
+
+    private static long length(RandomAccessFile file) {
+        try {
+            return file.length();
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot get file length", ex);
+        }
+    }
+}
@@ -0,0 +1,639 @@
+package pl.bgadzala.arl;
+
+/**
+ * Encodes a single FLAC frame from deinterleaved samples. Every channel is encoded as a constant,
+ * fixed prediction or LPC subframe with partitioned Rice coded residual, falling back to verbatim
+ * samples when prediction does not pay off. Stereo frames use left/side, right/side or mid/side
+ * decorrelation when it is cheaper than independent channels.
+ * <p/>
+ * All working memory is allocated up front for the maximum block size, so encoding does not allocate.
+ * Frames are independent of each other and instances are not thread safe.
+ */
+public class FlacFrameEncoder implements FrameEncoder {
+
+    /**
+     * Maximum order of LPC prediction.
+     */
+    private static final int MAX_LPC_ORDER = 8;
+    /**
+     * Precision of quantized LPC coefficients in bits.
+     */
+    private static final int LPC_PRECISION = 12;
+    /**
+     * Maximum Rice partition order.
+     */
+    private static final int MAX_PARTITION_ORDER = 6;
+    /**
+     * Maximum Rice parameter for 4-bit parameters (15 is an escape code).
+     */
+    private static final int MAX_RICE_PARAMETER = 14;
+
+    private static final int CHANNELS_INDEPENDENT = -1;
+    private static final int CHANNELS_LEFT_SIDE = 8;
+    private static final int CHANNELS_RIGHT_SIDE = 9;
+    private static final int CHANNELS_MID_SIDE = 10;
+
+    private static final int SUBFRAME_CONSTANT = 0;
+    private static final int SUBFRAME_VERBATIM = 1;
+    private static final int SUBFRAME_FIXED = 2;
+    private static final int SUBFRAME_LPC = 3;
+
+    private static final int[] CRC8_TABLE = new int[256];
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8_TABLE[i] = crc8 & 0xff;
+            CRC16_TABLE[i] = crc16 & 0xffff;
+        }
+    }
+
+    private final int mMaxBlockSize;
+    private final int mChannelCount;
+    private final int mBitsPerSample;
+    private final BitWriter mWriter;
+
+    /**
+     * Input samples of every channel.
+     */
+    private final int[][] mSamples;
+    private final int[] mMid;
+    private final int[] mSide;
+
+    // working memory of a single subframe
+    private final int[] mFixedResidual;
+    private final int[] mLpcResidual;
+    private final long[] mPartitionSums = new long[1 << MAX_PARTITION_ORDER];
+    private final int[] mFixedRiceParameters = new int[1 << MAX_PARTITION_ORDER];
+    private final int[] mLpcRiceParameters = new int[1 << MAX_PARTITION_ORDER];
+    private final long[] mFixedOrderCosts = new long[5];
+    private final double[] mWindowed;
+    private final double[] mAutocorrelation = new double[MAX_LPC_ORDER + 1];
+    private final double[] mLpc = new double[MAX_LPC_ORDER];
+    private final double[][] mLpcCoefficients = new double[MAX_LPC_ORDER][MAX_LPC_ORDER];
+    private final double[] mLpcErrors = new double[MAX_LPC_ORDER];
+    private final int[] mQuantized = new int[MAX_LPC_ORDER];
+
+    // results of the subframe analysis
+    private int mFixedOrder;
+    private int mFixedPartitionOrder;
+    private int mLpcOrder;
+    private int mLpcShift;
+    private int mLpcPartitionOrder;
+    /**
+     * Partition order chosen by the most recent call to {@link #chooseRiceParameters(int[], int, int, int[])}.
+     */
+    private int mLastPartitionOrder;
+
+    /**
+     * @param maxBlockSize  maximum number of samples per channel in a frame
+     * @param channelCount  number of channels, 1 to 8
+     * @param bitsPerSample number of bits of a single sample, 8 or 16
+     */
+    public FlacFrameEncoder(int maxBlockSize, int channelCount, int bitsPerSample) {
+        if (channelCount < 1 || channelCount > 8) {
+            throw new IllegalArgumentException("FLAC supports 1 to 8 channels but was [" + channelCount + "]");
+        } else if (bitsPerSample != 8 && bitsPerSample != 16) {
+            throw new IllegalArgumentException("Only 8 and 16 bit samples are supported but was [" + bitsPerSample + "]");
+        }
+
+        mMaxBlockSize = maxBlockSize;
+        mChannelCount = channelCount;
+        mBitsPerSample = bitsPerSample;
+        mSamples = new int[channelCount][maxBlockSize];
+        mMid = new int[maxBlockSize];
+        mSide = new int[maxBlockSize];
+        mFixedResidual = new int[maxBlockSize];
+        mLpcResidual = new int[maxBlockSize];
+        mWindowed = new double[maxBlockSize];
+        // verbatim frame with a side channel plus headers and footer
+        mWriter = new BitWriter(maxBlockSize * channelCount * (bitsPerSample + 1) / 8 + 32 * channelCount + 32);
+    }
+
+    /**
+     * {@inheritDoc} Samples are signed, 8-bit samples are in range -128..127.
+     */
+    @Override
+    public int[][] getSamples() {
+        return mSamples;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxBlockSize() {
+        return mMaxBlockSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int encode(int blockSize, long frameNumber) {
+        if (blockSize <= 0 || blockSize > mMaxBlockSize) {
+            throw new IllegalArgumentException("Invalid block size [" + blockSize + "]");
+        }
+
+        int assignment = CHANNELS_INDEPENDENT;
+        if (mChannelCount == 2) {
+            assignment = chooseStereoAssignment(blockSize);
+        }
+
+        mWriter.reset();
+        writeFrameHeader(blockSize, frameNumber, assignment);
+        if (assignment == CHANNELS_INDEPENDENT) {
+            for (int channel = 0; channel < mChannelCount; channel++) {
+                writeSubframe(mSamples[channel], blockSize, mBitsPerSample);
+            }
+        } else if (assignment == CHANNELS_LEFT_SIDE) {
+            writeSubframe(mSamples[0], blockSize, mBitsPerSample);
+            writeSubframe(mSide, blockSize, mBitsPerSample + 1);
+        } else if (assignment == CHANNELS_RIGHT_SIDE) {
+            writeSubframe(mSide, blockSize, mBitsPerSample + 1);
+            writeSubframe(mSamples[1], blockSize, mBitsPerSample);
+        } else {
+            writeSubframe(mMid, blockSize, mBitsPerSample);
+            writeSubframe(mSide, blockSize, mBitsPerSample + 1);
+        }
+        mWriter.alignToByte();
+        int crc = crc16(mWriter.getBuffer(), mWriter.getSize());
+        mWriter.writeBits(crc, 16);
+        return mWriter.getSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getFrame() {
+        return mWriter.getBuffer();
+    }
+
+    private int chooseStereoAssignment(int blockSize) {
+        int[] left = mSamples[0];
+        int[] right = mSamples[1];
+        for (int i = 0; i < blockSize; i++) {
+            mMid[i] = (left[i] + right[i]) >> 1;
+            mSide[i] = left[i] - right[i];
+        }
+        long leftCost = estimateFixedCost(left, blockSize, mBitsPerSample);
+        long rightCost = estimateFixedCost(right, blockSize, mBitsPerSample);
+        long midCost = estimateFixedCost(mMid, blockSize, mBitsPerSample);
+        long sideCost = estimateFixedCost(mSide, blockSize, mBitsPerSample + 1);
+
+        long best = leftCost + rightCost;
+        int assignment = CHANNELS_INDEPENDENT;
+        if (leftCost + sideCost < best) {
+            best = leftCost + sideCost;
+            assignment = CHANNELS_LEFT_SIDE;
+        }
+        if (rightCost + sideCost < best) {
+            best = rightCost + sideCost;
+            assignment = CHANNELS_RIGHT_SIDE;
+        }
+        if (midCost + sideCost < best) {
+            assignment = CHANNELS_MID_SIDE;
+        }
+        return assignment;
+    }
+
+    private void writeFrameHeader(int blockSize, long frameNumber, int assignment) {
+        mWriter.writeBits(0x3ffe, 14); // sync code
+        mWriter.writeBits(0, 1); // reserved
+        mWriter.writeBits(0, 1); // fixed block size stream
+
+        int blockSizeCode = getBlockSizeCode(blockSize);
+        mWriter.writeBits(blockSizeCode, 4);
+        mWriter.writeBits(0, 4); // sample rate from STREAMINFO
+        mWriter.writeBits(assignment == CHANNELS_INDEPENDENT ? mChannelCount - 1 : assignment, 4);
+        mWriter.writeBits(mBitsPerSample == 16 ? 4 : 1, 3);
+        mWriter.writeBits(0, 1); // reserved
+        mWriter.writeUtf8(frameNumber);
+        if (blockSizeCode == 6) {
+            mWriter.writeBits(blockSize - 1, 8);
+        } else if (blockSizeCode == 7) {
+            mWriter.writeBits(blockSize - 1, 16);
+        }
+        mWriter.writeBits(crc8(mWriter.getBuffer(), mWriter.getSize()), 8);
+    }
+
+    private static int getBlockSizeCode(int blockSize) {
+        switch (blockSize) {
+            case 192:
+                return 1;
+            case 576:
+                return 2;
+            case 1152:
+                return 3;
+            case 2304:
+                return 4;
+            case 4608:
+                return 5;
+            default:
+                if (blockSize >= 256 && blockSize <= 32768 && Integer.bitCount(blockSize) == 1) {
+                    return Integer.numberOfTrailingZeros(blockSize);
+                }
+                return blockSize <= 256 ? 6 : 7;
+        }
+    }
+
+    private void writeSubframe(int[] samples, int blockSize, int bitsPerSample) {
+        boolean constant = true;
+        for (int i = 1; i < blockSize && constant; i++) {
+            constant = samples[i] == samples[0];
+        }
+        if (constant) {
+            writeSubframeHeader(SUBFRAME_CONSTANT, 0);
+            mWriter.writeBits(samples[0], bitsPerSample);
+            return;
+        }
+
+        long verbatimCost = (long) blockSize * bitsPerSample;
+        long fixedCost = analyzeFixed(samples, blockSize, bitsPerSample);
+        long lpcCost = analyzeLpc(samples, blockSize, bitsPerSample);
+
+        if (lpcCost < fixedCost && lpcCost < verbatimCost) {
+            writeSubframeHeader(SUBFRAME_LPC, mLpcOrder);
+            for (int i = 0; i < mLpcOrder; i++) {
+                mWriter.writeBits(samples[i], bitsPerSample);
+            }
+            mWriter.writeBits(LPC_PRECISION - 1, 4);
+            mWriter.writeBits(mLpcShift, 5);
+            for (int i = 0; i < mLpcOrder; i++) {
+                mWriter.writeBits(mQuantized[i], LPC_PRECISION);
+            }
+            writeResidual(mLpcResidual, blockSize, mLpcOrder, mLpcPartitionOrder, mLpcRiceParameters);
+        } else if (fixedCost < verbatimCost) {
+            writeSubframeHeader(SUBFRAME_FIXED, mFixedOrder);
+            for (int i = 0; i < mFixedOrder; i++) {
+                mWriter.writeBits(samples[i], bitsPerSample);
+            }
+            writeResidual(mFixedResidual, blockSize, mFixedOrder, mFixedPartitionOrder, mFixedRiceParameters);
+        } else {
+            writeSubframeHeader(SUBFRAME_VERBATIM, 0);
+            for (int i = 0; i < blockSize; i++) {
+                mWriter.writeBits(samples[i], bitsPerSample);
+            }
+        }
+    }
+
+    private void writeSubframeHeader(int type, int order) {
+        mWriter.writeBits(0, 1); // zero padding
+        switch (type) {
+            case SUBFRAME_CONSTANT:
+                mWriter.writeBits(0, 6);
+                break;
+            case SUBFRAME_VERBATIM:
+                mWriter.writeBits(1, 6);
+                break;
+            case SUBFRAME_FIXED:
+                mWriter.writeBits(0x08 | order, 6);
+                break;
+            default:
+                mWriter.writeBits(0x20 | (order - 1), 6);
+                break;
+        }
+        mWriter.writeBits(0, 1); // no wasted bits
+    }
+
+    private void writeResidual(int[] residual, int blockSize, int order, int partitionOrder, int[] parameters) {
+        mWriter.writeBits(0, 2); // Rice coding with 4-bit parameters
+        mWriter.writeBits(partitionOrder, 4);
+        int partitionSize = blockSize >> partitionOrder;
+        int index = order;
+        for (int partition = 0; partition < (1 << partitionOrder); partition++) {
+            int parameter = parameters[partition];
+            mWriter.writeBits(parameter, 4);
+            int end = (partition + 1) * partitionSize;
+            for (; index < end; index++) {
+                int value = residual[index];
+                mWriter.writeRice((value << 1) ^ (value >> 31), parameter);
+            }
+        }
+    }
+
+    /**
+     * Finds the best fixed predictor and computes its residual.
+     *
+     * @return estimated size of the subframe in bits
+     */
+    private long analyzeFixed(int[] samples, int blockSize, int bitsPerSample) {
+        int order = chooseFixedOrder(samples, blockSize);
+        for (int i = order; i < blockSize; i++) {
+            mFixedResidual[i] = fixedResidual(samples, i, order);
+        }
+        mFixedOrder = order;
+        long residualCost = chooseRiceParameters(mFixedResidual, blockSize, order, mFixedRiceParameters);
+        mFixedPartitionOrder = mLastPartitionOrder;
+        return 8 + (long) order * bitsPerSample + residualCost;
+    }
+
+    /**
+     * Estimates size of the channel encoded with the best fixed predictor or verbatim in bits,
+     * used to choose stereo decorrelation.
+     */
+    private long estimateFixedCost(int[] samples, int blockSize, int bitsPerSample) {
+        int order = chooseFixedOrder(samples, blockSize);
+        // folded residual is twice the absolute value
+        long riceCost = riceCost(2 * mFixedOrderCosts[order], blockSize);
+        return Math.min(riceCost, (long) blockSize * bitsPerSample);
+    }
+
+    /**
+     * Computes sums of absolute residuals of fixed predictors of all orders and picks the lowest one.
+     */
+    private int chooseFixedOrder(int[] samples, int blockSize) {
+        if (blockSize <= 4) {
+            mFixedOrderCosts[0] = 0;
+            return 0;
+        }
+        long sum0 = 0;
+        long sum1 = 0;
+        long sum2 = 0;
+        long sum3 = 0;
+        long sum4 = 0;
+        int last0 = samples[3];
+        int last1 = samples[3] - samples[2];
+        int last2 = last1 - (samples[2] - samples[1]);
+        int last3 = last2 - (samples[2] - 2 * samples[1] + samples[0]);
+        for (int i = 4; i < blockSize; i++) {
+            int error0 = samples[i];
+            int error1 = error0 - last0;
+            int error2 = error1 - last1;
+            int error3 = error2 - last2;
+            int error4 = error3 - last3;
+            sum0 += Math.abs(error0);
+            sum1 += Math.abs(error1);
+            sum2 += Math.abs(error2);
+            sum3 += Math.abs(error3);
+            sum4 += Math.abs(error4);
+            last0 = error0;
+            last1 = error1;
+            last2 = error2;
+            last3 = error3;
+        }
+        mFixedOrderCosts[0] = sum0;
+        mFixedOrderCosts[1] = sum1;
+        mFixedOrderCosts[2] = sum2;
+        mFixedOrderCosts[3] = sum3;
+        mFixedOrderCosts[4] = sum4;
+        int order = 0;
+        for (int i = 1; i < 5; i++) {
+            if (mFixedOrderCosts[i] < mFixedOrderCosts[order]) {
+                order = i;
+            }
+        }
+        return order;
+    }
+
+    private static int fixedResidual(int[] x, int i, int order) {
+        switch (order) {
+            case 0:
+                return x[i];
+            case 1:
+                return x[i] - x[i - 1];
+            case 2:
+                return x[i] - 2 * x[i - 1] + x[i - 2];
+            case 3:
+                return x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+            default:
+                return x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+        }
+    }
+
+    /**
+     * Computes LPC coefficients with Levinson-Durbin recursion on Welch windowed autocorrelation,
+     * picks the order with the lowest estimated size and computes residual of quantized predictor.
+     *
+     * @return estimated size of the subframe in bits or {@link Long#MAX_VALUE} if LPC is not applicable
+     */
+    private long analyzeLpc(int[] samples, int blockSize, int bitsPerSample) {
+        int maxOrder = Math.min(MAX_LPC_ORDER, blockSize - 1);
+        if (maxOrder < 1 || blockSize < 4 * MAX_LPC_ORDER) {
+            return Long.MAX_VALUE;
+        }
+
+        double half = (blockSize - 1) / 2.0;
+        for (int i = 0; i < blockSize; i++) {
+            double position = (i - half) / (half + 1);
+            mWindowed[i] = samples[i] * (1 - position * position);
+        }
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < blockSize; i++) {
+                sum += mWindowed[i] * mWindowed[i - lag];
+            }
+            mAutocorrelation[lag] = sum;
+        }
+        if (mAutocorrelation[0] <= 0) {
+            return Long.MAX_VALUE;
+        }
+
+        int orders = computeLpcCoefficients(maxOrder);
+        if (orders == 0) {
+            return Long.MAX_VALUE;
+        }
+
+        int order = 1;
+        double bestBits = Double.MAX_VALUE;
+        for (int i = 0; i < orders; i++) {
+            double error = mLpcErrors[i] / blockSize;
+            double bitsPerResidual = error > 0 ? Math.max(0, 0.5 * Math.log(error * 0.5) / Math.log(2)) : 0;
+            double bits = bitsPerResidual * (blockSize - i - 1) + (i + 1) * (LPC_PRECISION + bitsPerSample);
+            if (bits < bestBits) {
+                bestBits = bits;
+                order = i + 1;
+            }
+        }
+
+        if (!quantize(mLpcCoefficients[order - 1], order)) {
+            return Long.MAX_VALUE;
+        }
+        for (int i = order; i < blockSize; i++) {
+            long prediction = 0;
+            for (int j = 0; j < order; j++) {
+                prediction += (long) mQuantized[j] * samples[i - 1 - j];
+            }
+            mLpcResidual[i] = samples[i] - (int) (prediction >> mLpcShift);
+        }
+        mLpcOrder = order;
+        long residualCost = chooseRiceParameters(mLpcResidual, blockSize, order, mLpcRiceParameters);
+        mLpcPartitionOrder = mLastPartitionOrder;
+        return 8 + (long) order * bitsPerSample + 4 + 5 + (long) order * LPC_PRECISION + residualCost;
+    }
+
+    /**
+     * Levinson-Durbin recursion.
+     *
+     * @return number of computed orders
+     */
+    private int computeLpcCoefficients(int maxOrder) {
+        double error = mAutocorrelation[0];
+        for (int i = 0; i < maxOrder; i++) {
+            double reflection = -mAutocorrelation[i + 1];
+            for (int j = 0; j < i; j++) {
+                reflection -= mLpc[j] * mAutocorrelation[i - j];
+            }
+            reflection /= error;
+
+            mLpc[i] = reflection;
+            int j;
+            for (j = 0; j < (i >> 1); j++) {
+                double tmp = mLpc[j];
+                mLpc[j] += reflection * mLpc[i - 1 - j];
+                mLpc[i - 1 - j] += reflection * tmp;
+            }
+            if ((i & 1) != 0) {
+                mLpc[j] += mLpc[j] * reflection;
+            }
+
+            error *= 1.0 - reflection * reflection;
+            for (j = 0; j <= i; j++) {
+                mLpcCoefficients[i][j] = -mLpc[j];
+            }
+            mLpcErrors[i] = error;
+            if (error <= 0) {
+                return i + 1;
+            }
+        }
+        return maxOrder;
+    }
+
+    /**
+     * Quantizes LPC coefficients with error feedback.
+     *
+     * @return <code>false</code> if coefficients cannot be quantized
+     */
+    private boolean quantize(double[] coefficients, int order) {
+        double max = 0;
+        for (int i = 0; i < order; i++) {
+            max = Math.max(max, Math.abs(coefficients[i]));
+        }
+        if (max <= 0 || Double.isNaN(max) || Double.isInfinite(max)) {
+            return false;
+        }
+
+        int maxValue = (1 << (LPC_PRECISION - 1)) - 1;
+        int minValue = -(1 << (LPC_PRECISION - 1));
+        int shift = LPC_PRECISION - 1 - (Math.getExponent(max) + 1);
+        if (shift > 15) {
+            shift = 15;
+        } else if (shift < 0) {
+            return false;
+        }
+
+        double error = 0;
+        for (int i = 0; i < order; i++) {
+            error += coefficients[i] * (1 << shift);
+            long value = Math.round(error);
+            if (value > maxValue) {
+                value = maxValue;
+            } else if (value < minValue) {
+                value = minValue;
+            }
+            error -= value;
+            mQuantized[i] = (int) value;
+        }
+        mLpcShift = shift;
+        return true;
+    }
+
+    /**
+     * Chooses partition order and Rice parameters minimizing estimated size of the residual.
+     *
+     * @return estimated size of the residual in bits
+     */
+    private long chooseRiceParameters(int[] residual, int blockSize, int order, int[] parameters) {
+        int maxPartitionOrder = 0;
+        while (maxPartitionOrder < MAX_PARTITION_ORDER
+                && (blockSize & ((2 << maxPartitionOrder) - 1)) == 0
+                && (blockSize >> (maxPartitionOrder + 1)) > order) {
+            maxPartitionOrder++;
+        }
+
+        int partitions = 1 << maxPartitionOrder;
+        int partitionSize = blockSize >> maxPartitionOrder;
+        int index = order;
+        for (int partition = 0; partition < partitions; partition++) {
+            long sum = 0;
+            int end = (partition + 1) * partitionSize;
+            for (; index < end; index++) {
+                int value = residual[index];
+                sum += (value << 1) ^ (value >> 31);
+            }
+            mPartitionSums[partition] = sum;
+        }
+
+        long bestCost = Long.MAX_VALUE;
+        int bestPartitionOrder = 0;
+        for (int partitionOrder = maxPartitionOrder; partitionOrder >= 0; partitionOrder--) {
+            if (partitionOrder < maxPartitionOrder) {
+                // merge sums of neighbouring partitions
+                for (int partition = 0; partition < (1 << partitionOrder); partition++) {
+                    mPartitionSums[partition] = mPartitionSums[2 * partition] + mPartitionSums[2 * partition + 1];
+                }
+            }
+            long cost = 6;
+            int size = blockSize >> partitionOrder;
+            for (int partition = 0; partition < (1 << partitionOrder); partition++) {
+                int count = partition == 0 ? size - order : size;
+                cost += 4 + riceCost(mPartitionSums[partition], count);
+            }
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestPartitionOrder = partitionOrder;
+            }
+        }
+
+        // recompute parameters for the chosen partition order
+        int size = blockSize >> bestPartitionOrder;
+        index = order;
+        for (int partition = 0; partition < (1 << bestPartitionOrder); partition++) {
+            long sum = 0;
+            int end = (partition + 1) * size;
+            for (; index < end; index++) {
+                int value = residual[index];
+                sum += (value << 1) ^ (value >> 31);
+            }
+            parameters[partition] = riceParameter(sum, partition == 0 ? size - order : size);
+        }
+        mLastPartitionOrder = bestPartitionOrder;
+        return bestCost;
+    }
+
+    private static long riceCost(long sum, int count) {
+        int parameter = riceParameter(sum, count);
+        return (long) count * (parameter + 1) + (sum >> parameter);
+    }
+
+    private static int riceParameter(long sum, int count) {
+        if (count <= 0 || sum < count) {
+            return 0;
+        }
+        int parameter = 63 - Long.numberOfLeadingZeros(sum / count);
+        return Math.min(parameter, MAX_RICE_PARAMETER);
+    }
+
+    private static int crc8(byte[] data, int size) {
+        int crc = 0;
+        for (int i = 0; i < size; i++) {
+            crc = CRC8_TABLE[(crc ^ data[i]) & 0xff];
+        }
+        return crc;
+    }
+
+    private static int crc16(byte[] data, int size) {
+        int crc = 0;
+        for (int i = 0; i < size; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >> 8) ^ data[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+}
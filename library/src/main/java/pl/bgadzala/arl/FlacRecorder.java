@@ -0,0 +1,262 @@
+package pl.bgadzala.arl;
+
+import android.media.AudioRecord;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executor;
+
+/**
+ * Recorder which allows to encode audio stream as FLAC. Samples are encoded losslessly in blocks of
+ * {@link #BLOCK_SIZE} samples per channel while recording, so only blocks being encoded are kept in memory.
+ * STREAMINFO header is written when recording starts and updated with frame sizes, total number
+ * of samples and MD5 signature of the audio when recording finishes.
+ * <p/>
+ * Frames are encoded by the writer thread by default. With an executor, see
+ * {@link #setEncodingExecutor(Executor, int)}, frames are encoded concurrently and written in order.
+ * Every segment of segmented output is a complete FLAC stream numbering frames from 0.
+ */
+public class FlacRecorder extends AbstractRecorder implements FrameEncodingStage.Listener {
+
+    /**
+     * Number of samples per channel in a single FLAC frame.
+     */
+    public static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Offset of minimum frame size in STREAMINFO, the first field unknown until recording finishes.
+     */
+    private static final int STREAMINFO_PATCH_OFFSET = 12;
+
+    private final int mChannelCount;
+    private final int mBitsPerSample;
+    private final SampleFormat mSampleFormat;
+    private final MessageDigest mDigest;
+    private FrameEncodingStage mStage;
+    /**
+     * Input arrays of the frame being filled.
+     */
+    private int[][] mSamples;
+    /**
+     * Scratch buffer for signed 8-bit samples, which MD5 signature is computed from.
+     */
+    private byte[] mSignedBuffer;
+    /**
+     * Little endian view of the last PCM array, see {@link #onSampleRead(byte[], int)}.
+     */
+    private ByteBuffer mWrapped;
+    /**
+     * Number of samples per channel in the current block.
+     */
+    private int mBlockFill;
+    private long mTotalSamples;
+    private int mMinFrameSize;
+    private int mMaxFrameSize;
+
+    public FlacRecorder(AudioRecord audioRecord, AudioStream out) {
+        this(new AudioRecordPcmSource(audioRecord), out);
+    }
+
+    public FlacRecorder(PcmSource source, AudioStream out) {
+        super(source, out);
+        mChannelCount = source.getChannelCount();
+        mBitsPerSample = source.getBitsPerSample();
+        mSampleFormat = SampleFormat.forBitsPerSample(mBitsPerSample);
+        mStage = createStage(null, 1);
+        try {
+            mDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException("MD5 is not available", ex);
+        }
+    }
+
+    /**
+     * Sets executor encoding frames concurrently, e.g. a thread pool when transcoding on a multi-core machine.
+     * Encoded frames are written in order, at most the specified number of frames is kept in memory.
+     *
+     * @param executor       executor encoding frames or <code>null</code> to encode frames in the writer thread
+     * @param framesInFlight maximum number of frames being filled, encoded or waiting to be written
+     */
+    public void setEncodingExecutor(Executor executor, int framesInFlight) {
+        if (executor != null && framesInFlight < 2) {
+            throw new IllegalArgumentException("At least 2 frames in flight are required but was [" + framesInFlight + "]");
+        }
+        checkNotRecording();
+        mStage = createStage(executor, executor == null ? 1 : framesInFlight);
+    }
+
+    /**
+     * Invoked where recording has started. Responsible for writing stream marker and STREAMINFO
+     * (without values which are unknown at the moment of creating header).
+     */
+    protected void onRecordingStarted() {
+        mStage.reset();
+        mBlockFill = 0;
+        mSamples = mStage.getSamples();
+        mTotalSamples = 0;
+        mMinFrameSize = Integer.MAX_VALUE;
+        mMaxFrameSize = 0;
+        mDigest.reset();
+        try {
+            mOutput.setDataType(AudioStream.DataType.HEADER);
+            mOutput.setLength(0); // Set file length to 0, to prevent unexpected behavior in case the file already existed
+            mOutput.write("fLaC".getBytes());
+            mOutput.write(0x80000000 | 34); // Last metadata block, type STREAMINFO, length 34
+            BitWriter header = createStreamInfo(0, 0, 0, new byte[16]);
+            mOutput.write(header.getBuffer(), 0, header.getSize());
+        } catch (Exception ex) {
+            throw new RuntimeException("Error while writing header", ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onSampleRead(byte[] buffer, int size) {
+        if (mWrapped == null || mWrapped.array() != buffer) {
+            mWrapped = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        onSampleRead(mWrapped, size);
+    }
+
+    /**
+     * Invoked every time PCM buffer was read. Deinterleaves samples into the current block and encodes
+     * every complete block. Direct buffers are read without copying.
+     *
+     * @param buffer PCM buffer read from AudioRecord
+     * @param size   size of PCM buffer
+     */
+    @Override
+    protected void onSampleRead(ByteBuffer buffer, int size) {
+        try {
+            int frameSize = mChannelCount * mBitsPerSample / 8;
+            int frames = size / frameSize;
+            int frame = 0;
+            while (frame < frames) {
+                int count = Math.min(frames - frame, BLOCK_SIZE - mBlockFill);
+                SampleConverter.toInt(buffer, frame * frameSize, mSampleFormat, mSamples, mBlockFill, count);
+                frame += count;
+                mBlockFill += count;
+                if (mBlockFill == BLOCK_SIZE) {
+                    submitFrame();
+                }
+            }
+            updateDigest(buffer, size);
+        } catch (Exception ex) {
+            throw new RuntimeException("Error while encoding PCM buffer of length [" + size + "]", ex);
+        }
+    }
+
+    /**
+     * Invoked when recording has finished. Responsible for encoding the last block and updating STREAMINFO.
+     */
+    protected void onRecordingFinished() {
+        finishSegment().run();
+    }
+
+    /**
+     * Encodes the last block and returns a task updating STREAMINFO of the current output and closing it,
+     * so segments are sealed without blocking the writer thread.
+     *
+     * @return task completing the current output
+     */
+    @Override
+    protected Runnable finishSegment() {
+        final AudioStream out = mOutput;
+        final BitWriter header;
+        try {
+            if (mBlockFill > 0) {
+                submitFrame();
+            }
+            mStage.flush();
+            header = createStreamInfo(mTotalSamples == 0 ? 0 : mMinFrameSize, mMaxFrameSize,
+                    mTotalSamples, mDigest.digest());
+        } catch (RuntimeException ex) {
+            out.close();
+            throw new RuntimeException("Error while closing FLAC file", ex);
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    out.setDataType(AudioStream.DataType.HEADER);
+                    out.seek(STREAMINFO_PATCH_OFFSET);
+                    int offset = STREAMINFO_PATCH_OFFSET - 8; // STREAMINFO starts after stream marker and block header
+                    out.write(header.getBuffer(), offset, header.getSize() - offset);
+                } catch (Exception ex) {
+                    throw new RuntimeException("Error while closing FLAC file", ex);
+                } finally {
+                    out.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes encoded frame. Invoked by the writer thread in order of frames.
+     *
+     * @param frame     buffer holding the encoded frame
+     * @param size      size of the encoded frame in bytes
+     * @param blockSize number of samples per channel in the frame
+     */
+    @Override
+    public void onFrameEncoded(byte[] frame, int size, int blockSize) {
+        mOutput.setDataType(AudioStream.DataType.DATA);
+        mOutput.write(frame, 0, size);
+        mTotalSamples += blockSize;
+        mMinFrameSize = Math.min(mMinFrameSize, size);
+        mMaxFrameSize = Math.max(mMaxFrameSize, size);
+    }
+
+    private void submitFrame() {
+        mStage.submit(mBlockFill);
+        mSamples = mStage.getSamples();
+        mBlockFill = 0;
+    }
+
+    private FrameEncodingStage createStage(Executor executor, int slotCount) {
+        FrameEncoder[] encoders = new FrameEncoder[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            encoders[i] = new FlacFrameEncoder(BLOCK_SIZE, mChannelCount, mBitsPerSample);
+        }
+        return new FrameEncodingStage(encoders, executor, this);
+    }
+
+    /**
+     * Updates MD5 signature, which FLAC computes from signed little endian samples.
+     */
+    private void updateDigest(ByteBuffer buffer, int size) {
+        if (mBitsPerSample == 16) {
+            buffer.limit(size).position(0);
+            mDigest.update(buffer);
+            buffer.position(0);
+        } else {
+            if (mSignedBuffer == null || mSignedBuffer.length < size) {
+                mSignedBuffer = new byte[size];
+            }
+            for (int i = 0; i < size; i++) {
+                mSignedBuffer[i] = (byte) (buffer.get(i) ^ 0x80);
+            }
+            mDigest.update(mSignedBuffer, 0, size);
+        }
+    }
+
+    private BitWriter createStreamInfo(int minFrameSize, int maxFrameSize, long totalSamples, byte[] md5) {
+        BitWriter header = new BitWriter(34);
+        header.writeBits(BLOCK_SIZE, 16); // Minimum block size
+        header.writeBits(BLOCK_SIZE, 16); // Maximum block size
+        header.writeBits(minFrameSize, 24); // Minimum frame size, 0 if unknown
+        header.writeBits(maxFrameSize, 24); // Maximum frame size, 0 if unknown
+        header.writeBits(mSource.getSampleRate(), 20);
+        header.writeBits(mChannelCount - 1, 3);
+        header.writeBits(mBitsPerSample - 1, 5);
+        header.writeLong(totalSamples, 36); // Total samples per channel, 0 if unknown
+        for (byte value : md5) {
+            header.writeBits(value, 8);
+        }
+        return header;
+    }
+}
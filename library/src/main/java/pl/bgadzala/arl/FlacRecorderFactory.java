@@ -0,0 +1,31 @@
+package pl.bgadzala.arl;
+
+import android.media.AudioRecord;
+
+/**
+ * Audio recorder factory for FLAC format.
+ */
+public class FlacRecorderFactory extends AbstractRecorderFactory {
+
+    /**
+     * Creates FLAC audio recorder for specified {@link android.media.AudioRecord} object.
+     *
+     * @param audioRecord source of the audio for new recorder
+     * @param out         output FLAC file
+     * @return audio recorder for FLAC file format
+     */
+    public FlacRecorder createRecorder(AudioRecord audioRecord, AudioStream out) {
+        return new FlacRecorder(audioRecord, out);
+    }
+
+    /**
+     * Creates FLAC audio recorder for specified PCM source.
+     *
+     * @param source source of the audio for new recorder
+     * @param out    output FLAC file
+     * @return audio recorder for FLAC file format
+     */
+    public FlacRecorder createRecorder(PcmSource source, AudioStream out) {
+        return new FlacRecorder(source, out);
+    }
+}
@@ -11,7 +11,27 @@ public enum Format {
     /**
      * Waveform Audio File Format.
      */
-    WAV(new WavRecorderFactory(), "wav");
+    WAV(new WavRecorderFactory(), "wav"),
+    /**
+     * Sony Wave64 format with 64-bit chunk sizes.
+     */
+    WAVE64(new WavRecorderFactory(WavRecorder.Container.WAVE64), "w64"),
+    /**
+     * Waveform Audio File Format with IMA ADPCM encoding, 4 bits per sample.
+     */
+    WAV_IMA_ADPCM(new ImaAdpcmRecorderFactory(), "wav"),
+    /**
+     * Waveform Audio File Format with G.711 µ-law encoding, 8 bits per sample.
+     */
+    WAV_MU_LAW(new G711RecorderFactory(G711Recorder.Law.MU_LAW), "wav"),
+    /**
+     * Waveform Audio File Format with G.711 A-law encoding, 8 bits per sample.
+     */
+    WAV_A_LAW(new G711RecorderFactory(G711Recorder.Law.A_LAW), "wav"),
+    /**
+     * Free Lossless Audio Codec.
+     */
+    FLAC(new FlacRecorderFactory(), "flac");
 
     /**
      * Factory for format specific audio recorders.
@@ -46,6 +66,21 @@ public enum Format {
         return mFactory.createRecorder(audioSource, out);
     }
 
+    /**
+     * Creates audio recorder for specified audio source, which records in specified sample rate and number
+     * of channels, e.g. 16 kHz mono for speech. Audio is captured in best quality available on a platform
+     * and converted by {@link ResamplingPcmSource}.
+     *
+     * @param audioSource  audio source for new audio recorder
+     * @param sampleRate   sample rate of recorded audio in Hz
+     * @param channelCount number of channels of recorded audio, 1 or 2
+     * @param out          output file
+     * @return audio recorder for specified audio source
+     */
+    public Recorder createRecorder(int audioSource, int sampleRate, int channelCount, AudioStream out) {
+        return mFactory.createRecorder(audioSource, sampleRate, channelCount, out);
+    }
+
     /**
      * Creates audio recorder for specified {@link AudioRecord} object.
      *
@@ -56,4 +91,16 @@ public enum Format {
     public Recorder createRecorder(AudioRecord audioRecord, AudioStream out) {
         return mFactory.createRecorder(audioRecord, out);
     }
+
+    /**
+     * Creates audio recorder for specified PCM source. Recorders for sources which are not real time
+     * (e.g. {@link FilePcmSource}) could transcode them in the calling thread, see {@link AbstractRecorder#transcode()}.
+     *
+     * @param source source of the audio for new recorder
+     * @param out    output file
+     * @return audio recorder
+     */
+    public Recorder createRecorder(PcmSource source, AudioStream out) {
+        return mFactory.createRecorder(source, out);
+    }
 }
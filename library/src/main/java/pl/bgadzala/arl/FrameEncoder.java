@@ -0,0 +1,35 @@
+package pl.bgadzala.arl;
+
+/**
+ * Encodes blocks of deinterleaved samples into independent frames. Every instance owns its
+ * input and output buffers, so separate instances could encode different frames concurrently,
+ * see {@link FrameEncodingStage}.
+ */
+public interface FrameEncoder {
+
+    /**
+     * Gets arrays for input samples, one per channel.
+     *
+     * @return arrays for input samples
+     */
+    int[][] getSamples();
+
+    /**
+     * @return maximum number of samples per channel in a frame
+     */
+    int getMaxBlockSize();
+
+    /**
+     * Encodes samples currently stored in {@link #getSamples()}.
+     *
+     * @param blockSize   number of samples per channel
+     * @param frameNumber number of the frame in the stream
+     * @return size of encoded frame in bytes, see {@link #getFrame()}
+     */
+    int encode(int blockSize, long frameNumber);
+
+    /**
+     * @return buffer holding the most recently encoded frame
+     */
+    byte[] getFrame();
+}
@@ -0,0 +1,201 @@
+package pl.bgadzala.arl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Encodes independent frames on an {@link Executor} and passes encoded frames to a {@link Listener}
+ * in strict order. The stage owns a fixed number of slots, every slot holds a {@link FrameEncoder}
+ * with its own buffers. A slot is filled with samples by the caller, encoded in the background
+ * and returned to the caller after its frame has been passed to the listener, so memory in flight
+ * is bounded by the number of slots and nothing is allocated per frame.
+ * <p/>
+ * All methods must be invoked by a single thread, the listener is invoked by the same thread.
+ * Without an executor (or with a single slot) frames are encoded by the calling thread.
+ */
+public class FrameEncodingStage {
+
+    /**
+     * Receives encoded frames in order of submission.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked for every encoded frame.
+         *
+         * @param frame     buffer holding the encoded frame, valid only during this call
+         * @param size      size of the encoded frame in bytes
+         * @param blockSize number of samples per channel in the frame
+         */
+        void onFrameEncoded(byte[] frame, int size, int blockSize);
+    }
+
+    private final Slot[] mSlots;
+    private final Executor mExecutor;
+    private final Listener mListener;
+    /**
+     * Index of the slot being filled.
+     */
+    private int mCurrent;
+    /**
+     * Index of the oldest submitted slot.
+     */
+    private int mOldest;
+    /**
+     * Number of submitted slots which frames have not been passed to the listener yet.
+     */
+    private int mInFlight;
+    private long mFrameNumber;
+
+    /**
+     * @param encoders encoders of all slots, at least one, all for the same format
+     * @param executor executor encoding frames or <code>null</code> to encode frames in the calling thread
+     * @param listener listener receiving encoded frames
+     */
+    public FrameEncodingStage(FrameEncoder[] encoders, Executor executor, Listener listener) {
+        if (encoders.length == 0) {
+            throw new IllegalArgumentException("At least one encoder is required");
+        } else if (listener == null) {
+            throw new NullPointerException("Listener is mandatory");
+        }
+
+        mSlots = new Slot[encoders.length];
+        for (int i = 0; i < encoders.length; i++) {
+            mSlots[i] = new Slot(encoders[i]);
+        }
+        mExecutor = encoders.length > 1 ? executor : null;
+        mListener = listener;
+    }
+
+    /**
+     * Gets input arrays of the slot being filled, one per channel. Arrays change after every {@link #submit(int)}.
+     *
+     * @return arrays for input samples
+     */
+    public int[][] getSamples() {
+        return mSlots[mCurrent].mEncoder.getSamples();
+    }
+
+    /**
+     * @return maximum number of samples per channel in a frame
+     */
+    public int getMaxBlockSize() {
+        return mSlots[mCurrent].mEncoder.getMaxBlockSize();
+    }
+
+    /**
+     * @return number of slots, i.e. maximum number of frames in flight
+     */
+    public int getSlotCount() {
+        return mSlots.length;
+    }
+
+    /**
+     * Submits samples of the slot being filled for encoding. Passes all already encoded frames
+     * to the listener and waits for the oldest frame if there is no free slot.
+     *
+     * @param blockSize number of samples per channel
+     */
+    public void submit(int blockSize) {
+        Slot slot = mSlots[mCurrent];
+        slot.prepare(blockSize, mFrameNumber++);
+        mCurrent = (mCurrent + 1) % mSlots.length;
+        mInFlight++;
+
+        if (mExecutor == null) {
+            slot.run();
+        } else {
+            try {
+                mExecutor.execute(slot);
+            } catch (RejectedExecutionException ex) {
+                slot.run();
+            }
+        }
+
+        while (mInFlight > 0 && mSlots[mOldest].mDone) {
+            complete();
+        }
+        if (mInFlight == mSlots.length) {
+            complete();
+        }
+    }
+
+    /**
+     * Waits for all submitted frames and passes them to the listener.
+     */
+    public void flush() {
+        while (mInFlight > 0) {
+            complete();
+        }
+    }
+
+    /**
+     * Flushes all submitted frames and numbers the next frame 0, e.g. when a new output is started.
+     */
+    public void reset() {
+        flush();
+        mFrameNumber = 0;
+    }
+
+    /**
+     * Waits for the oldest submitted frame and passes it to the listener.
+     */
+    private void complete() {
+        Slot slot = mSlots[mOldest];
+        while (!slot.mDone) {
+            LockSupport.park(this);
+        }
+        mOldest = (mOldest + 1) % mSlots.length;
+        mInFlight--;
+
+        if (slot.mError != null) {
+            RuntimeException error = slot.mError;
+            slot.mError = null;
+            throw new RuntimeException("Error while encoding frame [" + slot.mFrameNumber + "]", error);
+        }
+        mListener.onFrameEncoded(slot.mEncoder.getFrame(), slot.mSize, slot.mBlockSize);
+    }
+
+    /**
+     * Frame encoder with its task state. Fields are written before the slot is passed to the executor
+     * and read after {@link #mDone} is set, which makes them visible across threads.
+     */
+    private static class Slot implements Runnable {
+
+        private final FrameEncoder mEncoder;
+        private int mBlockSize;
+        private long mFrameNumber;
+        private int mSize;
+        private RuntimeException mError;
+        private Thread mOwner;
+        private volatile boolean mDone = true;
+
+        private Slot(FrameEncoder encoder) {
+            mEncoder = encoder;
+        }
+
+        private void prepare(int blockSize, long frameNumber) {
+            mBlockSize = blockSize;
+            mFrameNumber = frameNumber;
+            mOwner = Thread.currentThread();
+            mDone = false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            try {
+                mSize = mEncoder.encode(mBlockSize, mFrameNumber);
+            } catch (RuntimeException ex) {
+                mError = ex;
+            } finally {
+                Thread owner = mOwner;
+                mDone = true;
+                LockSupport.unpark(owner);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package pl.bgadzala.arl;
+
+import android.media.AudioRecord;
+
+/**
+ * Recorder which allows to encode audio stream as G.711 (µ-law or A-law) WAV. Every 16-bit sample
+ * is compressed to 8 bits with a single table lookup, halving size of recorded audio.
+ */
+public class G711Recorder extends WavRecorder {
+
+    /**
+     * Companding law of G.711.
+     */
+    public enum Law {
+        /**
+         * A-law, used mainly in Europe.
+         */
+        A_LAW(6),
+        /**
+         * µ-law, used mainly in North America and Japan.
+         */
+        MU_LAW(7);
+
+        private final int mFormatTag;
+
+        private Law(int formatTag) {
+            mFormatTag = formatTag;
+        }
+
+        /**
+         * @return format tag of WAV file
+         */
+        public int getFormatTag() {
+            return mFormatTag;
+        }
+    }
+
+    /**
+     * µ-law codes of 14-bit samples.
+     */
+    private static final byte[] MU_LAW_TABLE = new byte[1 << 14];
+    /**
+     * A-law codes of 13-bit samples.
+     */
+    private static final byte[] A_LAW_TABLE = new byte[1 << 13];
+
+    static {
+        for (int i = 0; i < MU_LAW_TABLE.length; i++) {
+            MU_LAW_TABLE[i] = encodeMuLaw((short) (i << 2));
+        }
+        for (int i = 0; i < A_LAW_TABLE.length; i++) {
+            A_LAW_TABLE[i] = encodeALaw((short) (i << 3));
+        }
+    }
+
+    private final Law mLaw;
+    /**
+     * Encoded samples of the last PCM buffer.
+     */
+    private byte[] mEncoded;
+
+    public G711Recorder(AudioRecord audioRecord, AudioStream out, Law law) {
+        this(new AudioRecordPcmSource(audioRecord), out, law);
+    }
+
+    public G711Recorder(PcmSource source, AudioStream out, Law law) {
+        super(source, out);
+        if (law == null) {
+            throw new NullPointerException("Companding law is mandatory");
+        }
+        mLaw = law;
+    }
+
+    /**
+     * @return companding law
+     */
+    public Law getLaw() {
+        return mLaw;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isEncodingSamples() {
+        return true;
+    }
+
+    /**
+     * Invoked every time PCM buffer was read. Encodes samples and writes them to the output.
+     *
+     * @param samples samples of PCM buffer read from AudioRecord, 8-bit samples are scaled to 16 bits
+     * @param count   number of samples
+     */
+    @Override
+    protected void onSampleRead(short[] samples, int count) {
+        try {
+            if (mEncoded == null || mEncoded.length < count) {
+                mEncoded = new byte[count];
+            }
+            byte[] table = mLaw == Law.MU_LAW ? MU_LAW_TABLE : A_LAW_TABLE;
+            int shift = mLaw == Law.MU_LAW ? 2 : 3;
+            int mask = table.length - 1;
+            for (int i = 0; i < count; i++) {
+                mEncoded[i] = table[(samples[i] >> shift) & mask];
+            }
+            writePayload(mEncoded, 0, count, count / mSource.getChannelCount());
+        } catch (Exception ex) {
+            throw new RuntimeException("Error while writing PCM buffer of [" + count + "] samples", ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getFormatTag() {
+        return mLaw.getFormatTag();
+    }
+
+    /**
+     * @return always 8
+     */
+    @Override
+    protected int getEncodedBitsPerSample() {
+        return 8;
+    }
+
+    /**
+     * @return number of channels, one byte per sample
+     */
+    @Override
+    protected int getBlockAlign() {
+        return mSource.getChannelCount();
+    }
+
+    /**
+     * @return empty extension
+     */
+    @Override
+    protected byte[] getFormatExtension() {
+        return new byte[0];
+    }
+
+    /**
+     * @return always <code>true</code>
+     */
+    @Override
+    protected boolean isFactChunkRequired() {
+        return true;
+    }
+
+    /**
+     * Encodes a sample with µ-law as specified by ITU-T G.711.
+     */
+    private static byte encodeMuLaw(short sample) {
+        int value = sample >> 2; // 14-bit magnitude
+        int sign = 0;
+        if (value < 0) {
+            value = -value;
+            sign = 0x80;
+        }
+        value = Math.min(value, 8158) + 33; // clip and add bias
+        int segment = 31 - Integer.numberOfLeadingZeros(value) - 5; // segment 0 for values below 64
+        int code = sign | (segment << 4) | ((value >> (segment + 1)) & 0x0f);
+        return (byte) (code ^ 0xff);
+    }
+
+    /**
+     * Encodes a sample with A-law as specified by ITU-T G.711.
+     */
+    private static byte encodeALaw(short sample) {
+        int value = sample >> 3; // 13-bit magnitude
+        int sign = 0x80;
+        if (value < 0) {
+            value = -value - 1;
+            sign = 0;
+        }
+        int code;
+        if (value < 32) {
+            code = value >> 1;
+        } else {
+            int segment = 31 - Integer.numberOfLeadingZeros(value) - 4; // segment 1 for values below 64
+            code = (segment << 4) | ((value >> segment) & 0x0f);
+        }
+        return (byte) ((sign | code) ^ 0x55);
+    }
+}
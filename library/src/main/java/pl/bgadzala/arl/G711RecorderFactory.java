@@ -0,0 +1,40 @@
+package pl.bgadzala.arl;
+
+import android.media.AudioRecord;
+
+/**
+ * Audio recorder factory for G.711 WAV format.
+ */
+public class G711RecorderFactory extends AbstractRecorderFactory {
+
+    /**
+     * Companding law of created recorders.
+     */
+    private final G711Recorder.Law mLaw;
+
+    public G711RecorderFactory(G711Recorder.Law law) {
+        mLaw = law;
+    }
+
+    /**
+     * Creates G.711 WAV audio recorder for specified {@link android.media.AudioRecord} object.
+     *
+     * @param audioRecord source of the audio for new recorder
+     * @param out         output WAV file
+     * @return audio recorder for G.711 WAV file format
+     */
+    public G711Recorder createRecorder(AudioRecord audioRecord, AudioStream out) {
+        return new G711Recorder(audioRecord, out, mLaw);
+    }
+
+    /**
+     * Creates G.711 WAV audio recorder for specified PCM source.
+     *
+     * @param source source of the audio for new recorder
+     * @param out    output WAV file
+     * @return audio recorder for G.711 WAV file format
+     */
+    public G711Recorder createRecorder(PcmSource source, AudioStream out) {
+        return new G711Recorder(source, out, mLaw);
+    }
+}
@@ -0,0 +1,263 @@
+package pl.bgadzala.arl;
+
+import android.media.AudioRecord;
+
+/**
+ * Recorder which allows to encode audio stream as IMA ADPCM WAV. Every 16-bit sample is compressed
+ * to 4 bits, reducing size of recorded audio 4 times. Samples are encoded in blocks, every block starts
+ * with the exact first sample and step index of every channel, so blocks are decodable independently.
+ * The last block is padded with silence, the number of recorded samples is stored in <code>fact</code> chunk.
+ */
+public class ImaAdpcmRecorder extends WavRecorder {
+
+    /**
+     * Format tag of IMA ADPCM.
+     */
+    private static final int FORMAT_IMA_ADPCM = 0x11;
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45, 50, 55, 60, 66, 73, 80, 88,
+            97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658,
+            724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327, 3660,
+            4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899, 15289, 16818,
+            18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private final int mChannelCount;
+    /**
+     * Size of a single block in bytes.
+     */
+    private final int mBlockAlign;
+    /**
+     * Number of samples per channel in a single block.
+     */
+    private final int mSamplesPerBlock;
+    /**
+     * Samples of the current block, one array per channel.
+     */
+    private final short[][] mSamples;
+    /**
+     * Encoded block.
+     */
+    private final byte[] mBlock;
+    private final int[] mStepIndex;
+    /**
+     * Number of samples per channel in the current block.
+     */
+    private int mBlockFill;
+
+    public ImaAdpcmRecorder(AudioRecord audioRecord, AudioStream out) {
+        this(new AudioRecordPcmSource(audioRecord), out);
+    }
+
+    public ImaAdpcmRecorder(PcmSource source, AudioStream out) {
+        super(source, out);
+        mChannelCount = source.getChannelCount();
+        int sampleRate = source.getSampleRate();
+        int channelBlockSize = sampleRate <= 11025 ? 256 : sampleRate <= 22050 ? 512 : 1024;
+        mBlockAlign = channelBlockSize * mChannelCount;
+        // 4 bytes of header holding the first sample, then 2 samples per byte
+        mSamplesPerBlock = (channelBlockSize - 4) * 2 + 1;
+        mSamples = new short[mChannelCount][mSamplesPerBlock];
+        mBlock = new byte[mBlockAlign];
+        mStepIndex = new int[mChannelCount];
+    }
+
+    /**
+     * @return number of samples per channel in a single block
+     */
+    public int getSamplesPerBlock() {
+        return mSamplesPerBlock;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onRecordingStarted() {
+        mBlockFill = 0;
+        for (int channel = 0; channel < mChannelCount; channel++) {
+            mStepIndex[channel] = 0;
+        }
+        super.onRecordingStarted();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isEncodingSamples() {
+        return true;
+    }
+
+    /**
+     * Invoked every time PCM buffer was read. Collects samples of the current block and encodes every complete block.
+     *
+     * @param interleaved samples of PCM buffer read from AudioRecord, 8-bit samples are scaled to 16 bits
+     * @param sampleCount number of samples
+     */
+    @Override
+    protected void onSampleRead(short[] interleaved, int sampleCount) {
+        try {
+            int frames = sampleCount / mChannelCount;
+            int frame = 0;
+            while (frame < frames) {
+                int count = Math.min(frames - frame, mSamplesPerBlock - mBlockFill);
+                for (int channel = 0; channel < mChannelCount; channel++) {
+                    short[] samples = mSamples[channel];
+                    int index = frame * mChannelCount + channel;
+                    int end = mBlockFill + count;
+                    for (int i = mBlockFill; i < end; i++, index += mChannelCount) {
+                        samples[i] = interleaved[index];
+                    }
+                }
+                frame += count;
+                mBlockFill += count;
+                if (mBlockFill == mSamplesPerBlock) {
+                    writeBlock();
+                }
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("Error while writing PCM buffer of [" + sampleCount + "] samples", ex);
+        }
+    }
+
+    /**
+     * Encodes the last block padded with silence before WAV header of the output is updated.
+     *
+     * @return task completing the current output
+     */
+    @Override
+    protected Runnable finishSegment() {
+        try {
+            if (mBlockFill > 0) {
+                writeBlock();
+            }
+        } catch (RuntimeException ex) {
+            mOutput.close();
+            throw ex;
+        }
+        return super.finishSegment();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getFormatTag() {
+        return FORMAT_IMA_ADPCM;
+    }
+
+    /**
+     * @return always 4
+     */
+    @Override
+    protected int getEncodedBitsPerSample() {
+        return 4;
+    }
+
+    /**
+     * @return size of a single block in bytes
+     */
+    @Override
+    protected int getBlockAlign() {
+        return mBlockAlign;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getByteRate() {
+        return (int) ((long) mSource.getSampleRate() * mBlockAlign / mSamplesPerBlock);
+    }
+
+    /**
+     * @return number of samples per channel in a single block
+     */
+    @Override
+    protected byte[] getFormatExtension() {
+        return new byte[]{(byte) mSamplesPerBlock, (byte) (mSamplesPerBlock >> 8)};
+    }
+
+    /**
+     * @return always <code>true</code>
+     */
+    @Override
+    protected boolean isFactChunkRequired() {
+        return true;
+    }
+
+    /**
+     * Encodes the current block. Block consists of a header for every channel followed by groups
+     * of 4 bytes (8 samples) of every channel in turn.
+     */
+    private void writeBlock() {
+        int frames = mBlockFill;
+        for (int channel = 0; channel < mChannelCount; channel++) {
+            short[] samples = mSamples[channel];
+            for (int i = frames; i < mSamplesPerBlock; i++) {
+                samples[i] = 0;
+            }
+
+            int header = 4 * channel;
+            int predictor = samples[0];
+            int stepIndex = mStepIndex[channel];
+            mBlock[header] = (byte) predictor;
+            mBlock[header + 1] = (byte) (predictor >> 8);
+            mBlock[header + 2] = (byte) stepIndex;
+            mBlock[header + 3] = 0;
+
+            int offset = 4 * mChannelCount + 4 * channel;
+            int packed = 0;
+            for (int i = 1; i < mSamplesPerBlock; i++) {
+                // branchless encoding, codes of noisy audio are unpredictable
+                int step = STEP_TABLE[stepIndex];
+                int diff = samples[i] - predictor;
+                int sign = diff >> 31;
+                diff = (diff ^ sign) - sign;
+                int delta = step >> 3;
+
+                int bit = (step - 1 - diff) >> 31; // -1 if diff >= step
+                int code = bit & 4;
+                diff -= bit & step;
+                delta += bit & step;
+                step >>= 1;
+                bit = (step - 1 - diff) >> 31;
+                code |= bit & 2;
+                diff -= bit & step;
+                delta += bit & step;
+                step >>= 1;
+                bit = (step - 1 - diff) >> 31;
+                code |= bit & 1;
+                delta += bit & step;
+
+                predictor += (delta ^ sign) - sign;
+                predictor = predictor > Short.MAX_VALUE ? Short.MAX_VALUE : predictor < Short.MIN_VALUE ? Short.MIN_VALUE : predictor;
+                code |= sign & 8;
+                stepIndex += INDEX_TABLE[code];
+                stepIndex = stepIndex < 0 ? 0 : stepIndex >= STEP_TABLE.length ? STEP_TABLE.length - 1 : stepIndex;
+
+                // samples 1..8 of every group, two samples per byte with the first one in the low nibble
+                int position = (i - 1) & 7;
+                packed |= code << (4 * position);
+                if (position == 7) {
+                    mBlock[offset] = (byte) packed;
+                    mBlock[offset + 1] = (byte) (packed >> 8);
+                    mBlock[offset + 2] = (byte) (packed >> 16);
+                    mBlock[offset + 3] = (byte) (packed >> 24);
+                    offset += 4 * mChannelCount;
+                    packed = 0;
+                }
+            }
+            mStepIndex[channel] = stepIndex;
+        }
+        writePayload(mBlock, 0, mBlockAlign, frames);
+        mBlockFill = 0;
+    }
+}
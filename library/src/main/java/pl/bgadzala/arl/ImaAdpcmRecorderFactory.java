@@ -0,0 +1,31 @@
+package pl.bgadzala.arl;
+
+import android.media.AudioRecord;
+
+/**
+ * Audio recorder factory for IMA ADPCM WAV format.
+ */
+public class ImaAdpcmRecorderFactory extends AbstractRecorderFactory {
+
+    /**
+     * Creates IMA ADPCM WAV audio recorder for specified {@link android.media.AudioRecord} object.
+     *
+     * @param audioRecord source of the audio for new recorder
+     * @param out         output WAV file
+     * @return audio recorder for IMA ADPCM WAV file format
+     */
+    public ImaAdpcmRecorder createRecorder(AudioRecord audioRecord, AudioStream out) {
+        return new ImaAdpcmRecorder(audioRecord, out);
+    }
+
+    /**
+     * Creates IMA ADPCM WAV audio recorder for specified PCM source.
+     *
+     * @param source source of the audio for new recorder
+     * @param out    output WAV file
+     * @return audio recorder for IMA ADPCM WAV file format
+     */
+    public ImaAdpcmRecorder createRecorder(PcmSource source, AudioStream out) {
+        return new ImaAdpcmRecorder(source, out);
+    }
+}
@@ -0,0 +1,203 @@
+package pl.bgadzala.arl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures per channel peak, RMS and clipped samples of PCM data over windows of fixed duration.
+ * Samples are measured after conversion to 16 bits, see {@link SampleConverter}, so recorders convert
+ * every chunk once for all measurements. Nothing is allocated after construction.
+ * <p/>
+ * Measured levels are published once per window with a sequence lock: the capture thread never
+ * waits for readers and readers copy levels to their own {@link Levels} object, retrying only
+ * when a window is published at the same time.
+ */
+public class LevelMeter {
+
+    /**
+     * Default duration of a metering window.
+     */
+    public static final int DEFAULT_WINDOW_MILLIS = 50;
+
+    private final int mChannelCount;
+    /**
+     * Lowest and highest 16-bit samples which are not clipped yet, at the limits of the original sample size.
+     */
+    private final int mClipLow;
+    private final int mClipHigh;
+    /**
+     * Number of frames in a single window.
+     */
+    private final int mWindowFrames;
+
+    // accumulators owned by the capture thread
+    private final int[] mPeak;
+    private final long[] mSumOfSquares;
+    private final int[] mClipCount;
+    private int mFrames;
+
+    /**
+     * Sequence of published levels, odd while levels are being published.
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+    /**
+     * Published levels, for every channel: peak, RMS (both as float bits) and clip count.
+     */
+    private final AtomicIntegerArray mPublished;
+    /**
+     * Max absolute sample value since the last call to {@link #getAndResetMaxAmplitude()}.
+     */
+    private final AtomicInteger mMaxAmplitude = new AtomicInteger();
+
+    /**
+     * @param channelCount  number of interleaved channels
+     * @param bitsPerSample number of bits of a single sample before conversion, 8 or 16
+     * @param sampleRate    sample rate in Hz
+     * @param windowMillis  duration of a single metering window
+     */
+    public LevelMeter(int channelCount, int bitsPerSample, int sampleRate, int windowMillis) {
+        if (bitsPerSample != 8 && bitsPerSample != 16) {
+            throw new IllegalArgumentException("Only 8 and 16 bit PCM is supported but was [" + bitsPerSample + "]");
+        } else if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window must be positive but was [" + windowMillis + "]");
+        }
+
+        mChannelCount = channelCount;
+        mClipLow = bitsPerSample == 16 ? -Short.MAX_VALUE + 1 : -127 << 8;
+        mClipHigh = bitsPerSample == 16 ? Short.MAX_VALUE - 1 : 126 << 8;
+        mWindowFrames = (int) Math.max(1, (long) sampleRate * windowMillis / 1000);
+        mPeak = new int[channelCount];
+        mSumOfSquares = new long[channelCount];
+        mClipCount = new int[channelCount];
+        mPublished = new AtomicIntegerArray(3 * channelCount);
+    }
+
+    /**
+     * @return number of interleaved channels
+     */
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * Measures PCM data. May be called only by a single thread.
+     *
+     * @param samples     interleaved samples converted to 16 bits, see {@link SampleConverter#toShort}
+     * @param sampleCount number of samples
+     */
+    public void process(short[] samples, int sampleCount) {
+        int frames = sampleCount / mChannelCount;
+        int max = 0;
+        int frame = 0;
+        while (frame < frames) {
+            int count = Math.min(frames - frame, mWindowFrames - mFrames);
+            for (int channel = 0; channel < mChannelCount; channel++) {
+                int peak = process(samples, frame * mChannelCount + channel, count, channel);
+                if (peak > max) {
+                    max = peak;
+                }
+            }
+            frame += count;
+            mFrames += count;
+            if (mFrames >= mWindowFrames) {
+                publish();
+            }
+        }
+        updateMaxAmplitude(Math.min(max, Short.MAX_VALUE));
+    }
+
+    /**
+     * Copies the most recently published levels. Never blocks the measuring thread.
+     *
+     * @param levels destination levels with the same number of channels
+     * @return destination levels
+     */
+    public Levels getLevels(Levels levels) {
+        if (levels.getChannelCount() != mChannelCount) {
+            throw new IllegalArgumentException(String.format("Expected levels for [%d] channels but got [%d]",
+                    mChannelCount, levels.getChannelCount()));
+        }
+
+        long sequence;
+        do {
+            sequence = mSequence.get();
+            while ((sequence & 1) != 0) {
+                Thread.yield();
+                sequence = mSequence.get();
+            }
+            for (int channel = 0; channel < mChannelCount; channel++) {
+                levels.set(channel,
+                        Float.intBitsToFloat(mPublished.get(3 * channel)),
+                        Float.intBitsToFloat(mPublished.get(3 * channel + 1)),
+                        mPublished.get(3 * channel + 2));
+            }
+        } while (mSequence.get() != sequence);
+        levels.setWindow(sequence / 2);
+        return levels;
+    }
+
+    /**
+     * Gets max absolute sample value (in range of 16-bit samples) measured since the previous call.
+     *
+     * @return max amplitude between 0 and 32767
+     */
+    public int getAndResetMaxAmplitude() {
+        return mMaxAmplitude.getAndSet(0);
+    }
+
+    private int process(short[] samples, int offset, int count, int channel) {
+        int peak = 0;
+        long sumOfSquares = 0;
+        int clipCount = 0;
+        int clipLow = mClipLow;
+        int clipHigh = mClipHigh;
+        for (int i = 0, index = offset; i < count; i++, index += mChannelCount) {
+            int sample = samples[index];
+            int abs = sample < 0 ? -sample : sample;
+            peak = abs > peak ? abs : peak;
+            sumOfSquares += abs * abs;
+            clipCount += sample < clipLow || sample > clipHigh ? 1 : 0;
+        }
+        accumulate(channel, peak, sumOfSquares, clipCount);
+        return peak;
+    }
+
+    private void accumulate(int channel, int peak, long sumOfSquares, int clipCount) {
+        if (peak > mPeak[channel]) {
+            mPeak[channel] = peak;
+        }
+        mSumOfSquares[channel] += sumOfSquares;
+        mClipCount[channel] += clipCount;
+    }
+
+    private void publish() {
+        float fullScale = 32768f;
+        mSequence.incrementAndGet();
+        for (int channel = 0; channel < mChannelCount; channel++) {
+            float rms = (float) Math.sqrt((double) mSumOfSquares[channel] / mFrames) / fullScale;
+            mPublished.set(3 * channel, Float.floatToIntBits(mPeak[channel] / fullScale));
+            mPublished.set(3 * channel + 1, Float.floatToIntBits(rms));
+            mPublished.set(3 * channel + 2, mClipCount[channel]);
+            clear(channel);
+        }
+        mSequence.incrementAndGet();
+        mFrames = 0;
+    }
+
+    private void clear(int channel) {
+        mPeak[channel] = 0;
+        mSumOfSquares[channel] = 0;
+        mClipCount[channel] = 0;
+    }
+
+    private void updateMaxAmplitude(int amplitude) {
+        int current;
+        do {
+            current = mMaxAmplitude.get();
+            if (amplitude <= current) {
+                return;
+            }
+        } while (!mMaxAmplitude.compareAndSet(current, amplitude));
+    }
+}
@@ -0,0 +1,84 @@
+package pl.bgadzala.arl;
+
+/**
+ * Audio levels of a single metering window - peak, RMS and number of clipped samples for every channel.
+ * Peak and RMS are relative to full scale, between 0 and 1. Instances are reusable, see
+ * {@link Recorder#getLevels(Levels)}.
+ */
+public class Levels {
+
+    private final float[] mPeak;
+    private final float[] mRms;
+    private final int[] mClipCount;
+    /**
+     * Number of the window, 0 if no window has been measured yet.
+     */
+    private long mWindow;
+
+    public Levels(int channelCount) {
+        mPeak = new float[channelCount];
+        mRms = new float[channelCount];
+        mClipCount = new int[channelCount];
+    }
+
+    /**
+     * @return number of channels
+     */
+    public int getChannelCount() {
+        return mPeak.length;
+    }
+
+    /**
+     * @param channel channel index
+     * @return peak level relative to full scale
+     */
+    public float getPeak(int channel) {
+        return mPeak[channel];
+    }
+
+    /**
+     * @param channel channel index
+     * @return RMS level relative to full scale
+     */
+    public float getRms(int channel) {
+        return mRms[channel];
+    }
+
+    /**
+     * @param channel channel index
+     * @return number of samples at full scale
+     */
+    public int getClipCount(int channel) {
+        return mClipCount[channel];
+    }
+
+    /**
+     * Gets number of the window which increases with every measured window. Could be used
+     * to check whether levels have changed since the last poll.
+     *
+     * @return number of the window, 0 if no window has been measured yet
+     */
+    public long getWindow() {
+        return mWindow;
+    }
+
+    /**
+     * Converts level relative to full scale to decibels relative to full scale.
+     *
+     * @param level level between 0 and 1
+     * @return level in dBFS, {@link Float#NEGATIVE_INFINITY} for silence
+     */
+    public static float toDecibels(float level) {
+        return (float) (20 * Math.log10(level));
+    }
+
+    void set(int channel, float peak, float rms, int clipCount) {
+        mPeak[channel] = peak;
+        mRms[channel] = rms;
+        mClipCount[channel] = clipCount;
+    }
+
+    void setWindow(long window) {
+        mWindow = window;
+    }
+}
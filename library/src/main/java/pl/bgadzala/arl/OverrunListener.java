@@ -0,0 +1,18 @@
+package pl.bgadzala.arl;
+
+/**
+ * Receives ranges of captured audio which were dropped because output did not keep up with capture,
+ * see {@link AbstractRecorder#setBackpressure(AbstractRecorder.Backpressure)}.
+ */
+public interface OverrunListener {
+
+    /**
+     * Invoked when a range of dropped audio is complete - output keeps up with capture again or recording
+     * has finished. Contiguous drops are reported as a single range. Invoked by the capture thread, so it
+     * must return quickly and must not block.
+     *
+     * @param captureFrame index of the first dropped frame, counted from the start of capture
+     * @param frames       number of dropped frames
+     */
+    void onOverrun(long captureFrame, long frames);
+}
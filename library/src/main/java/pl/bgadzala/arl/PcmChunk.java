@@ -0,0 +1,174 @@
+package pl.bgadzala.arl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Preallocated chunk of raw PCM data passed from the capture thread to the writer thread.
+ * Chunks are allocated once per recorder and recycled, so the capture loop never allocates.
+ * <p/>
+ * Chunk is backed either by a byte array or by a direct buffer. Direct chunks could be filled
+ * by {@link android.media.AudioRecord#read(ByteBuffer, int)} and written to a channel without
+ * copying audio to the Java heap.
+ * <p/>
+ * Chunk shared by several consumers counts references, see {@link #retain(int)} and {@link #release()}.
+ */
+public class PcmChunk {
+
+    /**
+     * Buffer for raw PCM data or <code>null</code> if chunk is direct.
+     */
+    private final byte[] mData;
+    /**
+     * Little endian view of PCM data limited to valid bytes.
+     */
+    private final ByteBuffer mBuffer;
+    /**
+     * Number of valid bytes in the buffer.
+     */
+    private int mSize;
+    /**
+     * Index of the first captured frame held by the chunk.
+     */
+    private long mCaptureFrame;
+    /**
+     * Time when the first frame was captured, see {@link System#nanoTime()}.
+     */
+    private long mCaptureNanos;
+    /**
+     * Index of the chunk in its pool.
+     */
+    private int mIndex;
+    /**
+     * Number of consumers which have not released the chunk yet.
+     */
+    private final AtomicInteger mReferences = new AtomicInteger();
+
+    public PcmChunk(int capacity) {
+        this(capacity, false);
+    }
+
+    public PcmChunk(int capacity, boolean direct) {
+        if (direct) {
+            mData = null;
+            mBuffer = ByteBuffer.allocateDirect(capacity);
+        } else {
+            mData = new byte[capacity];
+            mBuffer = ByteBuffer.wrap(mData);
+        }
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return buffer for raw PCM data or <code>null</code> if chunk is direct
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * Gets buffer holding PCM data. After {@link #setSize(int)} its position is 0 and its limit
+     * is equal to number of valid bytes.
+     *
+     * @return little endian buffer holding PCM data
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return <code>true</code> if chunk is backed by a direct buffer
+     */
+    public boolean isDirect() {
+        return mData == null;
+    }
+
+    /**
+     * @return maximum number of bytes held by the chunk
+     */
+    public int getCapacity() {
+        return mBuffer.capacity();
+    }
+
+    /**
+     * @return number of valid bytes in the buffer
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * @param size number of valid bytes in the buffer
+     */
+    public void setSize(int size) {
+        mSize = size;
+        mBuffer.clear();
+        mBuffer.limit(size);
+    }
+
+    /**
+     * @return index of the first captured frame held by the chunk, counted from the start of capture
+     * including dropped audio
+     */
+    public long getCaptureFrame() {
+        return mCaptureFrame;
+    }
+
+    /**
+     * @param captureFrame index of the first captured frame held by the chunk
+     */
+    public void setCaptureFrame(long captureFrame) {
+        mCaptureFrame = captureFrame;
+    }
+
+    /**
+     * @return value of {@link System#nanoTime()} when the first frame held by the chunk was captured
+     */
+    public long getCaptureNanos() {
+        return mCaptureNanos;
+    }
+
+    /**
+     * @param captureNanos value of {@link System#nanoTime()} when the first frame held by the chunk was captured
+     */
+    public void setCaptureNanos(long captureNanos) {
+        mCaptureNanos = captureNanos;
+    }
+
+    /**
+     * @return index of the chunk in its pool, 0 if chunk does not belong to a pool
+     */
+    int getIndex() {
+        return mIndex;
+    }
+
+    void setIndex(int index) {
+        mIndex = index;
+    }
+
+    /**
+     * Adds references to the chunk. Must be called before the chunk is passed to the consumers.
+     *
+     * @param references number of added references
+     */
+    public void retain(int references) {
+        mReferences.addAndGet(references);
+    }
+
+    /**
+     * Removes a single reference. Could be called from any thread.
+     *
+     * @return <code>true</code> if it was the last reference
+     */
+    public boolean release() {
+        return mReferences.decrementAndGet() == 0;
+    }
+
+    /**
+     * @return <code>true</code> if any consumer has not released the chunk yet
+     */
+    public boolean isReferenced() {
+        return mReferences.get() > 0;
+    }
+}
@@ -0,0 +1,85 @@
+package pl.bgadzala.arl;
+
+/**
+ * Fixed size pool of {@link PcmChunk}s. All chunks are allocated up front, so acquiring
+ * and releasing chunks never allocates. Chunks may be acquired by one thread and
+ * released by another one.
+ */
+public class PcmChunkPool {
+
+    /**
+     * Chunks ready to be acquired.
+     */
+    private final RingBuffer<PcmChunk> mFreeChunks;
+    /**
+     * Number of chunks owned by the pool.
+     */
+    private final int mChunkCount;
+    /**
+     * Capacity of every chunk in bytes.
+     */
+    private final int mChunkSize;
+
+    public PcmChunkPool(int chunkCount, int chunkSize) {
+        this(chunkCount, chunkSize, false);
+    }
+
+    public PcmChunkPool(int chunkCount, int chunkSize, boolean direct) {
+        if (chunkCount <= 0) {
+            throw new IllegalArgumentException("Chunk count must be positive but was [" + chunkCount + "]");
+        } else if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive but was [" + chunkSize + "]");
+        }
+
+        mFreeChunks = new RingBuffer<PcmChunk>(chunkCount);
+        mChunkCount = chunkCount;
+        mChunkSize = chunkSize;
+        for (int i = 0; i < chunkCount; i++) {
+            PcmChunk chunk = new PcmChunk(chunkSize, direct);
+            chunk.setIndex(i);
+            mFreeChunks.offer(chunk);
+        }
+    }
+
+    /**
+     * Takes chunk from the pool.
+     *
+     * @return empty chunk or <code>null</code> if all chunks are in use
+     */
+    public PcmChunk acquire() {
+        return mFreeChunks.poll();
+    }
+
+    /**
+     * Returns chunk to the pool. Chunks could be released by a single thread at once.
+     *
+     * @param chunk chunk previously acquired from this pool
+     */
+    public void release(PcmChunk chunk) {
+        chunk.setSize(0);
+        if (!mFreeChunks.offer(chunk)) {
+            throw new IllegalStateException("Chunk does not belong to the pool");
+        }
+    }
+
+    /**
+     * @return number of chunks ready to be acquired
+     */
+    public int getAvailable() {
+        return mFreeChunks.size();
+    }
+
+    /**
+     * @return number of chunks owned by the pool
+     */
+    public int getChunkCount() {
+        return mChunkCount;
+    }
+
+    /**
+     * @return capacity of every chunk in bytes
+     */
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+}
@@ -0,0 +1,18 @@
+package pl.bgadzala.arl;
+
+/**
+ * Receives captured audio while it is recorded, e.g. for live streaming or analysis,
+ * see {@link Recorder#addPcmListener(PcmListener, java.util.concurrent.Executor)}.
+ */
+public interface PcmListener {
+
+    /**
+     * Invoked by the executor of the subscription for every captured chunk in order of capture, except chunks
+     * skipped while the listener lags behind. View and its buffers are reused and refer to the pooled chunk,
+     * so they are valid only until this method returns and must not be kept. A runtime exception cancels
+     * the subscription.
+     *
+     * @param view read-only view of captured audio
+     */
+    void onPcm(PcmView view);
+}
@@ -0,0 +1,80 @@
+package pl.bgadzala.arl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of raw PCM data read by recorders. Apart from the platform audio recorder
+ * (see {@link AudioRecordPcmSource}) audio could be read from files ({@link FilePcmSource})
+ * or generated ({@link SignalPcmSource}). Sources which are not real time are read
+ * as fast as the output allows and finish recording when they reach the end of stream.
+ */
+public interface PcmSource {
+
+    /**
+     * Returned by read methods when there is no more data in the source.
+     */
+    int END_OF_STREAM = Integer.MIN_VALUE;
+
+    /**
+     * @return sample rate in Hz
+     */
+    int getSampleRate();
+
+    /**
+     * @return number of channels, 1 for mono, 2 for stereo
+     */
+    int getChannelCount();
+
+    /**
+     * @return number of bits of a single sample, 8 or 16
+     */
+    int getBitsPerSample();
+
+    /**
+     * @return minimum number of bytes which should be buffered to read the source without losing data
+     */
+    int getMinBufferSize();
+
+    /**
+     * Checks if source produces audio in real time. Real time sources lose data when they are not read
+     * in time, other sources could be read at any pace.
+     *
+     * @return <code>true</code> if source produces audio in real time
+     */
+    boolean isRealTime();
+
+    /**
+     * Starts producing audio. Invoked on the thread which will read the source.
+     */
+    void start();
+
+    /**
+     * Reads PCM data in little endian order.
+     *
+     * @param buffer destination buffer
+     * @param offset offset in the buffer
+     * @param size   maximum number of bytes to read
+     * @return number of read bytes, negative error code or {@link #END_OF_STREAM}
+     */
+    int read(byte[] buffer, int offset, int size);
+
+    /**
+     * Reads PCM data in little endian order to the beginning of the buffer. Position and limit of the
+     * buffer are not meaningful after this call.
+     *
+     * @param buffer destination buffer, direct buffer for sources backed by the platform
+     * @param size   maximum number of bytes to read
+     * @return number of read bytes, negative error code or {@link #END_OF_STREAM}
+     */
+    int read(ByteBuffer buffer, int size);
+
+    /**
+     * Stops producing audio. Invoked on the thread which has read the source.
+     */
+    void stop();
+
+    /**
+     * Releases all resources held by the source. It cannot be started again.
+     */
+    void release();
+}
@@ -0,0 +1,213 @@
+package pl.bgadzala.arl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscription of a {@link PcmListener} to audio captured by a recorder, see
+ * {@link Recorder#addPcmListener(PcmListener, java.util.concurrent.Executor)}.
+ * <p/>
+ * Captured chunks are not copied - the subscription holds a reference to every chunk until it is delivered,
+ * in its own bounded queue. Listeners share the listener backlog (see
+ * {@link AbstractRecorder#setPcmListenerBacklog(int)}), which is allocated in addition to the chunks
+ * of the writer. A listener which lags behind by more than its equal part of the backlog, or when the whole
+ * backlog is taken, is skipped and the skipped audio is counted, so a slow listener delays neither capture
+ * nor other listeners. Queued chunks are delivered by a single
+ * task submitted to the executor, which is submitted again when more chunks are queued.
+ */
+public class PcmSubscription {
+
+    private final AbstractRecorder mRecorder;
+    private final PcmListener mListener;
+    private final Executor mExecutor;
+    /**
+     * Capacity of the queue of undelivered chunks.
+     */
+    private final int mMaxLag;
+    private final int mFrameSize;
+    private final int mBitsPerSample;
+    private final RingBuffer<PcmChunk> mQueue;
+    /**
+     * <code>true</code> while the delivery task is submitted or running.
+     */
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private final AtomicLong mSkippedFrames = new AtomicLong();
+    private final PcmView mView = new PcmView();
+    /**
+     * Read-only views of chunks, indexed by index of the chunk in the pool. Accessed only by the delivery task.
+     */
+    private ByteBuffer[] mBuffers = new ByteBuffer[0];
+    private ShortBuffer[] mSamples = new ShortBuffer[0];
+    private volatile boolean mCancelled;
+    private volatile RuntimeException mError;
+
+    private final Runnable mDelivery = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    /**
+     * @param recorder      recorder owning delivered chunks
+     * @param listener      receives captured audio
+     * @param executor      runs delivery
+     * @param maxLag        capacity of the queue of undelivered chunks
+     * @param frameSize     size of a frame in bytes
+     * @param bitsPerSample size of a sample in bits
+     */
+    PcmSubscription(AbstractRecorder recorder, PcmListener listener, Executor executor, int maxLag,
+                    int frameSize, int bitsPerSample) {
+        mRecorder = recorder;
+        mListener = listener;
+        mExecutor = executor;
+        mMaxLag = maxLag;
+        mFrameSize = frameSize;
+        mBitsPerSample = bitsPerSample;
+        mQueue = new RingBuffer<PcmChunk>(maxLag);
+    }
+
+    /**
+     * @return listener receiving captured audio
+     */
+    public PcmListener getListener() {
+        return mListener;
+    }
+
+    /**
+     * @return executor running delivery
+     */
+    public Executor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * @return number of chunks queued for the listener
+     */
+    public int getLag() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return number of frames skipped because the listener lagged behind
+     */
+    public long getSkippedFrameCount() {
+        return mSkippedFrames.get();
+    }
+
+    /**
+     * @return <code>true</code> if the listener receives nothing more
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return error thrown by the listener or rejected submission of the delivery, which has cancelled
+     * the subscription, or <code>null</code>
+     */
+    public RuntimeException getError() {
+        return mError;
+    }
+
+    /**
+     * Stops delivery. Queued chunks are released without delivery.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mRecorder.removePcmSubscription(this);
+    }
+
+    /**
+     * Queues a chunk for delivery unless the listener lags behind. Invoked only by the thread capturing
+     * audio, before the chunk is queued for the writer.
+     *
+     * @param chunk  captured chunk
+     * @param frames number of frames in the chunk
+     * @param maxLag maximum number of undelivered chunks, the part of the backlog of this listener
+     */
+    void offer(PcmChunk chunk, int frames, int maxLag) {
+        if (mCancelled) {
+            return;
+        } else if (mQueue.size() >= Math.min(maxLag, mMaxLag) || !mRecorder.reservePcmListenerChunk()) {
+            mSkippedFrames.addAndGet(frames);
+            return;
+        }
+        chunk.retain(1);
+        mQueue.offer(chunk);
+        if (mScheduled.compareAndSet(false, true)) {
+            submit();
+        }
+    }
+
+    private void submit() {
+        try {
+            mExecutor.execute(mDelivery);
+        } catch (RejectedExecutionException ex) {
+            // delivery stays scheduled, so it is never submitted again
+            mError = ex;
+            mCancelled = true;
+            PcmChunk chunk;
+            while ((chunk = mQueue.poll()) != null) {
+                mRecorder.releasePcmListenerChunk(chunk);
+            }
+        }
+    }
+
+    /**
+     * Delivers queued chunks and releases them. Runs in the executor.
+     */
+    private void deliver() {
+        PcmChunk chunk;
+        while ((chunk = mQueue.poll()) != null) {
+            try {
+                if (!mCancelled) {
+                    int index = chunk.getIndex();
+                    if (index >= mBuffers.length) {
+                        mBuffers = Arrays.copyOf(mBuffers, index + 1);
+                        mSamples = Arrays.copyOf(mSamples, index + 1);
+                    }
+                    if (mBuffers[index] == null) {
+                        createViews(chunk, index);
+                    }
+                    int size = chunk.getSize();
+                    mBuffers[index].limit(size).position(0);
+                    ShortBuffer samples = mSamples[index];
+                    if (samples != null) {
+                        samples.limit(size / 2).position(0);
+                    }
+                    mView.set(mBuffers[index], samples, chunk.getCaptureFrame(), size / mFrameSize,
+                            chunk.getCaptureNanos());
+                    mListener.onPcm(mView);
+                }
+            } catch (RuntimeException ex) {
+                mError = ex;
+                mCancelled = true;
+                mRecorder.removePcmSubscription(this);
+            } finally {
+                mRecorder.releasePcmListenerChunk(chunk);
+            }
+        }
+        // capture either sees the cleared flag or this task sees the queued chunk
+        mScheduled.set(false);
+        if (!mQueue.isEmpty() && mScheduled.compareAndSet(false, true)) {
+            submit();
+        }
+    }
+
+    private void createViews(PcmChunk chunk, int index) {
+        ByteBuffer buffer = chunk.getBuffer().duplicate();
+        buffer.clear();
+        buffer = buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        mBuffers[index] = buffer;
+        if (mBitsPerSample == 16) {
+            mSamples[index] = buffer.asShortBuffer();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package pl.bgadzala.arl;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Read-only view of a captured chunk passed to {@link PcmListener}. Buffers refer to the pooled chunk
+ * without copying, so the view is valid only while the listener is invoked.
+ */
+public final class PcmView {
+
+    private ByteBuffer mBuffer;
+    private ShortBuffer mSamples;
+    private long mCaptureFrame;
+    private int mFrameCount;
+    private long mCaptureNanos;
+
+    PcmView() {
+    }
+
+    void set(ByteBuffer buffer, ShortBuffer samples, long captureFrame, int frameCount, long captureNanos) {
+        mBuffer = buffer;
+        mSamples = samples;
+        mCaptureFrame = captureFrame;
+        mFrameCount = frameCount;
+        mCaptureNanos = captureNanos;
+    }
+
+    /**
+     * @return read-only little endian buffer of interleaved PCM data, from position 0 to limit
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return read-only buffer of interleaved 16 bit samples, from position 0 to limit, or <code>null</code>
+     * if samples have another size
+     */
+    public ShortBuffer getSamples() {
+        return mSamples;
+    }
+
+    /**
+     * @return index of the first frame, counted from the start of capture including dropped audio
+     */
+    public long getCaptureFrame() {
+        return mCaptureFrame;
+    }
+
+    /**
+     * @return number of frames in the view
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Gets time when the first frame was captured, estimated from the end of the read which returned it.
+     *
+     * @return value of {@link System#nanoTime()} when the first frame was captured
+     */
+    public long getCaptureNanos() {
+        return mCaptureNanos;
+    }
+}
@@ -2,6 +2,8 @@ package pl.bgadzala.arl;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 /**
@@ -74,6 +76,26 @@ public class RAFAudioStream implements AudioStream {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(ByteBuffer data) {
+        try {
+            if (data.hasArray()) {
+                mFile.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                data.position(data.limit());
+            } else {
+                FileChannel channel = mFile.getChannel();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Cannot write [%d] bytes of buffer", data.remaining()), ex);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -98,6 +120,18 @@ public class RAFAudioStream implements AudioStream {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sync() {
+        try {
+            mFile.getFD().sync();
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot sync stream", ex);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
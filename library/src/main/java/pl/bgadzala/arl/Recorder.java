@@ -1,5 +1,7 @@
 package pl.bgadzala.arl;
 
+import java.util.concurrent.Executor;
+
 /**
  * Format unaware audio recorder.
  */
@@ -41,4 +43,62 @@ public interface Recorder {
      * @return value of max amplitude of read samples
      */
     int getMaxAmplitude();
+
+    /**
+     * Gets peak, RMS and number of clipped samples of every channel measured over the most recent window.
+     * Never blocks the recording thread and does not allocate, so it could be polled frequently (e.g. by UI).
+     *
+     * @param levels destination for levels, created for number of channels of the recorded audio
+     * @return destination levels
+     */
+    Levels getLevels(Levels levels);
+
+    /**
+     * Subscribes listener to captured audio. Every captured chunk is passed to the listener as a read-only
+     * view without copying, in order of capture, by tasks run on the executor. Chunks are skipped for
+     * a listener which lags behind, instead of delaying capture. Could be called at any time.
+     *
+     * @param listener receives captured audio
+     * @param executor runs the listener, e.g. a single thread executor
+     * @return subscription of the listener
+     */
+    PcmSubscription addPcmListener(PcmListener listener, Executor executor);
+
+    /**
+     * Cancels all subscriptions of a listener.
+     *
+     * @param listener listener receiving captured audio
+     */
+    void removePcmListener(PcmListener listener);
+
+    /**
+     * Gets number of read audio buffers which are waiting to be written to the output.
+     *
+     * @return number of buffers queued for writing
+     */
+    int getQueueDepth();
+
+    /**
+     * Gets number of overrun events - reads or queued chunks which were dropped because output did not keep up
+     * with capture, see {@link AbstractRecorder#setBackpressure(AbstractRecorder.Backpressure)}.
+     *
+     * @return number of overrun events since recorder was created
+     */
+    long getOverrunCount();
+
+    /**
+     * Gets counters and latency histograms of the recorder. Never blocks the recording threads and does
+     * not allocate, so it could be polled periodically for export.
+     *
+     * @param metrics destination for the snapshot, could be reused
+     * @return destination metrics
+     */
+    RecorderMetrics getMetrics(RecorderMetrics metrics);
+
+    /**
+     * Gets mapping of output time to capture time, which differ when silence is skipped.
+     *
+     * @return timeline of the recording
+     */
+    RecordingTimeline getTimeline();
 }
@@ -19,6 +19,19 @@ public interface RecorderFactory {
      */
     Recorder createRecorder(int audioSource, AudioStream out);
 
+    /**
+     * Creates audio recorder for specified audio source, which records in specified sample rate and number
+     * of channels. Audio is captured in best quality available on a platform and converted by
+     * {@link ResamplingPcmSource}.
+     *
+     * @param audioSource  audio source for new audio recorder
+     * @param sampleRate   sample rate of recorded audio in Hz
+     * @param channelCount number of channels of recorded audio, 1 or 2
+     * @param out          output stream
+     * @return audio recorder for specified audio source
+     */
+    Recorder createRecorder(int audioSource, int sampleRate, int channelCount, AudioStream out);
+
     /**
      * Creates audio recorder for specified {@link AudioRecord} object.
      *
@@ -28,4 +41,13 @@ public interface RecorderFactory {
      */
     Recorder createRecorder(AudioRecord audioRecord, AudioStream out);
 
+    /**
+     * Creates audio recorder for specified PCM source, e.g. a file or a generated signal.
+     *
+     * @param source source of the audio for new recorder
+     * @param out    output stream
+     * @return audio recorder
+     */
+    Recorder createRecorder(PcmSource source, AudioStream out);
+
 }
@@ -0,0 +1,279 @@
+package pl.bgadzala.arl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of a recorder, see {@link Recorder#getMetrics(RecorderMetrics)}.
+ * Recorder updates its own instance without locks and allocation. Snapshots are copied to instances
+ * owned by the caller, which could be reused for periodic export.
+ * <p/>
+ * Read latency is the duration of a single read from the source, which for real time sources includes
+ * waiting for audio. Write latency is the duration of passing a single buffer to the output, including
+ * encoding, see {@link AbstractRecorder#onSampleRead(java.nio.ByteBuffer, int)}.
+ */
+public class RecorderMetrics {
+
+    /**
+     * Histogram of durations in buckets of powers of two microseconds.
+     */
+    public static final class Histogram {
+
+        /**
+         * Number of buckets, the last one counts durations of 2^30 microseconds (about 18 minutes) and longer.
+         */
+        public static final int BUCKET_COUNT = 32;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+
+        /**
+         * Records a single duration.
+         *
+         * @param nanos duration in nanoseconds
+         */
+        void record(long nanos) {
+            long micros = Math.max(0, nanos) / 1000;
+            int bucket = micros == 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = mMaxNanos.get()) && !mMaxNanos.compareAndSet(max, nanos)) {
+                // retry, another thread has recorded a duration meanwhile
+            }
+        }
+
+        /**
+         * @param bucket index of the bucket
+         * @return number of durations in the bucket
+         */
+        public long getCount(int bucket) {
+            return mBuckets.get(bucket);
+        }
+
+        /**
+         * @param bucket index of the bucket
+         * @return exclusive upper bound of durations in the bucket in nanoseconds, 1 microsecond
+         * for the first bucket and {@link Long#MAX_VALUE} for the last one
+         */
+        public static long getUpperBoundNanos(int bucket) {
+            return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) * 1000;
+        }
+
+        /**
+         * @return number of recorded durations
+         */
+        public long getCount() {
+            return mCount.get();
+        }
+
+        /**
+         * @return sum of recorded durations in nanoseconds
+         */
+        public long getTotalNanos() {
+            return mTotalNanos.get();
+        }
+
+        /**
+         * @return the longest recorded duration in nanoseconds
+         */
+        public long getMaxNanos() {
+            return mMaxNanos.get();
+        }
+
+        /**
+         * @return mean of recorded durations in nanoseconds or 0 if nothing has been recorded
+         */
+        public long getMeanNanos() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mTotalNanos.get() / count;
+        }
+
+        /**
+         * Estimates percentile by the upper bound of the bucket containing it, but not more than
+         * the longest duration.
+         *
+         * @param percentile percentile between 0 and 100
+         * @return estimated duration in nanoseconds or 0 if nothing has been recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                total += mBuckets.get(i);
+            }
+            long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                count += mBuckets.get(i);
+                if (count > 0 && count >= rank) {
+                    return Math.min(getUpperBoundNanos(i), mMaxNanos.get());
+                }
+            }
+            return 0;
+        }
+
+        private void copyTo(Histogram histogram) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                histogram.mBuckets.set(i, mBuckets.get(i));
+            }
+            histogram.mCount.set(mCount.get());
+            histogram.mTotalNanos.set(mTotalNanos.get());
+            histogram.mMaxNanos.set(mMaxNanos.get());
+        }
+    }
+
+    private final Histogram mReadLatency = new Histogram();
+    private final Histogram mWriteLatency = new Histogram();
+    private final AtomicLong mCapturedBytes = new AtomicLong();
+    private final AtomicLong mWrittenBytes = new AtomicLong();
+    private final AtomicLong mInvalidReads = new AtomicLong();
+    private final AtomicLong mOverruns = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    /**
+     * Frames captured in measured intervals between consecutive reads and duration of the intervals.
+     */
+    private final AtomicLong mMeasuredFrames = new AtomicLong();
+    private final AtomicLong mMeasuredNanos = new AtomicLong();
+    private int mSampleRate;
+    private int mQueueDepth;
+    private long mSnapshotNanos;
+
+    /**
+     * @return latency of reads from the source
+     */
+    public Histogram getReadLatency() {
+        return mReadLatency;
+    }
+
+    /**
+     * @return latency of passing buffers to the output
+     */
+    public Histogram getWriteLatency() {
+        return mWriteLatency;
+    }
+
+    /**
+     * @return number of PCM bytes read from the source, including dropped ones
+     */
+    public long getCapturedBytes() {
+        return mCapturedBytes.get();
+    }
+
+    /**
+     * @return number of PCM bytes passed to the output, smaller than captured when audio was dropped,
+     * skipped as silence or is still queued
+     */
+    public long getWrittenBytes() {
+        return mWrittenBytes.get();
+    }
+
+    /**
+     * @return number of reads which returned an error code
+     */
+    public long getInvalidReadCount() {
+        return mInvalidReads.get();
+    }
+
+    /**
+     * @return number of reads or queued buffers dropped because output did not keep up with capture
+     */
+    public long getOverrunCount() {
+        return mOverruns.get();
+    }
+
+    /**
+     * @return number of frames dropped because output did not keep up with capture
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * @return number of buffers queued for writing at the time of the snapshot
+     */
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    /**
+     * @return nominal sample rate of the source in Hz
+     */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * Gets sample rate measured by the wall clock between reads, excluding pauses. For real time sources
+     * it differs from the nominal sample rate when the clock of the audio device drifts or audio is lost.
+     *
+     * @return effective sample rate in Hz or 0 if it has not been measured yet
+     */
+    public double getEffectiveSampleRate() {
+        long nanos = mMeasuredNanos.get();
+        return nanos == 0 ? 0 : mMeasuredFrames.get() * 1e9 / nanos;
+    }
+
+    /**
+     * @return value of {@link System#nanoTime()} when the snapshot was taken
+     */
+    public long getSnapshotNanos() {
+        return mSnapshotNanos;
+    }
+
+    void recordRead(long nanos, int size) {
+        mReadLatency.record(nanos);
+        if (size > 0) {
+            mCapturedBytes.addAndGet(size);
+        } else if (size < 0) {
+            mInvalidReads.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records interval between ends of consecutive reads.
+     *
+     * @param nanos  duration of the interval
+     * @param frames number of frames read at the end of the interval
+     */
+    void recordInterval(long nanos, int frames) {
+        mMeasuredNanos.addAndGet(nanos);
+        mMeasuredFrames.addAndGet(frames);
+    }
+
+    void recordWrite(long nanos, int size) {
+        mWriteLatency.record(nanos);
+        mWrittenBytes.addAndGet(size);
+    }
+
+    void recordOverrun(long frames) {
+        mOverruns.incrementAndGet();
+        mDroppedFrames.addAndGet(frames);
+    }
+
+    /**
+     * Copies current values to another instance.
+     *
+     * @param metrics    destination
+     * @param sampleRate nominal sample rate
+     * @param queueDepth current number of queued buffers
+     * @return destination
+     */
+    RecorderMetrics copyTo(RecorderMetrics metrics, int sampleRate, int queueDepth) {
+        mReadLatency.copyTo(metrics.mReadLatency);
+        mWriteLatency.copyTo(metrics.mWriteLatency);
+        metrics.mCapturedBytes.set(mCapturedBytes.get());
+        metrics.mWrittenBytes.set(mWrittenBytes.get());
+        metrics.mInvalidReads.set(mInvalidReads.get());
+        metrics.mOverruns.set(mOverruns.get());
+        metrics.mDroppedFrames.set(mDroppedFrames.get());
+        metrics.mMeasuredFrames.set(mMeasuredFrames.get());
+        metrics.mMeasuredNanos.set(mMeasuredNanos.get());
+        metrics.mSampleRate = sampleRate;
+        metrics.mQueueDepth = queueDepth;
+        metrics.mSnapshotNanos = System.nanoTime();
+        return metrics;
+    }
+}
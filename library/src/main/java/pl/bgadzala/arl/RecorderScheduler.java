@@ -0,0 +1,346 @@
+package pl.bgadzala.arl;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs recordings of any number of recorders on a fixed set of capture and I/O threads, instead of
+ * a capture and a writer thread for every recording, e.g. to record microphone and voice communication
+ * at once or many generated sources on a server. See {@link AbstractRecorder#setScheduler(RecorderScheduler)}.
+ * <p/>
+ * Every recording is assigned to the capture thread with the fewest recordings. A capture thread reads
+ * a single chunk of every started recording in turn, recordings with higher priority first, and parks
+ * when all its recordings are paused or wait for free chunks. Reading a real time source blocks until
+ * a period of audio is available, meanwhile other real time sources buffer their audio, so a capture
+ * thread could serve as many real time sources as it is able to read in a single period. Capture threads
+ * run with urgent audio priority for their whole life.
+ * <p/>
+ * Recordings with queued chunks wait for an I/O thread in order of priority and then in order of arrival.
+ * An I/O thread writes at most a batch of chunks of a recording and then queues the recording again,
+ * so a recording with a large backlog does not hold up other recordings. An error terminating a recording
+ * is passed to the uncaught exception handler of the thread which has finished the recording, like errors
+ * of recordings running on their own threads.
+ * <p/>
+ * Threads are started by the constructor and run until the scheduler is shut down and all its recordings
+ * are finished.
+ */
+public class RecorderScheduler {
+
+    /**
+     * Default maximum number of chunks written by an I/O thread before it turns to another recording.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 4;
+
+    /**
+     * Orders recordings by priority and then by time of queueing.
+     */
+    private static final Comparator<Task> READY_ORDER = new Comparator<Task>() {
+        @Override
+        public int compare(Task task1, Task task2) {
+            if (task1.mPriority != task2.mPriority) {
+                return task1.mPriority > task2.mPriority ? -1 : 1;
+            }
+            return task1.mSequence < task2.mSequence ? -1 : (task1.mSequence == task2.mSequence ? 0 : 1);
+        }
+    };
+
+    private final CaptureThread[] mCaptureThreads;
+    private final Thread[] mWriterThreads;
+    private final int mBatchSize;
+    /**
+     * Recordings waiting for an I/O thread.
+     */
+    private final PriorityBlockingQueue<Task> mReady = new PriorityBlockingQueue<Task>(11, READY_ORDER);
+    private final AtomicLong mSequence = new AtomicLong();
+    /**
+     * Number of recordings which have not finished yet.
+     */
+    private final AtomicInteger mActive = new AtomicInteger();
+    private final AtomicBoolean mStopped = new AtomicBoolean();
+    private volatile boolean mShutdown;
+
+    /**
+     * Recording run by the scheduler.
+     */
+    static final class Task {
+
+        private final RecorderScheduler mScheduler;
+        private final AbstractRecorder mRecorder;
+        private final int mPriority;
+        /**
+         * <code>true</code> while the recording waits for or is written by an I/O thread.
+         */
+        private final AtomicBoolean mQueued = new AtomicBoolean();
+        /**
+         * Number of unfinished parts of the recording - capture and output.
+         */
+        private final AtomicInteger mRunning = new AtomicInteger(2);
+        private RuntimeException mCaptureError;
+        private long mSequence;
+
+        private Task(RecorderScheduler scheduler, AbstractRecorder recorder, int priority) {
+            mScheduler = scheduler;
+            mRecorder = recorder;
+            mPriority = priority;
+        }
+
+        /**
+         * Queues the recording for an I/O thread unless it is already queued or being written.
+         */
+        void schedule() {
+            if (mQueued.compareAndSet(false, true)) {
+                mSequence = mScheduler.mSequence.getAndIncrement();
+                mScheduler.mReady.offer(this);
+            }
+        }
+    }
+
+    /**
+     * Reads audio of assigned recordings in turn.
+     */
+    private class CaptureThread extends Thread {
+
+        /**
+         * Recordings assigned to the thread but not started yet.
+         */
+        private final Queue<Task> mAdded = new ConcurrentLinkedQueue<Task>();
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        private CaptureThread(String name) {
+            super(name);
+        }
+
+        private void add(Task task) {
+            mCount.incrementAndGet();
+            mAdded.offer(task);
+            LockSupport.unpark(this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            // shared by all recordings, so sources never change priority of this thread
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            List<Task> tasks = new ArrayList<Task>();
+            while (!mStopped.get() || !tasks.isEmpty() || !mAdded.isEmpty()) {
+                Task added;
+                while ((added = mAdded.poll()) != null) {
+                    try {
+                        added.mRecorder.startCapture(this, added);
+                    } catch (RuntimeException ex) {
+                        finishCapture(added, ex);
+                        continue;
+                    }
+                    int index = tasks.size();
+                    while (index > 0 && tasks.get(index - 1).mPriority < added.mPriority) {
+                        index--;
+                    }
+                    tasks.add(index, added);
+                }
+
+                long wait = Long.MAX_VALUE;
+                for (int i = 0; i < tasks.size(); ) {
+                    Task task = tasks.get(i);
+                    long result;
+                    RuntimeException error = null;
+                    try {
+                        result = task.mRecorder.capture();
+                    } catch (RuntimeException ex) {
+                        result = AbstractRecorder.CAPTURE_FINISHED;
+                        error = ex;
+                    }
+                    if (result == AbstractRecorder.CAPTURE_FINISHED) {
+                        tasks.remove(i);
+                        finishCapture(task, error);
+                    } else {
+                        wait = Math.min(wait, result);
+                        i++;
+                    }
+                }
+
+                if (wait > 0 && mAdded.isEmpty()) {
+                    LockSupport.parkNanos(this, wait);
+                    Thread.interrupted(); // threads are stopped by shutdown only
+                }
+            }
+        }
+
+        private void finishCapture(Task task, RuntimeException error) {
+            task.mCaptureError = error;
+            try {
+                task.mRecorder.finishCapture();
+            } catch (RuntimeException ex) {
+                if (task.mCaptureError == null) {
+                    task.mCaptureError = ex;
+                }
+            }
+            mCount.decrementAndGet();
+            finishPart(task);
+        }
+    }
+
+    /**
+     * @param captureThreadCount number of threads reading audio
+     * @param ioThreadCount      number of threads writing audio
+     */
+    public RecorderScheduler(int captureThreadCount, int ioThreadCount) {
+        this(captureThreadCount, ioThreadCount, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param captureThreadCount number of threads reading audio
+     * @param ioThreadCount      number of threads writing audio
+     * @param batchSize          maximum number of chunks written by an I/O thread before it turns to another recording
+     */
+    public RecorderScheduler(int captureThreadCount, int ioThreadCount, int batchSize) {
+        if (captureThreadCount <= 0 || ioThreadCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of capture [%d] or I/O [%d] threads",
+                    captureThreadCount, ioThreadCount));
+        } else if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive but was [" + batchSize + "]");
+        }
+
+        mBatchSize = batchSize;
+        mCaptureThreads = new CaptureThread[captureThreadCount];
+        for (int i = 0; i < captureThreadCount; i++) {
+            mCaptureThreads[i] = new CaptureThread("AudioCaptureScheduler-" + i);
+            mCaptureThreads[i].start();
+        }
+        mWriterThreads = new Thread[ioThreadCount];
+        for (int i = 0; i < ioThreadCount; i++) {
+            mWriterThreads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            }, "AudioWriterScheduler-" + i);
+            mWriterThreads[i].start();
+        }
+    }
+
+    /**
+     * @return maximum number of chunks written by an I/O thread before it turns to another recording
+     */
+    public int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * @return number of recordings which have not finished yet
+     */
+    public int getActiveCount() {
+        return mActive.get();
+    }
+
+    /**
+     * Stops accepting new recordings. Threads finish when all running recordings are finished.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        if (mActive.get() == 0) {
+            stopThreads();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the scheduler does not accept new recordings
+     */
+    public boolean isShutdown() {
+        return mShutdown;
+    }
+
+    /**
+     * Assigns a new recording to the capture thread with the fewest recordings.
+     *
+     * @param recorder recorder starting a recording
+     */
+    void start(AbstractRecorder recorder) {
+        mActive.incrementAndGet();
+        if (mShutdown) {
+            finishTask();
+            throw new IllegalStateException("Recorder scheduler is shut down");
+        }
+
+        CaptureThread thread = mCaptureThreads[0];
+        for (CaptureThread captureThread : mCaptureThreads) {
+            if (captureThread.mCount.get() < thread.mCount.get()) {
+                thread = captureThread;
+            }
+        }
+        thread.add(new Task(this, recorder, recorder.getPriority()));
+    }
+
+    /**
+     * Writes queued recordings in batches until the scheduler is stopped.
+     */
+    private void write() {
+        while (true) {
+            Task task;
+            try {
+                task = mReady.take();
+            } catch (InterruptedException ex) {
+                continue; // threads are stopped by shutdown only
+            }
+            if (task.mRecorder == null) {
+                return;
+            }
+
+            if (task.mRecorder.write(mBatchSize)) {
+                finishPart(task); // task stays queued, so it is never written again
+                continue;
+            }
+            // capture sees the cleared flag and queues the task or this thread sees the new chunk
+            task.mQueued.set(false);
+            if (task.mRecorder.hasPendingWrites()) {
+                task.schedule();
+            }
+        }
+    }
+
+    /**
+     * Finishes capture or output of a recording. The thread finishing the last part resets the recorder
+     * and reports an error.
+     */
+    private void finishPart(Task task) {
+        if (task.mRunning.decrementAndGet() > 0) {
+            return;
+        }
+        RuntimeException error = task.mRecorder.finishScheduled(task.mCaptureError);
+        finishTask();
+        if (error != null) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, error);
+        }
+    }
+
+    private void finishTask() {
+        if (mActive.decrementAndGet() == 0 && mShutdown) {
+            stopThreads();
+        }
+    }
+
+    private void stopThreads() {
+        if (!mStopped.compareAndSet(false, true)) {
+            return;
+        }
+        for (CaptureThread thread : mCaptureThreads) {
+            LockSupport.unpark(thread);
+        }
+        for (int i = 0; i < mWriterThreads.length; i++) {
+            Task stop = new Task(this, null, Integer.MIN_VALUE);
+            stop.schedule();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package pl.bgadzala.arl;
+
+/**
+ * Maps time of the recorded output to time of capture. Output is continuous unless parts of
+ * captured audio are not written, e.g. silence dropped by {@link VoiceActivityDetector}. The timeline
+ * consists of segments starting at given output and capture frames, within a segment both advance
+ * together. Updated by the writer thread, could be queried from any thread.
+ */
+public class RecordingTimeline {
+
+    private final int mSampleRate;
+    private long[] mOutputStarts = new long[16];
+    private long[] mCaptureStarts = new long[16];
+    private int mSegmentCount;
+    private long mOutputFrames;
+    private long mCaptureFrames;
+
+    /**
+     * @param sampleRate sample rate in Hz
+     */
+    public RecordingTimeline(int sampleRate) {
+        mSampleRate = sampleRate;
+    }
+
+    /**
+     * @return sample rate in Hz
+     */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @return number of frames written to the output
+     */
+    public synchronized long getOutputFrameCount() {
+        return mOutputFrames;
+    }
+
+    /**
+     * @return number of frames captured
+     */
+    public synchronized long getCaptureFrameCount() {
+        return mCaptureFrames;
+    }
+
+    /**
+     * @return number of segments
+     */
+    public synchronized int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    /**
+     * @param segment index of the segment
+     * @return output frame at which the segment starts
+     */
+    public synchronized long getSegmentOutputFrame(int segment) {
+        checkSegment(segment);
+        return mOutputStarts[segment];
+    }
+
+    /**
+     * @param segment index of the segment
+     * @return capture frame at which the segment starts
+     */
+    public synchronized long getSegmentCaptureFrame(int segment) {
+        checkSegment(segment);
+        return mCaptureStarts[segment];
+    }
+
+    /**
+     * Maps output frame to the frame captured at the same moment.
+     *
+     * @param outputFrame frame of the output
+     * @return captured frame
+     */
+    public synchronized long getCaptureFrame(long outputFrame) {
+        int low = 0;
+        int high = mSegmentCount - 1;
+        if (high < 0) {
+            return outputFrame;
+        }
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (mOutputStarts[middle] <= outputFrame) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return mCaptureStarts[low] + (outputFrame - mOutputStarts[low]);
+    }
+
+    /**
+     * Maps output time to the time of capture.
+     *
+     * @param outputMillis time in the output in milliseconds
+     * @return time since the start of capture in milliseconds
+     */
+    public long getCaptureTimeMillis(long outputMillis) {
+        long captureFrame = getCaptureFrame(outputMillis * mSampleRate / 1000);
+        return captureFrame * 1000 / mSampleRate;
+    }
+
+    /**
+     * Starts a new segment at the current output position.
+     *
+     * @param captureFrame captured frame written next
+     */
+    synchronized void startSegment(long captureFrame) {
+        if (mSegmentCount == mOutputStarts.length) {
+            mOutputStarts = grow(mOutputStarts);
+            mCaptureStarts = grow(mCaptureStarts);
+        }
+        mOutputStarts[mSegmentCount] = mOutputFrames;
+        mCaptureStarts[mSegmentCount] = captureFrame;
+        mSegmentCount++;
+    }
+
+    /**
+     * @param frames number of frames written to the output
+     */
+    synchronized void addOutput(long frames) {
+        mOutputFrames += frames;
+    }
+
+    /**
+     * @param frames number of frames captured
+     */
+    synchronized void addCapture(long frames) {
+        mCaptureFrames += frames;
+    }
+
+    private void checkSegment(int segment) {
+        if (segment < 0 || segment >= mSegmentCount) {
+            throw new IndexOutOfBoundsException("Invalid segment [" + segment + "] of [" + mSegmentCount + "]");
+        }
+    }
+
+    private static long[] grow(long[] array) {
+        long[] grown = new long[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,343 @@
+package pl.bgadzala.arl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * PCM source converting another source to a different sample rate and number of channels, e.g. to record
+ * 16 kHz mono speech from a 44.1 kHz stereo {@link android.media.AudioRecord}. Recorders see only the converted
+ * format, so headers describe the output. Channels are mixed down by averaging or mono is duplicated, then
+ * samples are resampled by a polyphase windowed-sinc filter which passes frequencies up to
+ * {@link #PASSBAND} of the lower Nyquist frequency. Input is converted to floating point samples in bulk,
+ * filtered and converted back in bulk, see {@link SampleConverter}.
+ * <p/>
+ * Filter tables and history are allocated by the constructor, input and output buffers are allocated by the first
+ * read (and grows if a larger read is requested later), otherwise reading does not allocate.
+ */
+public class ResamplingPcmSource implements PcmSource {
+
+    /**
+     * Fraction of the lower Nyquist frequency which passes the filter.
+     */
+    public static final float PASSBAND = 0.9f;
+
+    /**
+     * Number of filter taps per output sample when not decimating, grows with the decimation ratio.
+     */
+    private static final int TAPS = 16;
+
+    private final PcmSource mSource;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mBytesPerSample;
+    private final SampleFormat mFormat;
+    private final int mInputChannelCount;
+    /**
+     * Interpolation and decimation factors, output rate is input rate * L / M.
+     */
+    private final int mL;
+    private final int mM;
+    /**
+     * Number of taps of every phase.
+     */
+    private final int mTaps;
+    /**
+     * Coefficients of all phases, every phase reversed, so it is applied to history from the oldest sample.
+     */
+    private final float[] mFilter;
+    /**
+     * History of every output channel stored twice, so the last {@link #mTaps} samples are always contiguous.
+     */
+    private final float[][] mHistory;
+    /**
+     * Position of the oldest sample of the window in the history.
+     */
+    private int mHistoryPosition;
+    /**
+     * Phase of the next output sample, input samples are consumed while it is not lower than L.
+     */
+    private int mPhase;
+    /**
+     * Raw input read from the source.
+     */
+    private byte[] mInput;
+    private ByteBuffer mInputBuffer;
+    /**
+     * Input converted to floating point samples.
+     */
+    private float[] mInputSamples;
+    /**
+     * Output samples of the current read before they are converted to its buffer.
+     */
+    private float[] mOutput;
+    private int mInputFrames;
+    private int mInputIndex;
+    private boolean mEndOfStream;
+    /**
+     * Array most recently passed to {@link #read(byte[], int, int)} and its wrapping buffer.
+     */
+    private byte[] mArray;
+    private ByteBuffer mArrayBuffer;
+
+    /**
+     * @param source       source of audio
+     * @param sampleRate   output sample rate in Hz
+     * @param channelCount output number of channels, equal to the number of channels of the source or 1 or
+     *                     2 if the source is mono
+     */
+    public ResamplingPcmSource(PcmSource source, int sampleRate, int channelCount) {
+        int inputChannels = source.getChannelCount();
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid sample rate [" + sampleRate + "]");
+        } else if (channelCount != inputChannels && channelCount != 1 && inputChannels != 1) {
+            throw new IllegalArgumentException(String.format("Cannot convert [%d] channels to [%d] channels",
+                    inputChannels, channelCount));
+        }
+
+        mSource = source;
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBytesPerSample = source.getBitsPerSample() / 8;
+        mFormat = SampleFormat.forBitsPerSample(source.getBitsPerSample());
+        mInputChannelCount = inputChannels;
+        int gcd = gcd(sampleRate, source.getSampleRate());
+        mL = sampleRate / gcd;
+        mM = source.getSampleRate() / gcd;
+        mTaps = mL == mM ? 1 : (int) Math.ceil(TAPS * Math.max(1.0, (double) mM / mL));
+        mFilter = createFilter(mL, mM, mTaps);
+        mHistory = new float[channelCount][2 * mTaps];
+        mPhase = mL; // consume the first input sample before the first output sample
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getBitsPerSample() {
+        return mSource.getBitsPerSample();
+    }
+
+    /**
+     * @return minimum buffer size of the source converted to the output format
+     */
+    @Override
+    public int getMinBufferSize() {
+        long frames = (long) mSource.getMinBufferSize() / (mInputChannelCount * mBytesPerSample) * mL / mM;
+        return (int) Math.max(1, frames) * mChannelCount * mBytesPerSample;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRealTime() {
+        return mSource.isRealTime();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start() {
+        mSource.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int size) {
+        if (mArray != buffer) {
+            mArray = buffer;
+            mArrayBuffer = ByteBuffer.wrap(buffer);
+        }
+        return convert(mArrayBuffer, offset, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(ByteBuffer buffer, int size) {
+        return convert(buffer, 0, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() {
+        mSource.stop();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release() {
+        mSource.release();
+    }
+
+    /**
+     * Converts input into the buffer. Reads the source only if there is not enough buffered input
+     * for a single output frame, so real time sources are not read ahead.
+     */
+    private int convert(ByteBuffer buffer, int offset, int size) {
+        int frameSize = mChannelCount * mBytesPerSample;
+        int maxFrames = size / frameSize;
+        if (mOutput == null || mOutput.length < maxFrames * mChannelCount) {
+            mOutput = new float[maxFrames * mChannelCount];
+        }
+        int frames = 0;
+        int position = 0;
+        while (frames < maxFrames) {
+            while (mPhase >= mL) {
+                if (mInputIndex == mInputFrames) {
+                    if (frames > 0) {
+                        SampleConverter.fromFloat(mOutput, position, mFormat, buffer, offset);
+                        return frames * frameSize;
+                    }
+                    int result = fill(maxFrames);
+                    if (result < 0) {
+                        return result;
+                    }
+                }
+                push(mInputIndex++);
+                mPhase -= mL;
+            }
+
+            int coefficients = mPhase * mTaps;
+            for (int channel = 0; channel < mChannelCount; channel++) {
+                float[] history = mHistory[channel];
+                float sum = 0;
+                for (int i = 0, j = mHistoryPosition; i < mTaps; i++, j++) {
+                    sum += mFilter[coefficients + i] * history[j];
+                }
+                mOutput[position++] = sum;
+            }
+            mPhase += mM;
+            frames++;
+        }
+        SampleConverter.fromFloat(mOutput, position, mFormat, buffer, offset);
+        return frames * frameSize;
+    }
+
+    /**
+     * Reads input for the requested number of output frames.
+     *
+     * @return 0 or negative error code or {@link #END_OF_STREAM}
+     */
+    private int fill(int outputFrames) {
+        int inputFrameSize = mInputChannelCount * mBytesPerSample;
+        int size = (int) Math.max(1, (long) outputFrames * mM / mL) * inputFrameSize;
+        if (mInput == null || mInput.length < size) {
+            mInput = new byte[size];
+            mInputBuffer = ByteBuffer.wrap(mInput).order(ByteOrder.LITTLE_ENDIAN);
+            mInputSamples = new float[size / mBytesPerSample];
+        }
+        do {
+            if (mEndOfStream) {
+                return END_OF_STREAM;
+            }
+            int read = mSource.read(mInput, 0, size);
+            if (read == END_OF_STREAM) {
+                mEndOfStream = true;
+                return END_OF_STREAM;
+            } else if (read < 0) {
+                return read;
+            }
+            mInputFrames = read / inputFrameSize;
+        } while (mInputFrames == 0);
+        SampleConverter.toFloat(mInputBuffer, 0, mFormat, mInputSamples, mInputFrames * mInputChannelCount);
+        mInputIndex = 0;
+        return 0;
+    }
+
+    /**
+     * Mixes input frame to output channels and appends it to the history.
+     */
+    private void push(int frame) {
+        int index = frame * mInputChannelCount;
+        int position = mHistoryPosition;
+        mHistoryPosition = position + 1 == mTaps ? 0 : position + 1;
+        int newest = position + mTaps; // oldest sample of the window is replaced by the newest one
+        if (mChannelCount == mInputChannelCount) {
+            for (int channel = 0; channel < mChannelCount; channel++, index++) {
+                float sample = mInputSamples[index];
+                mHistory[channel][position] = sample;
+                mHistory[channel][newest] = sample;
+            }
+        } else if (mChannelCount == 1) {
+            float sum = 0;
+            for (int channel = 0; channel < mInputChannelCount; channel++, index++) {
+                sum += mInputSamples[index];
+            }
+            float sample = sum / mInputChannelCount;
+            mHistory[0][position] = sample;
+            mHistory[0][newest] = sample;
+        } else {
+            float sample = mInputSamples[index];
+            for (int channel = 0; channel < mChannelCount; channel++) {
+                mHistory[channel][position] = sample;
+                mHistory[channel][newest] = sample;
+            }
+        }
+    }
+
+    /**
+     * Creates Blackman windowed sinc low-pass filter split into L phases, every phase normalized to unity gain.
+     */
+    private static float[] createFilter(int l, int m, int taps) {
+        float[] filter = new float[l * taps];
+        if (taps == 1) {
+            filter[0] = 1;
+            return filter;
+        }
+        int length = l * taps;
+        double cutoff = PASSBAND * 0.5 / Math.max(l, m); // cycles per sample of the interpolated signal
+        double center = (length - 1) / 2.0;
+        for (int phase = 0; phase < l; phase++) {
+            double sum = 0;
+            for (int tap = 0; tap < taps; tap++) {
+                int i = tap * l + phase;
+                double x = i - center;
+                double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+                double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * (i + 0.5) / length)
+                        + 0.08 * Math.cos(4 * Math.PI * (i + 0.5) / length);
+                double value = sinc * window;
+                // tap k multiplies sample n - k, the window of history starts with the oldest sample
+                filter[phase * taps + taps - 1 - tap] = (float) value;
+                sum += value;
+            }
+            for (int tap = 0; tap < taps; tap++) {
+                filter[phase * taps + tap] /= sum;
+            }
+        }
+        return filter;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,105 @@
+package pl.bgadzala.arl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, lock-free queue for exactly one producer thread and one consumer thread.
+ * Capacity is rounded up to the nearest power of two. Neither {@link #offer(Object)}
+ * nor {@link #poll()} allocates or blocks. The producer could poll too, e.g. to discard
+ * the oldest element of a full queue.
+ *
+ * @param <E> type of queued elements
+ */
+public class RingBuffer<E> {
+
+    /**
+     * Queued elements.
+     */
+    private final E[] mSlots;
+    /**
+     * Mask used to map sequence numbers to slots.
+     */
+    private final int mMask;
+    /**
+     * Sequence number of the next element to poll. Advanced by compare-and-set, so the producer could poll too.
+     */
+    private final AtomicLong mHead = new AtomicLong();
+    /**
+     * Sequence number of the next element to offer. Written only by the producer.
+     */
+    private final AtomicLong mTail = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public RingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive but was [" + capacity + "]");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mSlots = (E[]) new Object[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * Adds element to the queue. May be called only by the producer thread.
+     *
+     * @param element element to add
+     * @return <code>false</code> if the queue is full
+     */
+    public boolean offer(E element) {
+        long tail = mTail.get();
+        if (tail - mHead.get() >= mSlots.length) {
+            return false;
+        }
+        mSlots[(int) tail & mMask] = element;
+        mTail.set(tail + 1);
+        return true;
+    }
+
+    /**
+     * Removes element from the queue. May be called by the consumer thread and by the producer thread.
+     * Slot is not cleared, so the element is referenced until it is overwritten.
+     *
+     * @return head of the queue or <code>null</code> if the queue is empty
+     */
+    public E poll() {
+        while (true) {
+            long head = mHead.get();
+            if (head >= mTail.get()) {
+                return null;
+            }
+            // slot could be overwritten only after head has advanced, which fails the exchange
+            E element = mSlots[(int) head & mMask];
+            if (mHead.compareAndSet(head, head + 1)) {
+                return element;
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if there are no elements in the queue
+     */
+    public boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+
+    /**
+     * Gets number of queued elements. Value is exact only when called from
+     * the producer or consumer thread, otherwise it is an estimate.
+     *
+     * @return number of queued elements
+     */
+    public int size() {
+        long size = mTail.get() - mHead.get();
+        return size < 0 ? 0 : (int) Math.min(size, mSlots.length);
+    }
+
+    /**
+     * @return maximum number of queued elements
+     */
+    public int capacity() {
+        return mSlots.length;
+    }
+}
@@ -0,0 +1,278 @@
+package pl.bgadzala.arl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Converts interleaved little endian samples between byte buffers and primitive arrays, so encoders
+ * and signal processing work on whole arrays of samples instead of assembling every sample from bytes.
+ * <p/>
+ * Every conversion is a single counted loop chosen by format and byte order of the buffer before the
+ * loop starts, without branches or allocation per sample. Buffers are accessed by absolute index,
+ * their position and limit are not changed. Samples in little endian order are expected regardless
+ * of the byte order of the buffer.
+ * <p/>
+ * Integer samples are scaled to the full range of the destination: 8-bit samples are shifted to the most
+ * significant byte of 16-bit samples, 24-bit samples lose their least significant byte. Floating point
+ * samples are between -1 and 1, larger values are clamped when converted to integers.
+ */
+public final class SampleConverter {
+
+    private static final float SCALE_8 = 1f / 128;
+    private static final float SCALE_16 = 1f / 32768;
+    private static final float SCALE_24 = 1f / 8388608;
+
+    private SampleConverter() {
+    }
+
+    /**
+     * Reads samples as 16-bit integers.
+     *
+     * @param pcm     source buffer
+     * @param offset  offset of the first sample in the buffer
+     * @param format  format of samples in the buffer
+     * @param samples destination array
+     * @param count   number of samples
+     */
+    public static void toShort(ByteBuffer pcm, int offset, SampleFormat format, short[] samples, int count) {
+        boolean littleEndian = pcm.order() == ByteOrder.LITTLE_ENDIAN;
+        switch (format) {
+            case PCM_8:
+                for (int i = 0; i < count; i++) {
+                    samples[i] = (short) (((pcm.get(offset + i) & 0xff) - 128) << 8);
+                }
+                break;
+            case PCM_16:
+                if (littleEndian) {
+                    for (int i = 0; i < count; i++) {
+                        samples[i] = pcm.getShort(offset + 2 * i);
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        samples[i] = Short.reverseBytes(pcm.getShort(offset + 2 * i));
+                    }
+                }
+                break;
+            case PCM_24:
+                if (littleEndian) {
+                    for (int i = 0; i < count; i++) {
+                        samples[i] = pcm.getShort(offset + 3 * i + 1);
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        samples[i] = Short.reverseBytes(pcm.getShort(offset + 3 * i + 1));
+                    }
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    samples[i] = (short) quantize(getFloat(pcm, offset + 4 * i, littleEndian), 32768, 32767);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reads samples as floating point numbers between -1 and 1.
+     *
+     * @param pcm     source buffer
+     * @param offset  offset of the first sample in the buffer
+     * @param format  format of samples in the buffer
+     * @param samples destination array
+     * @param count   number of samples
+     */
+    public static void toFloat(ByteBuffer pcm, int offset, SampleFormat format, float[] samples, int count) {
+        boolean littleEndian = pcm.order() == ByteOrder.LITTLE_ENDIAN;
+        switch (format) {
+            case PCM_8:
+                for (int i = 0; i < count; i++) {
+                    samples[i] = ((pcm.get(offset + i) & 0xff) - 128) * SCALE_8;
+                }
+                break;
+            case PCM_16:
+                if (littleEndian) {
+                    for (int i = 0; i < count; i++) {
+                        samples[i] = pcm.getShort(offset + 2 * i) * SCALE_16;
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        samples[i] = Short.reverseBytes(pcm.getShort(offset + 2 * i)) * SCALE_16;
+                    }
+                }
+                break;
+            case PCM_24:
+                for (int i = 0, index = offset; i < count; i++, index += 3) {
+                    int sample = (pcm.get(index) & 0xff) | ((pcm.get(index + 1) & 0xff) << 8) | (pcm.get(index + 2) << 16);
+                    samples[i] = sample * SCALE_24;
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    samples[i] = getFloat(pcm, offset + 4 * i, littleEndian);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reads integer samples without scaling, 8-bit samples as signed, and splits them to one array per channel,
+     * e.g. for lossless encoders.
+     *
+     * @param pcm      source buffer
+     * @param offset   offset of the first frame in the buffer
+     * @param format   integer format of samples in the buffer
+     * @param channels destination arrays, one per channel
+     * @param position index in destination arrays of the first frame
+     * @param frames   number of frames
+     */
+    public static void toInt(ByteBuffer pcm, int offset, SampleFormat format, int[][] channels, int position, int frames) {
+        boolean littleEndian = pcm.order() == ByteOrder.LITTLE_ENDIAN;
+        int channelCount = channels.length;
+        int frameSize = channelCount * format.getBytesPerSample();
+        int end = position + frames;
+        for (int channel = 0; channel < channelCount; channel++) {
+            int[] samples = channels[channel];
+            int index = offset + channel * format.getBytesPerSample();
+            switch (format) {
+                case PCM_8:
+                    for (int i = position; i < end; i++, index += frameSize) {
+                        samples[i] = (pcm.get(index) & 0xff) - 128;
+                    }
+                    break;
+                case PCM_16:
+                    if (littleEndian) {
+                        for (int i = position; i < end; i++, index += frameSize) {
+                            samples[i] = pcm.getShort(index);
+                        }
+                    } else {
+                        for (int i = position; i < end; i++, index += frameSize) {
+                            samples[i] = Short.reverseBytes(pcm.getShort(index));
+                        }
+                    }
+                    break;
+                case PCM_24:
+                    for (int i = position; i < end; i++, index += frameSize) {
+                        samples[i] = (pcm.get(index) & 0xff) | ((pcm.get(index + 1) & 0xff) << 8) | (pcm.get(index + 2) << 16);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Only integer samples are supported but was [" + format + "]");
+            }
+        }
+    }
+
+    /**
+     * Writes 16-bit samples in another format.
+     *
+     * @param samples source array
+     * @param count   number of samples
+     * @param format  format of samples in the buffer
+     * @param out     destination buffer, large enough for all samples
+     * @param offset  offset of the first sample in the buffer
+     */
+    public static void fromShort(short[] samples, int count, SampleFormat format, ByteBuffer out, int offset) {
+        boolean littleEndian = out.order() == ByteOrder.LITTLE_ENDIAN;
+        switch (format) {
+            case PCM_8:
+                for (int i = 0; i < count; i++) {
+                    out.put(offset + i, (byte) ((samples[i] >> 8) + 128));
+                }
+                break;
+            case PCM_16:
+                if (littleEndian) {
+                    for (int i = 0; i < count; i++) {
+                        out.putShort(offset + 2 * i, samples[i]);
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        out.putShort(offset + 2 * i, Short.reverseBytes(samples[i]));
+                    }
+                }
+                break;
+            case PCM_24:
+                if (littleEndian) {
+                    for (int i = 0, index = offset; i < count; i++, index += 3) {
+                        out.put(index, (byte) 0);
+                        out.putShort(index + 1, samples[i]);
+                    }
+                } else {
+                    for (int i = 0, index = offset; i < count; i++, index += 3) {
+                        out.put(index, (byte) 0);
+                        out.putShort(index + 1, Short.reverseBytes(samples[i]));
+                    }
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    putFloat(out, offset + 4 * i, samples[i] * SCALE_16, littleEndian);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Writes floating point samples in another format. Integer samples are rounded and clamped to their
+     * range, floating point samples are written as they are, so they keep values exceeding full scale.
+     *
+     * @param samples source array
+     * @param count   number of samples
+     * @param format  format of samples in the buffer
+     * @param out     destination buffer, large enough for all samples
+     * @param offset  offset of the first sample in the buffer
+     */
+    public static void fromFloat(float[] samples, int count, SampleFormat format, ByteBuffer out, int offset) {
+        boolean littleEndian = out.order() == ByteOrder.LITTLE_ENDIAN;
+        switch (format) {
+            case PCM_8:
+                for (int i = 0; i < count; i++) {
+                    out.put(offset + i, (byte) (quantize(samples[i], 128, 127) + 128));
+                }
+                break;
+            case PCM_16:
+                if (littleEndian) {
+                    for (int i = 0; i < count; i++) {
+                        out.putShort(offset + 2 * i, (short) quantize(samples[i], 32768, 32767));
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        out.putShort(offset + 2 * i, Short.reverseBytes((short) quantize(samples[i], 32768, 32767)));
+                    }
+                }
+                break;
+            case PCM_24:
+                for (int i = 0, index = offset; i < count; i++, index += 3) {
+                    int sample = quantize(samples[i], 8388608, 8388607);
+                    out.put(index, (byte) sample);
+                    out.put(index + 1, (byte) (sample >> 8));
+                    out.put(index + 2, (byte) (sample >> 16));
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    putFloat(out, offset + 4 * i, samples[i], littleEndian);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Scales sample to integer, rounding half away from zero, and clamps it to the range of integer samples.
+     */
+    private static int quantize(float sample, float scale, int max) {
+        float scaled = sample * scale;
+        int value = (int) (scaled + (scaled >= 0 ? 0.5f : -0.5f));
+        return value > max ? max : value < -max - 1 ? -max - 1 : value;
+    }
+
+    private static float getFloat(ByteBuffer pcm, int index, boolean littleEndian) {
+        return littleEndian ? pcm.getFloat(index) : Float.intBitsToFloat(Integer.reverseBytes(pcm.getInt(index)));
+    }
+
+    private static void putFloat(ByteBuffer out, int index, float sample, boolean littleEndian) {
+        if (littleEndian) {
+            out.putFloat(index, sample);
+        } else {
+            out.putInt(index, Integer.reverseBytes(Float.floatToRawIntBits(sample)));
+        }
+    }
+}
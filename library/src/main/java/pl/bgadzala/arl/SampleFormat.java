@@ -0,0 +1,67 @@
+package pl.bgadzala.arl;
+
+/**
+ * Encoding of a single sample of linear audio, see {@link WavRecorder#setSampleFormat(SampleFormat)}.
+ */
+public enum SampleFormat {
+    /**
+     * Unsigned 8-bit integer with silence at 128.
+     */
+    PCM_8(8, false),
+    /**
+     * Signed 16-bit little endian integer.
+     */
+    PCM_16(16, false),
+    /**
+     * Signed 24-bit little endian integer.
+     */
+    PCM_24(24, false),
+    /**
+     * 32-bit little endian IEEE 754 floating point number with full scale between -1 and 1.
+     */
+    FLOAT(32, true);
+
+    private final int mBitsPerSample;
+    private final boolean mFloat;
+
+    SampleFormat(int bitsPerSample, boolean floatingPoint) {
+        mBitsPerSample = bitsPerSample;
+        mFloat = floatingPoint;
+    }
+
+    /**
+     * @return number of bits of a single sample
+     */
+    public int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    /**
+     * @return number of bytes of a single sample
+     */
+    public int getBytesPerSample() {
+        return mBitsPerSample / 8;
+    }
+
+    /**
+     * @return <code>true</code> for floating point samples
+     */
+    public boolean isFloat() {
+        return mFloat;
+    }
+
+    /**
+     * Gets format of integer samples read from sources.
+     *
+     * @param bitsPerSample 8 or 16
+     * @return format of samples
+     */
+    public static SampleFormat forBitsPerSample(int bitsPerSample) {
+        if (bitsPerSample == 8) {
+            return PCM_8;
+        } else if (bitsPerSample == 16) {
+            return PCM_16;
+        }
+        throw new IllegalArgumentException("Unsupported bits per sample [" + bitsPerSample + "]");
+    }
+}
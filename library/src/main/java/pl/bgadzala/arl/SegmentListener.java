@@ -0,0 +1,26 @@
+package pl.bgadzala.arl;
+
+/**
+ * Supplies output streams of a segmented recording and receives sealed segments,
+ * see {@link AbstractRecorder#setSegmentation(long, long, SegmentListener)}.
+ */
+public interface SegmentListener {
+
+    /**
+     * Supplies stream for the next segment. Invoked by the writer thread when the current segment is full,
+     * so it should return quickly.
+     *
+     * @param segment index of the next segment, the first segment (index 0) is the stream passed to the recorder
+     * @return output stream of the segment
+     */
+    AudioStream onNextSegment(int segment);
+
+    /**
+     * Invoked when a segment is complete - its header is updated and its stream is closed. Segments are
+     * sealed in order by a background thread while the recorder writes the following segments.
+     *
+     * @param segment index of the segment
+     * @param out     closed output stream of the segment
+     */
+    void onSegmentSealed(int segment, AudioStream out);
+}
@@ -0,0 +1,179 @@
+package pl.bgadzala.arl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PCM source generating a sine tone of fixed frequency and amplitude in all channels. Output is
+ * deterministic and not real time, so it is suitable for exercising recorders without a device.
+ */
+public class SignalPcmSource implements PcmSource {
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mBitsPerSample;
+    /**
+     * One second of generated samples in range of a 16-bit sample. Integer frequencies repeat every second.
+     */
+    private final short[] mPeriod;
+    /**
+     * Number of frames to generate or negative value for endless signal.
+     */
+    private final long mFrameCount;
+    /**
+     * Number of generated frames.
+     */
+    private long mFrame;
+
+    /**
+     * @param sampleRate     sample rate in Hz
+     * @param channelCount   number of channels
+     * @param bitsPerSample  number of bits of a single sample, 8 or 16
+     * @param frequencyHz    frequency of the tone in Hz
+     * @param amplitude      amplitude of the tone between 0 and 1
+     * @param durationMillis duration of the signal or 0 for endless signal
+     */
+    public SignalPcmSource(int sampleRate, int channelCount, int bitsPerSample, int frequencyHz, double amplitude,
+                           long durationMillis) {
+        if (bitsPerSample != 8 && bitsPerSample != 16) {
+            throw new IllegalArgumentException("Only 8 and 16 bit PCM is supported but was [" + bitsPerSample + "]");
+        } else if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid sample rate [%d] or channel count [%d]",
+                    sampleRate, channelCount));
+        }
+
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBitsPerSample = bitsPerSample;
+        mFrameCount = durationMillis > 0 ? durationMillis * sampleRate / 1000 : -1;
+        mPeriod = new short[sampleRate];
+        double scale = Math.max(0, Math.min(1, amplitude)) * Short.MAX_VALUE;
+        for (int i = 0; i < sampleRate; i++) {
+            mPeriod[i] = (short) Math.round(scale * Math.sin(2 * Math.PI * frequencyHz * i / sampleRate));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMinBufferSize() {
+        return mSampleRate / 50 * getFrameSize();
+    }
+
+    /**
+     * @return always <code>false</code>
+     */
+    @Override
+    public boolean isRealTime() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start() {
+        // nothing to start
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int size) {
+        int frames = getFramesToRead(size);
+        if (frames == 0) {
+            return END_OF_STREAM;
+        }
+        int index = offset;
+        for (int i = 0; i < frames; i++) {
+            short sample = mPeriod[(int) (mFrame++ % mSampleRate)];
+            for (int channel = 0; channel < mChannelCount; channel++) {
+                if (mBitsPerSample == 16) {
+                    buffer[index++] = (byte) sample;
+                    buffer[index++] = (byte) (sample >> 8);
+                } else {
+                    buffer[index++] = (byte) ((sample >> 8) + 128);
+                }
+            }
+        }
+        return index - offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(ByteBuffer buffer, int size) {
+        int frames = getFramesToRead(size);
+        if (frames == 0) {
+            return END_OF_STREAM;
+        }
+        buffer.clear();
+        int index = 0;
+        for (int i = 0; i < frames; i++) {
+            short sample = mPeriod[(int) (mFrame++ % mSampleRate)];
+            for (int channel = 0; channel < mChannelCount; channel++) {
+                if (mBitsPerSample == 16) {
+                    buffer.put(index++, (byte) sample);
+                    buffer.put(index++, (byte) (sample >> 8));
+                } else {
+                    buffer.put(index++, (byte) ((sample >> 8) + 128));
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() {
+        // nothing to stop
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release() {
+        // nothing to release
+    }
+
+    private int getFrameSize() {
+        return mChannelCount * mBitsPerSample / 8;
+    }
+
+    private int getFramesToRead(int size) {
+        long frames = size / getFrameSize();
+        if (mFrameCount >= 0) {
+            frames = Math.min(frames, mFrameCount - mFrame);
+        }
+        return (int) Math.max(0, frames);
+    }
+}
@@ -0,0 +1,120 @@
+package pl.bgadzala.arl;
+
+/**
+ * Spectrum of a single analysis frame - magnitude of every frequency bin and energy of every mel band.
+ * Magnitudes are relative to full scale, so a full scale sine wave centered in a bin has magnitude 1.
+ * Instances are reusable, see {@link SpectrumAnalyzer#getSpectrum(Spectrum)}.
+ */
+public class Spectrum {
+
+    private final float[] mMagnitudes;
+    private final float[] mBandEnergies;
+    private final float mBinWidth;
+    /**
+     * Number of the frame, 0 if no frame has been analyzed yet.
+     */
+    private long mFrame;
+    private long mCaptureFrame;
+
+    /**
+     * @param binCount  number of frequency bins, see {@link SpectrumAnalyzer#getBinCount()}
+     * @param bandCount number of mel bands, see {@link SpectrumAnalyzer#getBandCount()}
+     * @param binWidth  width of a frequency bin in Hz, see {@link SpectrumAnalyzer#getBinWidth()}
+     */
+    public Spectrum(int binCount, int bandCount, float binWidth) {
+        mMagnitudes = new float[binCount];
+        mBandEnergies = new float[bandCount];
+        mBinWidth = binWidth;
+    }
+
+    /**
+     * @return number of frequency bins, from 0 Hz to half of the sample rate
+     */
+    public int getBinCount() {
+        return mMagnitudes.length;
+    }
+
+    /**
+     * @param bin index of the bin
+     * @return magnitude relative to full scale
+     */
+    public float getMagnitude(int bin) {
+        return mMagnitudes[bin];
+    }
+
+    /**
+     * @param bin index of the bin
+     * @return center frequency of the bin in Hz
+     */
+    public float getFrequency(int bin) {
+        return bin * mBinWidth;
+    }
+
+    /**
+     * @return number of mel bands
+     */
+    public int getBandCount() {
+        return mBandEnergies.length;
+    }
+
+    /**
+     * @param band index of the band
+     * @return sum of squared magnitudes of bins weighted by the triangular filter of the band
+     */
+    public float getBandEnergy(int band) {
+        return mBandEnergies[band];
+    }
+
+    /**
+     * Estimates frequency of the strongest tone by parabolic interpolation around the strongest bin.
+     *
+     * @return frequency in Hz, 0 for silence
+     */
+    public float getPeakFrequency() {
+        int peak = 0;
+        for (int bin = 1; bin < mMagnitudes.length; bin++) {
+            if (mMagnitudes[bin] > mMagnitudes[peak]) {
+                peak = bin;
+            }
+        }
+        if (peak == 0 || peak == mMagnitudes.length - 1) {
+            return peak * mBinWidth;
+        }
+        float left = mMagnitudes[peak - 1];
+        float center = mMagnitudes[peak];
+        float right = mMagnitudes[peak + 1];
+        float denominator = left - 2 * center + right;
+        float offset = denominator == 0 ? 0 : 0.5f * (left - right) / denominator;
+        return (peak + offset) * mBinWidth;
+    }
+
+    /**
+     * Gets number of the frame which increases with every analyzed frame. Could be used to check
+     * whether spectrum has changed since the last poll.
+     *
+     * @return number of the frame, 0 if no frame has been analyzed yet
+     */
+    public long getFrame() {
+        return mFrame;
+    }
+
+    /**
+     * @return index of the first captured frame of audio analyzed in the frame, counted from the start of capture
+     */
+    public long getCaptureFrame() {
+        return mCaptureFrame;
+    }
+
+    float[] getMagnitudes() {
+        return mMagnitudes;
+    }
+
+    float[] getBandEnergies() {
+        return mBandEnergies;
+    }
+
+    void setFrame(long frame, long captureFrame) {
+        mFrame = frame;
+        mCaptureFrame = captureFrame;
+    }
+}
@@ -0,0 +1,486 @@
+package pl.bgadzala.arl;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes spectra of PCM data in overlapping frames - channels are averaged, every frame of
+ * {@link #getFftSize()} samples is windowed and transformed by a real FFT, and a new frame starts
+ * every {@link #getHopSize()} samples. Magnitudes of frequency bins and energies of mel bands are
+ * published for polling, see {@link #getSpectrum(Spectrum)}, and passed to an optional {@link SpectrumListener}.
+ * <p/>
+ * Window, twiddle factors, bit reversal and mel filters are computed by the constructor, so analysis
+ * allocates nothing. A real frame of N samples is transformed as a complex FFT of N/2 points, which is
+ * then split into the N/2 + 1 bins of the real spectrum. Spectra are published with a sequence lock,
+ * like levels of {@link LevelMeter}.
+ */
+public class SpectrumAnalyzer {
+
+    /**
+     * Window applied to every frame before the transform.
+     */
+    public enum Window {
+        /**
+         * No window, the best frequency resolution but the most leakage.
+         */
+        RECTANGULAR,
+        /**
+         * Hann window, a good default for spectrograms.
+         */
+        HANN,
+        /**
+         * Hamming window, narrower main lobe than Hann but slowly decaying side lobes.
+         */
+        HAMMING,
+        /**
+         * Blackman window, the lowest leakage but the widest main lobe.
+         */
+        BLACKMAN
+    }
+
+    private final int mChannelCount;
+    private final int mBitsPerSample;
+    private final int mSampleRate;
+    private final int mFftSize;
+    private final int mHopSize;
+    private final Window mWindow;
+
+    // analysis state owned by the analyzing thread
+    /**
+     * The last {@link #mFftSize} samples, averaged over channels, written circularly.
+     */
+    private final float[] mInput;
+    private int mInputPosition;
+    /**
+     * Number of valid samples in the input and number of samples since the previous frame.
+     */
+    private int mFilled;
+    private int mSinceFrame;
+    /**
+     * Capture frame of the next sample.
+     */
+    private long mNextCaptureFrame;
+    private long mFrame;
+
+    // tables computed by the constructor
+    private final float[] mWindowTable;
+    /**
+     * Converts magnitude of a transformed frame to magnitude relative to full scale.
+     */
+    private final float mScale;
+    private final int[] mBitReverse;
+    /**
+     * Twiddle factors of the complex FFT of N/2 points.
+     */
+    private final float[] mCos;
+    private final float[] mSin;
+    /**
+     * Twiddle factors splitting the complex FFT into the real spectrum.
+     */
+    private final float[] mSplitCos;
+    private final float[] mSplitSin;
+    private final float[] mReal;
+    private final float[] mImaginary;
+    /**
+     * First bin and weights of the triangular filter of every mel band.
+     */
+    private final int[] mBandStart;
+    private final float[][] mBandWeights;
+    private final float[] mBandCenters;
+
+    private final Spectrum mSpectrum;
+    /**
+     * Sequence of published spectra, odd while a spectrum is being published.
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+    /**
+     * Published magnitudes and band energies as float bits.
+     */
+    private final AtomicIntegerArray mPublished;
+    private final AtomicLong mPublishedCaptureFrame = new AtomicLong();
+    private volatile SpectrumListener mListener;
+
+    /**
+     * @param channelCount  number of interleaved channels
+     * @param bitsPerSample number of bits of a single sample before conversion, 8 or 16
+     * @param sampleRate    sample rate in Hz
+     * @param fftSize       number of samples of a frame, a power of two
+     * @param hopSize       number of samples between starts of consecutive frames, frames overlap when
+     *                      it is smaller than FFT size
+     * @param window        window applied to every frame
+     * @param bandCount     number of mel bands, 0 to compute only magnitudes
+     */
+    public SpectrumAnalyzer(int channelCount, int bitsPerSample, int sampleRate, int fftSize, int hopSize,
+                            Window window, int bandCount) {
+        if (bitsPerSample != 8 && bitsPerSample != 16) {
+            throw new IllegalArgumentException("Only 8 and 16 bit PCM is supported but was [" + bitsPerSample + "]");
+        } else if (fftSize < 4 || Integer.bitCount(fftSize) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two of at least 4 but was [" + fftSize + "]");
+        } else if (hopSize <= 0) {
+            throw new IllegalArgumentException("Hop size must be positive but was [" + hopSize + "]");
+        } else if (window == null) {
+            throw new NullPointerException("Window is mandatory");
+        } else if (bandCount < 0) {
+            throw new IllegalArgumentException("Band count must not be negative but was [" + bandCount + "]");
+        }
+
+        mChannelCount = channelCount;
+        mBitsPerSample = bitsPerSample;
+        mSampleRate = sampleRate;
+        mFftSize = fftSize;
+        mHopSize = hopSize;
+        mWindow = window;
+        mInput = new float[fftSize];
+
+        mWindowTable = new float[fftSize];
+        double sum = 0;
+        for (int n = 0; n < fftSize; n++) {
+            double phase = 2 * Math.PI * n / fftSize;
+            double value;
+            switch (window) {
+                case HANN:
+                    value = 0.5 - 0.5 * Math.cos(phase);
+                    break;
+                case HAMMING:
+                    value = 0.54 - 0.46 * Math.cos(phase);
+                    break;
+                case BLACKMAN:
+                    value = 0.42 - 0.5 * Math.cos(phase) + 0.08 * Math.cos(2 * phase);
+                    break;
+                default:
+                    value = 1;
+                    break;
+            }
+            mWindowTable[n] = (float) value;
+            sum += value;
+        }
+        mScale = (float) (2 / sum);
+
+        int half = fftSize / 2;
+        int bits = Integer.numberOfTrailingZeros(half);
+        mBitReverse = new int[half];
+        for (int i = 0; i < half; i++) {
+            mBitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        mCos = new float[Math.max(1, half / 2)];
+        mSin = new float[mCos.length];
+        for (int j = 0; j < mCos.length; j++) {
+            mCos[j] = (float) Math.cos(2 * Math.PI * j / half);
+            mSin[j] = (float) -Math.sin(2 * Math.PI * j / half);
+        }
+        mSplitCos = new float[half + 1];
+        mSplitSin = new float[half + 1];
+        for (int k = 0; k <= half; k++) {
+            mSplitCos[k] = (float) Math.cos(2 * Math.PI * k / fftSize);
+            mSplitSin[k] = (float) -Math.sin(2 * Math.PI * k / fftSize);
+        }
+        mReal = new float[half];
+        mImaginary = new float[half];
+
+        mBandStart = new int[bandCount];
+        mBandWeights = new float[bandCount][];
+        mBandCenters = new float[bandCount];
+        createMelFilters(bandCount);
+
+        mSpectrum = createSpectrum();
+        mPublished = new AtomicIntegerArray(half + 1 + bandCount);
+    }
+
+    /**
+     * @return number of interleaved channels
+     */
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * @return number of bits of a single sample
+     */
+    public int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    /**
+     * @return sample rate in Hz
+     */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @return number of samples of a frame
+     */
+    public int getFftSize() {
+        return mFftSize;
+    }
+
+    /**
+     * @return number of samples between starts of consecutive frames
+     */
+    public int getHopSize() {
+        return mHopSize;
+    }
+
+    /**
+     * @return window applied to every frame
+     */
+    public Window getWindow() {
+        return mWindow;
+    }
+
+    /**
+     * @return number of frequency bins, from 0 Hz to half of the sample rate
+     */
+    public int getBinCount() {
+        return mFftSize / 2 + 1;
+    }
+
+    /**
+     * @return width of a frequency bin in Hz
+     */
+    public float getBinWidth() {
+        return (float) mSampleRate / mFftSize;
+    }
+
+    /**
+     * @return number of mel bands
+     */
+    public int getBandCount() {
+        return mBandStart.length;
+    }
+
+    /**
+     * @param band index of the band
+     * @return frequency in Hz where the filter of the band has its peak
+     */
+    public float getBandCenterFrequency(int band) {
+        return mBandCenters[band];
+    }
+
+    /**
+     * @return spectrum with the size of spectra computed by this analyzer
+     */
+    public Spectrum createSpectrum() {
+        return new Spectrum(getBinCount(), getBandCount(), getBinWidth());
+    }
+
+    /**
+     * @param listener listener receiving every computed spectrum or <code>null</code>
+     */
+    public void setListener(SpectrumListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return listener receiving every computed spectrum or <code>null</code>
+     */
+    public SpectrumListener getListener() {
+        return mListener;
+    }
+
+    /**
+     * Analyzes PCM data which follows the previously analyzed data. May be called only by a single thread.
+     *
+     * @param samples     interleaved samples converted to 16 bits, see {@link SampleConverter#toShort}
+     * @param sampleCount number of samples
+     */
+    public void process(short[] samples, int sampleCount) {
+        process(samples, sampleCount, mNextCaptureFrame);
+    }
+
+    /**
+     * Analyzes PCM data. Frames do not span a gap in capture - when data does not follow the previously
+     * analyzed data, the next frame starts with this data. May be called only by a single thread.
+     *
+     * @param samples      interleaved samples converted to 16 bits, see {@link SampleConverter#toShort}
+     * @param sampleCount  number of samples
+     * @param captureFrame index of the first frame of the data, counted from the start of capture
+     */
+    public void process(short[] samples, int sampleCount, long captureFrame) {
+        if (captureFrame != mNextCaptureFrame) {
+            mFilled = 0;
+            mSinceFrame = 0;
+            mNextCaptureFrame = captureFrame;
+        }
+
+        int frames = sampleCount / mChannelCount;
+        float scale = 1f / (mChannelCount * 32768f);
+        int mask = mFftSize - 1;
+        for (int frame = 0, index = 0; frame < frames; frame++) {
+            int sum = 0;
+            for (int channel = 0; channel < mChannelCount; channel++, index++) {
+                sum += samples[index];
+            }
+            mInput[mInputPosition] = sum * scale;
+            mInputPosition = (mInputPosition + 1) & mask;
+            mNextCaptureFrame++;
+            if (mFilled < mFftSize) {
+                mFilled++;
+            }
+            if (++mSinceFrame >= mHopSize && mFilled == mFftSize) {
+                analyze();
+                mSinceFrame = 0;
+            }
+        }
+    }
+
+    /**
+     * Copies the most recently published spectrum. Never blocks the analyzing thread.
+     *
+     * @param spectrum destination spectrum with the size of spectra computed by this analyzer
+     * @return destination spectrum
+     */
+    public Spectrum getSpectrum(Spectrum spectrum) {
+        float[] magnitudes = spectrum.getMagnitudes();
+        float[] bandEnergies = spectrum.getBandEnergies();
+        if (magnitudes.length != getBinCount() || bandEnergies.length != getBandCount()) {
+            throw new IllegalArgumentException(String.format("Expected spectrum of [%d] bins and [%d] bands but got [%d] and [%d]",
+                    getBinCount(), getBandCount(), magnitudes.length, bandEnergies.length));
+        }
+
+        long sequence;
+        long captureFrame;
+        do {
+            sequence = mSequence.get();
+            while ((sequence & 1) != 0) {
+                Thread.yield();
+                sequence = mSequence.get();
+            }
+            for (int bin = 0; bin < magnitudes.length; bin++) {
+                magnitudes[bin] = Float.intBitsToFloat(mPublished.get(bin));
+            }
+            for (int band = 0; band < bandEnergies.length; band++) {
+                bandEnergies[band] = Float.intBitsToFloat(mPublished.get(magnitudes.length + band));
+            }
+            captureFrame = mPublishedCaptureFrame.get();
+        } while (mSequence.get() != sequence);
+        spectrum.setFrame(sequence / 2, captureFrame);
+        return spectrum;
+    }
+
+    /**
+     * Transforms the last {@link #mFftSize} samples and publishes the spectrum.
+     */
+    private void analyze() {
+        int half = mFftSize / 2;
+        int mask = mFftSize - 1;
+        float[] re = mReal;
+        float[] im = mImaginary;
+        // even samples are real and odd samples imaginary parts of the complex input, in bit reversed order
+        for (int n = 0, index = mInputPosition; n < half; n++, index = (index + 2) & mask) {
+            int reversed = mBitReverse[n];
+            re[reversed] = mInput[index] * mWindowTable[2 * n];
+            im[reversed] = mInput[(index + 1) & mask] * mWindowTable[2 * n + 1];
+        }
+
+        for (int size = 2; size <= half; size <<= 1) {
+            int step = half / size;
+            int middle = size / 2;
+            for (int start = 0; start < half; start += size) {
+                for (int j = 0, twiddle = 0; j < middle; j++, twiddle += step) {
+                    float wr = mCos[twiddle];
+                    float wi = mSin[twiddle];
+                    int a = start + j;
+                    int b = a + middle;
+                    float tr = wr * re[b] - wi * im[b];
+                    float ti = wr * im[b] + wi * re[b];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+
+        float[] magnitudes = mSpectrum.getMagnitudes();
+        for (int k = 0; k <= half; k++) {
+            int i = k == half ? 0 : k;
+            int j = k == 0 ? 0 : half - k;
+            float evenRe = (re[i] + re[j]) * 0.5f;
+            float evenIm = (im[i] - im[j]) * 0.5f;
+            float oddRe = (im[i] + im[j]) * 0.5f;
+            float oddIm = (re[j] - re[i]) * 0.5f;
+            float c = mSplitCos[k];
+            float s = mSplitSin[k];
+            float xr = evenRe + c * oddRe - s * oddIm;
+            float xi = evenIm + c * oddIm + s * oddRe;
+            float magnitude = (float) Math.sqrt(xr * xr + xi * xi) * mScale;
+            magnitudes[k] = k == 0 || k == half ? magnitude * 0.5f : magnitude;
+        }
+
+        float[] bandEnergies = mSpectrum.getBandEnergies();
+        for (int band = 0; band < bandEnergies.length; band++) {
+            float[] weights = mBandWeights[band];
+            int start = mBandStart[band];
+            float energy = 0;
+            for (int i = 0; i < weights.length; i++) {
+                float magnitude = magnitudes[start + i];
+                energy += weights[i] * magnitude * magnitude;
+            }
+            bandEnergies[band] = energy;
+        }
+
+        long captureFrame = mNextCaptureFrame - mFftSize;
+        mFrame++;
+        mSpectrum.setFrame(mFrame, captureFrame);
+        publish(magnitudes, bandEnergies, captureFrame);
+        SpectrumListener listener = mListener;
+        if (listener != null) {
+            listener.onSpectrum(mSpectrum);
+        }
+    }
+
+    private void publish(float[] magnitudes, float[] bandEnergies, long captureFrame) {
+        mSequence.incrementAndGet();
+        for (int bin = 0; bin < magnitudes.length; bin++) {
+            mPublished.set(bin, Float.floatToIntBits(magnitudes[bin]));
+        }
+        for (int band = 0; band < bandEnergies.length; band++) {
+            mPublished.set(magnitudes.length + band, Float.floatToIntBits(bandEnergies[band]));
+        }
+        mPublishedCaptureFrame.set(captureFrame);
+        mSequence.incrementAndGet();
+    }
+
+    /**
+     * Creates triangular filters spaced evenly on the mel scale between 0 Hz and half of the sample rate.
+     * Band too narrow to contain a bin uses the bin nearest to its center.
+     */
+    private void createMelFilters(int bandCount) {
+        double maxMel = toMel(mSampleRate / 2.0);
+        double binWidth = (double) mSampleRate / mFftSize;
+        int lastBin = mFftSize / 2;
+        for (int band = 0; band < bandCount; band++) {
+            double low = toHertz(maxMel * band / (bandCount + 1));
+            double center = toHertz(maxMel * (band + 1) / (bandCount + 1));
+            double high = toHertz(maxMel * (band + 2) / (bandCount + 1));
+            mBandCenters[band] = (float) center;
+
+            int first = (int) Math.floor(low / binWidth) + 1;
+            int last = Math.min(lastBin, (int) Math.ceil(high / binWidth) - 1);
+            if (first > last) {
+                mBandStart[band] = (int) Math.min(lastBin, Math.round(center / binWidth));
+                mBandWeights[band] = new float[]{1};
+                continue;
+            }
+            float[] weights = new float[last - first + 1];
+            for (int bin = first; bin <= last; bin++) {
+                double frequency = bin * binWidth;
+                double weight = frequency <= center
+                        ? (frequency - low) / (center - low)
+                        : (high - frequency) / (high - center);
+                weights[bin - first] = (float) Math.max(0, weight);
+            }
+            mBandStart[band] = first;
+            mBandWeights[band] = weights;
+        }
+    }
+
+    private static double toMel(double hertz) {
+        return 2595 * Math.log10(1 + hertz / 700);
+    }
+
+    private static double toHertz(double mel) {
+        return 700 * (Math.pow(10, mel / 2595) - 1);
+    }
+}
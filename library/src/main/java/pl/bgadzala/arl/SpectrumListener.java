@@ -0,0 +1,15 @@
+package pl.bgadzala.arl;
+
+/**
+ * Receives every spectrum computed by a {@link SpectrumAnalyzer}, e.g. to draw a spectrogram.
+ */
+public interface SpectrumListener {
+
+    /**
+     * Invoked by the analyzing thread, which is the capture thread for analyzers set to a recorder, so it must
+     * return quickly and must not block. Spectrum is reused for the next frame and must not be kept.
+     *
+     * @param spectrum spectrum of the frame
+     */
+    void onSpectrum(Spectrum spectrum);
+}
@@ -0,0 +1,234 @@
+package pl.bgadzala.arl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bounded queue of PCM reads kept in a direct buffer or in a temporary file. Holds captured audio which
+ * does not fit into the queue of chunks until chunks are free again, see {@link AbstractRecorder.Backpressure#SPILL}.
+ * Every entry keeps the capture frame of the read, so audio keeps its timing when it is moved to a chunk.
+ * <p/>
+ * Not thread safe, but could be handed over between threads with a happens-before relation.
+ */
+public class SpillBuffer {
+
+    /**
+     * Size of an entry header - capture frame and size of the read.
+     */
+    static final int HEADER_SIZE = 12;
+
+    /**
+     * Entries stored in memory or <code>null</code> if they are stored in a file.
+     */
+    private final ByteBuffer mMemory;
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final long mCapacity;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * Array most recently passed to {@link #offer(long, byte[], int)} and its wrapping buffer.
+     */
+    private byte[] mArray;
+    private ByteBuffer mArrayBuffer;
+    /**
+     * Positions of the oldest entry and of the next entry as numbers of bytes ever stored.
+     */
+    private long mHead;
+    private long mTail;
+    private int mEntryCount;
+
+    /**
+     * Creates buffer in memory outside of the Java heap.
+     *
+     * @param capacity capacity in bytes including headers of entries
+     */
+    public SpillBuffer(int capacity) {
+        checkCapacity(capacity);
+        mMemory = ByteBuffer.allocateDirect(capacity);
+        mFile = null;
+        mRandomAccessFile = null;
+        mChannel = null;
+        mCapacity = capacity;
+    }
+
+    /**
+     * Creates buffer in a temporary file, which is deleted by {@link #close()}.
+     *
+     * @param capacity  capacity in bytes including headers of entries
+     * @param directory directory of the temporary file
+     */
+    public SpillBuffer(long capacity, File directory) {
+        checkCapacity(capacity);
+        mMemory = null;
+        mCapacity = capacity;
+        try {
+            mFile = File.createTempFile("spill", ".pcm", directory);
+            mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot create spill file in [" + directory + "]", ex);
+        }
+        mChannel = mRandomAccessFile.getChannel();
+    }
+
+    private static void checkCapacity(long capacity) {
+        if (capacity <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Capacity must be larger than header but was [" + capacity + "]");
+        }
+    }
+
+    /**
+     * @return capacity in bytes including headers of entries
+     */
+    public long getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return number of stored bytes including headers of entries
+     */
+    public long getSize() {
+        return mTail - mHead;
+    }
+
+    /**
+     * @return <code>true</code> if no read is stored
+     */
+    public boolean isEmpty() {
+        return mEntryCount == 0;
+    }
+
+    /**
+     * Stores a read unless there is not enough space left.
+     *
+     * @param captureFrame capture frame of the read
+     * @param data         PCM data
+     * @param size         number of bytes
+     * @return <code>false</code> if the read does not fit
+     */
+    public boolean offer(long captureFrame, byte[] data, int size) {
+        if (mCapacity - getSize() < HEADER_SIZE + size) {
+            return false;
+        }
+        if (mArray != data) {
+            mArray = data;
+            mArrayBuffer = ByteBuffer.wrap(data);
+        }
+        mHeader.clear();
+        mHeader.putLong(captureFrame).putInt(size).flip();
+        put(mHeader);
+        mArrayBuffer.limit(size).position(0);
+        put(mArrayBuffer);
+        mEntryCount++;
+        return true;
+    }
+
+    /**
+     * Moves the oldest read to a chunk, setting its size and capture frame. Chunk must be large
+     * enough to hold every stored read.
+     *
+     * @param chunk destination chunk
+     * @return <code>false</code> if no read is stored
+     */
+    public boolean poll(PcmChunk chunk) {
+        if (mEntryCount == 0) {
+            return false;
+        }
+        mHeader.clear();
+        get(mHeader);
+        long captureFrame = mHeader.getLong(0);
+        int size = mHeader.getInt(8);
+        ByteBuffer buffer = chunk.getBuffer();
+        buffer.clear();
+        buffer.limit(size);
+        get(buffer);
+        chunk.setSize(size);
+        chunk.setCaptureFrame(captureFrame);
+        mEntryCount--;
+        return true;
+    }
+
+    /**
+     * Removes all stored reads.
+     */
+    public void clear() {
+        mHead = mTail;
+        mEntryCount = 0;
+    }
+
+    /**
+     * Releases the file, if any, and deletes it.
+     */
+    public void close() {
+        clear();
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException ex) {
+                throw new RuntimeException("Cannot close spill file [" + mFile + "]", ex);
+            } finally {
+                mFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Appends remaining bytes of the source, wrapping at the end of the storage.
+     */
+    private void put(ByteBuffer source) {
+        while (source.hasRemaining()) {
+            long position = mTail % mCapacity;
+            int size = (int) Math.min(source.remaining(), mCapacity - position);
+            int limit = source.limit();
+            source.limit(source.position() + size);
+            if (mMemory != null) {
+                mMemory.limit((int) position + size).position((int) position);
+                mMemory.put(source);
+            } else {
+                try {
+                    while (source.hasRemaining()) {
+                        mChannel.write(source, position + size - source.remaining());
+                    }
+                } catch (IOException ex) {
+                    throw new RuntimeException("Cannot write spill file [" + mFile + "]", ex);
+                }
+            }
+            source.limit(limit);
+            mTail += size;
+        }
+    }
+
+    /**
+     * Removes bytes from the head until the destination is full.
+     */
+    private void get(ByteBuffer destination) {
+        while (destination.hasRemaining()) {
+            long position = mHead % mCapacity;
+            int size = (int) Math.min(destination.remaining(), mCapacity - position);
+            if (mMemory != null) {
+                mMemory.limit((int) position + size).position((int) position);
+                destination.put(mMemory);
+            } else {
+                int limit = destination.limit();
+                destination.limit(destination.position() + size);
+                try {
+                    while (destination.hasRemaining()) {
+                        int read = mChannel.read(destination, position + size - destination.remaining());
+                        if (read < 0) {
+                            throw new RuntimeException("Unexpected end of spill file [" + mFile + "]");
+                        }
+                    }
+                } catch (IOException ex) {
+                    throw new RuntimeException("Cannot read spill file [" + mFile + "]", ex);
+                } finally {
+                    destination.limit(limit);
+                }
+            }
+            mHead += size;
+        }
+    }
+}
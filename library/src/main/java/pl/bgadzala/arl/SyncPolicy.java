@@ -0,0 +1,58 @@
+package pl.bgadzala.arl;
+
+/**
+ * Defines how often recorded audio is forced to the storage device, see {@link AudioStream#sync()}.
+ * Every sync is preceded by a checkpoint, so synced data is described by a valid header. Intervals
+ * are measured in recorded audio, which for real time sources is the same as wall clock time.
+ */
+public final class SyncPolicy {
+
+    /**
+     * Output is never synced, data reaches the storage device when the operating system decides so.
+     */
+    public static final SyncPolicy NEVER = new SyncPolicy(0, 0);
+
+    private final long mBytes;
+    private final long mMillis;
+
+    private SyncPolicy(long bytes, long millis) {
+        mBytes = bytes;
+        mMillis = millis;
+    }
+
+    /**
+     * @param bytes number of recorded PCM bytes between syncs
+     * @return policy syncing output after every specified number of bytes
+     */
+    public static SyncPolicy everyBytes(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Number of bytes must be positive but was [" + bytes + "]");
+        }
+        return new SyncPolicy(bytes, 0);
+    }
+
+    /**
+     * @param millis duration of recorded audio between syncs
+     * @return policy syncing output after every specified duration of audio
+     */
+    public static SyncPolicy everyMillis(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Duration must be positive but was [" + millis + "]");
+        }
+        return new SyncPolicy(0, millis);
+    }
+
+    /**
+     * @return number of recorded PCM bytes between syncs or 0 if not synced by size
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return duration of recorded audio between syncs or 0 if not synced by time
+     */
+    public long getMillis() {
+        return mMillis;
+    }
+}
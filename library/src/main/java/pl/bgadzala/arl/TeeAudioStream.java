@@ -0,0 +1,613 @@
+package pl.bgadzala.arl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audio stream which writes everything to several sinks, e.g. a local file, a network consumer
+ * and a meter at once. Every sink is written by its own thread from its own bounded queue,
+ * so a slow sink delays neither the caller nor the other sinks, see {@link SlowSinkPolicy}.
+ * <p/>
+ * Written data is copied once into a {@link PcmChunk} from a preallocated pool and the same chunk
+ * is shared by all sinks, which release it when it is written. The pool is large enough to fill
+ * the queues of all sinks, so writing never allocates. Small writes (e.g. fields of a header) are
+ * collected in a single chunk until any other operation. Operations could be invoked by a single
+ * thread only.
+ */
+public class TeeAudioStream implements AudioStream {
+
+    /**
+     * Default size of a single chunk in bytes. Larger writes are split into several chunks.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * What happens when a queue of a sink is full.
+     */
+    public enum SlowSinkPolicy {
+        /**
+         * Caller waits until the sink takes an operation, for sinks which must receive all data.
+         */
+        BLOCK,
+        /**
+         * Written audio data ({@link DataType#DATA}) is dropped and counted. If any other operation
+         * (e.g. a header update) does not fit, the sink is detached, see {@link #DETACH}.
+         */
+        DROP,
+        /**
+         * Sink is detached - queued operations are discarded, the sink is closed and receives nothing more.
+         */
+        DETACH
+    }
+
+    /**
+     * Time a waiting thread sleeps before it checks its queue again, even if it is not woken up.
+     */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /**
+     * Writes smaller than this number of bytes are collected in a single chunk.
+     */
+    private static final int SMALL_WRITE_SIZE = 64;
+
+    private static final int OP_DATA_TYPE = 0;
+    private static final int OP_SEEK = 1;
+    private static final int OP_SET_LENGTH = 2;
+    private static final int OP_WRITE = 3;
+    private static final int OP_SYNC = 4;
+    private static final int OP_CLOSE = 5;
+
+    /**
+     * Destination of the tee with its queue and statistics.
+     */
+    public static class Sink implements Runnable {
+
+        private final AudioStream mOut;
+        private final SlowSinkPolicy mPolicy;
+        /**
+         * Queued operations, their arguments and chunks, indexed by sequence number masked by {@link #mMask}.
+         */
+        private final int[] mTypes;
+        private final long[] mArguments;
+        private final PcmChunk[] mChunks;
+        private final int mMask;
+        /**
+         * Sequence number of the next operation to take. Written only by the sink thread.
+         */
+        private final AtomicLong mHead = new AtomicLong();
+        /**
+         * Sequence number of the next operation to queue. Written only by the caller thread.
+         */
+        private final AtomicLong mTail = new AtomicLong();
+        private final AtomicLong mDroppedBytes = new AtomicLong();
+        private Thread mThread;
+        private volatile Thread mCaller;
+        private volatile boolean mWaiting;
+        private volatile boolean mCallerWaiting;
+        private volatile boolean mDetached;
+        /**
+         * <code>true</code> when the tee will not queue any more operations.
+         */
+        private volatile boolean mClosed;
+        private volatile RuntimeException mError;
+
+        /**
+         * @param out      stream written by the sink
+         * @param capacity maximum number of queued operations, rounded up to the nearest power of two
+         * @param policy   what happens when the queue is full
+         */
+        public Sink(AudioStream out, int capacity, SlowSinkPolicy policy) {
+            if (out == null) {
+                throw new NullPointerException("Output stream is mandatory");
+            } else if (policy == null) {
+                throw new NullPointerException("Slow sink policy is mandatory");
+            } else if (capacity <= 0) {
+                throw new IllegalArgumentException("Capacity must be positive but was [" + capacity + "]");
+            }
+
+            int size = Integer.highestOneBit(capacity);
+            if (size < capacity) {
+                size <<= 1;
+            }
+            mOut = out;
+            mPolicy = policy;
+            mTypes = new int[size];
+            mArguments = new long[size];
+            mChunks = new PcmChunk[size];
+            mMask = size - 1;
+        }
+
+        /**
+         * @return stream written by the sink
+         */
+        public AudioStream getStream() {
+            return mOut;
+        }
+
+        /**
+         * @return what happens when the queue is full
+         */
+        public SlowSinkPolicy getPolicy() {
+            return mPolicy;
+        }
+
+        /**
+         * @return maximum number of queued operations
+         */
+        public int getCapacity() {
+            return mTypes.length;
+        }
+
+        /**
+         * @return number of audio bytes dropped because the queue was full
+         */
+        public long getDroppedBytes() {
+            return mDroppedBytes.get();
+        }
+
+        /**
+         * @return <code>true</code> if the sink receives nothing more because it was too slow or it has failed
+         */
+        public boolean isDetached() {
+            return mDetached;
+        }
+
+        /**
+         * @return error which has occurred while writing to the sink or <code>null</code>
+         */
+        public RuntimeException getError() {
+            return mError;
+        }
+
+        /**
+         * Writes queued operations to the stream. Runs in the thread of the sink.
+         */
+        @Override
+        public void run() {
+            boolean streamClosed = false;
+            while (true) {
+                long head = mHead.get();
+                if (mDetached) {
+                    // operation could be queued while the sink is detached, so it is discarded until the tee is closed
+                    boolean closed = mClosed;
+                    discard(head);
+                    if (!streamClosed) {
+                        closeStream();
+                        streamClosed = true;
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                    continue;
+                } else if (head >= mTail.get()) {
+                    mWaiting = true;
+                    if (head >= mTail.get() && !mDetached) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    mWaiting = false;
+                    continue;
+                }
+
+                int index = (int) head & mMask;
+                int type = mTypes[index];
+                PcmChunk chunk = mChunks[index];
+                mChunks[index] = null;
+                try {
+                    apply(type, mArguments[index], chunk);
+                } catch (RuntimeException ex) {
+                    mError = ex;
+                    mDetached = true;
+                } finally {
+                    if (chunk != null) {
+                        chunk.release();
+                    }
+                }
+                mHead.set(head + 1);
+                if (mCallerWaiting) {
+                    LockSupport.unpark(mCaller);
+                }
+                if (type == OP_CLOSE) {
+                    return;
+                }
+            }
+        }
+
+        private void apply(int type, long argument, PcmChunk chunk) {
+            switch (type) {
+                case OP_DATA_TYPE:
+                    mOut.setDataType(DataType.values()[(int) argument]);
+                    break;
+                case OP_SEEK:
+                    mOut.seek(argument);
+                    break;
+                case OP_SET_LENGTH:
+                    mOut.setLength(argument);
+                    break;
+                case OP_WRITE:
+                    mOut.write(chunk.getData(), 0, chunk.getSize());
+                    break;
+                case OP_SYNC:
+                    mOut.sync();
+                    break;
+                default:
+                    mOut.close();
+                    break;
+            }
+        }
+
+        /**
+         * Releases chunks of all queued operations of a detached sink.
+         */
+        private void discard(long head) {
+            long tail = mTail.get();
+            for (; head < tail; head++) {
+                int index = (int) head & mMask;
+                if (mChunks[index] != null) {
+                    mChunks[index].release();
+                    mChunks[index] = null;
+                }
+            }
+            mHead.set(tail);
+            if (mCallerWaiting) {
+                LockSupport.unpark(mCaller);
+            }
+        }
+
+        private void closeStream() {
+            try {
+                mOut.close();
+            } catch (RuntimeException ex) {
+                if (mError == null) {
+                    mError = ex;
+                }
+            }
+        }
+
+        /**
+         * Queues an operation. Invoked by the caller thread.
+         *
+         * @return <code>false</code> if the operation has not been queued
+         */
+        private boolean offer(int type, long argument, PcmChunk chunk, boolean data) {
+            if (mDetached) {
+                return false;
+            }
+            long tail = mTail.get();
+            while (tail - mHead.get() >= mTypes.length) {
+                if (mPolicy == SlowSinkPolicy.BLOCK) {
+                    mCaller = Thread.currentThread();
+                    mCallerWaiting = true;
+                    if (tail - mHead.get() >= mTypes.length && !mDetached) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    mCallerWaiting = false;
+                    if (mDetached) {
+                        return false;
+                    }
+                } else if (mPolicy == SlowSinkPolicy.DROP && data) {
+                    mDroppedBytes.addAndGet(chunk.getSize());
+                    return false;
+                } else {
+                    detach();
+                    return false;
+                }
+            }
+
+            int index = (int) tail & mMask;
+            mTypes[index] = type;
+            mArguments[index] = argument;
+            mChunks[index] = chunk;
+            mTail.set(tail + 1);
+            if (mWaiting) {
+                LockSupport.unpark(mThread);
+            }
+            return true;
+        }
+
+        private void detach() {
+            mDetached = true;
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    private final Sink[] mSinks;
+    /**
+     * All chunks, a chunk is free when it is not referenced.
+     */
+    private final PcmChunk[] mChunks;
+    /**
+     * Index of the chunk checked first when looking for a free chunk.
+     */
+    private int mNextChunk;
+    /**
+     * Chunk collecting small writes or <code>null</code>.
+     */
+    private PcmChunk mPending;
+    /**
+     * Buffer for integers and shorts.
+     */
+    private final byte[] mScratch = new byte[4];
+    private DataType mDataType = DataType.HEADER;
+
+    /**
+     * @param sinks destinations of all written data, every sink could be used by a single tee only
+     */
+    public TeeAudioStream(Sink... sinks) {
+        this(DEFAULT_CHUNK_SIZE, sinks);
+    }
+
+    /**
+     * @param chunkSize size of a single chunk in bytes, at least 64
+     * @param sinks     destinations of all written data, every sink could be used by a single tee only
+     */
+    public TeeAudioStream(int chunkSize, Sink... sinks) {
+        if (sinks.length == 0) {
+            throw new IllegalArgumentException("At least one sink is required");
+        } else if (chunkSize < SMALL_WRITE_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be at least [" + SMALL_WRITE_SIZE + "] but was ["
+                    + chunkSize + "]");
+        }
+
+        int chunkCount = 2; // chunks collecting small writes and being filled
+        for (Sink sink : sinks) {
+            if (sink.mThread != null) {
+                throw new IllegalArgumentException("Sink is already used by another tee");
+            }
+            chunkCount += sink.getCapacity();
+        }
+        mSinks = sinks.clone();
+        mChunks = new PcmChunk[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            mChunks[i] = new PcmChunk(chunkSize);
+        }
+        for (int i = 0; i < mSinks.length; i++) {
+            mSinks[i].mThread = new Thread(mSinks[i], "AudioTeeSink-" + i);
+            mSinks[i].mThread.start();
+        }
+    }
+
+    /**
+     * @return number of sinks
+     */
+    public int getSinkCount() {
+        return mSinks.length;
+    }
+
+    /**
+     * @param index index of the sink
+     * @return sink with its statistics
+     */
+    public Sink getSink(int index) {
+        return mSinks[index];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setDataType(DataType dataType) {
+        checkErrors();
+        flushPending();
+        mDataType = dataType;
+        dispatch(OP_DATA_TYPE, dataType.ordinal(), null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void seek(long position) {
+        checkErrors();
+        flushPending();
+        dispatch(OP_SEEK, position, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLength(long length) {
+        checkErrors();
+        flushPending();
+        dispatch(OP_SET_LENGTH, length, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] data, int offset, int size) {
+        checkErrors();
+        if (size < SMALL_WRITE_SIZE) {
+            writeSmall(data, offset, size);
+            return;
+        }
+        flushPending();
+        while (size > 0) {
+            PcmChunk chunk = acquireChunk();
+            int count = Math.min(size, chunk.getCapacity());
+            System.arraycopy(data, offset, chunk.getData(), 0, count);
+            chunk.setSize(count);
+            dispatch(OP_WRITE, 0, chunk);
+            offset += count;
+            size -= count;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(ByteBuffer data) {
+        checkErrors();
+        if (data.remaining() < SMALL_WRITE_SIZE) {
+            PcmChunk pending = preparePending(data.remaining());
+            int size = pending.getSize();
+            int count = data.remaining();
+            data.get(pending.getData(), size, count);
+            pending.setSize(size + count);
+            return;
+        }
+        flushPending();
+        while (data.hasRemaining()) {
+            PcmChunk chunk = acquireChunk();
+            int count = Math.min(data.remaining(), chunk.getCapacity());
+            data.get(chunk.getData(), 0, count);
+            chunk.setSize(count);
+            dispatch(OP_WRITE, 0, chunk);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int data) {
+        checkErrors();
+        mScratch[0] = (byte) (data >> 24);
+        mScratch[1] = (byte) (data >> 16);
+        mScratch[2] = (byte) (data >> 8);
+        mScratch[3] = (byte) data;
+        writeSmall(mScratch, 0, 4);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(short data) {
+        checkErrors();
+        mScratch[0] = (byte) (data >> 8);
+        mScratch[1] = (byte) data;
+        writeSmall(mScratch, 0, 2);
+    }
+
+    /**
+     * Queues sync of all sinks, it does not wait until data reaches storage devices.
+     */
+    @Override
+    public void sync() {
+        checkErrors();
+        flushPending();
+        dispatch(OP_SYNC, 0, null);
+    }
+
+    /**
+     * Closes all sinks. Waits until all sinks with {@link SlowSinkPolicy#BLOCK} policy are closed,
+     * other sinks are closed in the background.
+     */
+    @Override
+    public void close() {
+        flushPending();
+        dispatch(OP_CLOSE, 0, null);
+        for (Sink sink : mSinks) {
+            sink.mClosed = true;
+            LockSupport.unpark(sink.mThread);
+        }
+        boolean interrupted = false;
+        for (Sink sink : mSinks) {
+            while (sink.mPolicy == SlowSinkPolicy.BLOCK && sink.mThread.isAlive()) {
+                try {
+                    sink.mThread.join();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkErrors();
+    }
+
+    /**
+     * Appends small write to the chunk collecting small writes.
+     */
+    private void writeSmall(byte[] data, int offset, int size) {
+        PcmChunk pending = preparePending(size);
+        System.arraycopy(data, offset, pending.getData(), pending.getSize(), size);
+        pending.setSize(pending.getSize() + size);
+    }
+
+    /**
+     * @param size number of bytes which will be appended
+     * @return chunk collecting small writes with enough space
+     */
+    private PcmChunk preparePending(int size) {
+        if (mPending != null && mPending.getSize() + size > mPending.getCapacity()) {
+            flushPending();
+        }
+        if (mPending == null) {
+            mPending = acquireChunk();
+            mPending.setSize(0);
+        }
+        return mPending;
+    }
+
+    /**
+     * Queues collected small writes.
+     */
+    private void flushPending() {
+        if (mPending != null) {
+            PcmChunk pending = mPending;
+            mPending = null;
+            dispatch(OP_WRITE, 0, pending);
+        }
+    }
+
+    /**
+     * Queues an operation for all attached sinks. Reference of the caller to the chunk is released.
+     */
+    private void dispatch(int type, long argument, PcmChunk chunk) {
+        boolean data = type == OP_WRITE && mDataType == DataType.DATA;
+        if (chunk != null) {
+            chunk.retain(mSinks.length);
+        }
+        for (Sink sink : mSinks) {
+            if (!sink.offer(type, argument, chunk, data) && chunk != null) {
+                chunk.release();
+            }
+        }
+        if (chunk != null) {
+            chunk.release();
+        }
+    }
+
+    /**
+     * Finds a chunk which is not referenced by any sink and references it. There is always such a chunk,
+     * because all queues together hold fewer chunks than the pool.
+     */
+    private PcmChunk acquireChunk() {
+        for (int i = 0; i < mChunks.length; i++) {
+            PcmChunk chunk = mChunks[mNextChunk];
+            mNextChunk = (mNextChunk + 1) % mChunks.length;
+            if (!chunk.isReferenced()) {
+                chunk.retain(1);
+                return chunk;
+            }
+        }
+        throw new IllegalStateException("All chunks are in use");
+    }
+
+    /**
+     * Rethrows errors of sinks which must receive all data.
+     */
+    private void checkErrors() {
+        for (int i = 0; i < mSinks.length; i++) {
+            RuntimeException error = mSinks[i].mError;
+            if (error != null && mSinks[i].mPolicy == SlowSinkPolicy.BLOCK) {
+                throw new RuntimeException("Error while writing to sink [" + i + "]", error);
+            }
+        }
+    }
+}
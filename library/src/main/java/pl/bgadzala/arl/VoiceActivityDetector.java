@@ -0,0 +1,228 @@
+package pl.bgadzala.arl;
+
+/**
+ * Detects voice in PCM buffers by energy and zero-crossing rate. A buffer contains voice if its
+ * RMS level reaches the energy threshold, or if it is at most {@link #FRICATIVE_MARGIN_DB} below
+ * the threshold and its zero-crossing rate reaches the zero-crossing threshold (quiet unvoiced
+ * sounds like "s" or "f"). After the last voiced buffer audio is still reported as voice for
+ * the hangover time, so endings of words and short pauses are kept.
+ * <p/>
+ * Detection reads samples converted to 16 bits sequentially without allocation, see {@link SampleConverter}.
+ * Configuration must not be changed while a recorder using the detector is recording, see
+ * {@link AbstractRecorder#setVoiceActivityDetector}.
+ */
+public class VoiceActivityDetector {
+
+    /**
+     * What happens with silence detected between voice.
+     */
+    public enum SilenceMode {
+        /**
+         * Silence is not written at all.
+         */
+        DROP,
+        /**
+         * Every span of silence is replaced with a short gap of digital silence, see {@link #setMarker(int)}.
+         */
+        MARK
+    }
+
+    /**
+     * Energy margin below the threshold for buffers with high zero-crossing rate.
+     */
+    public static final float FRICATIVE_MARGIN_DB = 10;
+
+    private float mEnergyThreshold = -40;
+    private float mZeroCrossingThreshold = 0.3f;
+    private int mHangoverMillis = 300;
+    private int mPreRollMillis = 200;
+    private int mMarkerMillis = 100;
+    private SilenceMode mSilenceMode = SilenceMode.DROP;
+
+    // state of the current recording
+    private int mChannelCount;
+    private int mSampleRate;
+    /**
+     * Mean square of 16-bit samples at the energy threshold.
+     */
+    private double mEnergyLimit;
+    private double mFricativeEnergyLimit;
+    /**
+     * Number of frames since the last voiced buffer.
+     */
+    private long mSilentFrames;
+    private long mHangoverFrames;
+
+    /**
+     * @param thresholdDb RMS level in dBFS at which audio is considered voice, -40 by default
+     */
+    public void setEnergyThreshold(float thresholdDb) {
+        mEnergyThreshold = thresholdDb;
+    }
+
+    /**
+     * @return RMS level in dBFS at which audio is considered voice
+     */
+    public float getEnergyThreshold() {
+        return mEnergyThreshold;
+    }
+
+    /**
+     * @param rate fraction of consecutive samples of the first channel with different signs, at which
+     *             quiet audio is considered voice, 0.3 by default
+     */
+    public void setZeroCrossingThreshold(float rate) {
+        mZeroCrossingThreshold = rate;
+    }
+
+    /**
+     * @return zero-crossing rate at which quiet audio is considered voice
+     */
+    public float getZeroCrossingThreshold() {
+        return mZeroCrossingThreshold;
+    }
+
+    /**
+     * @param hangoverMillis time after the last voiced buffer, which is still considered voice, 300 ms by default
+     */
+    public void setHangover(int hangoverMillis) {
+        if (hangoverMillis < 0) {
+            throw new IllegalArgumentException("Hangover must not be negative but was [" + hangoverMillis + "]");
+        }
+        mHangoverMillis = hangoverMillis;
+    }
+
+    /**
+     * @return time after the last voiced buffer, which is still considered voice
+     */
+    public int getHangover() {
+        return mHangoverMillis;
+    }
+
+    /**
+     * @param preRollMillis time of silence written before voice, so onsets are not clipped, 200 ms by default
+     */
+    public void setPreRoll(int preRollMillis) {
+        if (preRollMillis < 0) {
+            throw new IllegalArgumentException("Pre-roll must not be negative but was [" + preRollMillis + "]");
+        }
+        mPreRollMillis = preRollMillis;
+    }
+
+    /**
+     * @return time of silence written before voice
+     */
+    public int getPreRoll() {
+        return mPreRollMillis;
+    }
+
+    /**
+     * @param markerMillis duration of digital silence replacing every span of silence in
+     *                     {@link SilenceMode#MARK} mode, 100 ms by default
+     */
+    public void setMarker(int markerMillis) {
+        if (markerMillis <= 0) {
+            throw new IllegalArgumentException("Marker must be positive but was [" + markerMillis + "]");
+        }
+        mMarkerMillis = markerMillis;
+    }
+
+    /**
+     * @return duration of digital silence replacing every span of silence in {@link SilenceMode#MARK} mode
+     */
+    public int getMarker() {
+        return mMarkerMillis;
+    }
+
+    /**
+     * @param silenceMode what happens with silence, {@link SilenceMode#DROP} by default
+     */
+    public void setSilenceMode(SilenceMode silenceMode) {
+        if (silenceMode == null) {
+            throw new NullPointerException("Silence mode is mandatory");
+        }
+        mSilenceMode = silenceMode;
+    }
+
+    /**
+     * @return what happens with silence
+     */
+    public SilenceMode getSilenceMode() {
+        return mSilenceMode;
+    }
+
+    /**
+     * Prepares the detector for a new recording.
+     *
+     * @param channelCount  number of interleaved channels
+     * @param bitsPerSample number of bits of a single sample before conversion, 8 or 16
+     * @param sampleRate    sample rate in Hz
+     */
+    public void start(int channelCount, int bitsPerSample, int sampleRate) {
+        if (bitsPerSample != 8 && bitsPerSample != 16) {
+            throw new IllegalArgumentException("Only 8 and 16 bit PCM is supported but was [" + bitsPerSample + "]");
+        }
+
+        mChannelCount = channelCount;
+        mSampleRate = sampleRate;
+        double fullScale = 32768.0 * 32768.0;
+        mEnergyLimit = fullScale * Math.pow(10, mEnergyThreshold / 10);
+        mFricativeEnergyLimit = fullScale * Math.pow(10, (mEnergyThreshold - FRICATIVE_MARGIN_DB) / 10);
+        mHangoverFrames = (long) sampleRate * mHangoverMillis / 1000;
+        mSilentFrames = Long.MAX_VALUE / 2;
+    }
+
+    /**
+     * Detects voice in a buffer. Buffers must be passed in order of recording.
+     *
+     * @param samples     interleaved samples converted to 16 bits, see {@link SampleConverter#toShort}
+     * @param sampleCount number of samples
+     * @return <code>true</code> if the buffer contains voice or belongs to the hangover after voice
+     */
+    public boolean process(short[] samples, int sampleCount) {
+        int frames = sampleCount / mChannelCount;
+        if (frames == 0) {
+            return mSilentFrames < mHangoverFrames;
+        }
+
+        int count = frames * mChannelCount;
+        long sumOfSquares = 0;
+        for (int i = 0; i < count; i++) {
+            int sample = samples[i];
+            sumOfSquares += sample * sample;
+        }
+        // zero crossings of the first channel
+        int crossings = 0;
+        int previous = 0;
+        for (int index = 0; index < count; index += mChannelCount) {
+            int sample = samples[index];
+            crossings += (sample ^ previous) >>> 31;
+            previous = sample;
+        }
+
+        double meanSquare = (double) sumOfSquares / count;
+        boolean voice = meanSquare >= mEnergyLimit || meanSquare >= mFricativeEnergyLimit
+                && crossings >= mZeroCrossingThreshold * frames;
+        if (voice) {
+            mSilentFrames = 0;
+            return true;
+        }
+        boolean hangover = mSilentFrames < mHangoverFrames;
+        mSilentFrames += frames;
+        return hangover;
+    }
+
+    /**
+     * @return number of frames of silence written before voice
+     */
+    long getPreRollFrames() {
+        return (long) mSampleRate * mPreRollMillis / 1000;
+    }
+
+    /**
+     * @return number of frames of digital silence replacing every span of silence
+     */
+    int getMarkerFrames() {
+        return (int) Math.max(1, (long) mSampleRate * mMarkerMillis / 1000);
+    }
+}
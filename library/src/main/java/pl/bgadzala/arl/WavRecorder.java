@@ -1,57 +1,269 @@
 package pl.bgadzala.arl;
 
-import android.media.AudioFormat;
 import android.media.AudioRecord;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
- * Recorder which allows to encode audio stream as WAV.
+ * Recorder which allows to encode audio stream as WAV. Length of recordings is not limited by 32-bit
+ * chunk sizes of RIFF, see {@link Container}. Samples are written as read from the source or converted
+ * to 24-bit or floating point samples, see {@link #setSampleFormat(SampleFormat)}.
  *
  * @author Bartosz Gadzała
  */
 public class WavRecorder extends AbstractRecorder {
 
+    /**
+     * Layout of the file holding WAV chunks.
+     */
+    public enum Container {
+        /**
+         * Classic RIFF WAVE with 32-bit sizes. Sizes of files exceeding 4 GB are clamped.
+         */
+        RIFF,
+        /**
+         * RIFF WAVE with a <code>JUNK</code> chunk reserved after the RIFF header. If the file exceeds
+         * 4 GB, the file is promoted to RF64 and <code>JUNK</code> chunk to <code>ds64</code> chunk holding
+         * 64-bit sizes, otherwise it remains a plain WAV file readable by any player.
+         */
+        RF64,
+        /**
+         * Sony Wave64 with 64-bit sizes of all chunks, identified by GUIDs.
+         */
+        WAVE64
+    }
+
+    /**
+     * Format tag of linear PCM.
+     */
+    protected static final int FORMAT_PCM = 1;
+    /**
+     * Format tag of IEEE 754 floating point samples.
+     */
+    protected static final int FORMAT_IEEE_FLOAT = 3;
+    /**
+     * Format tag of <code>WAVE_FORMAT_EXTENSIBLE</code>, which describes samples by sub format GUID and
+     * is required for more than 16 bits or more than 2 channels.
+     */
+    protected static final int FORMAT_EXTENSIBLE = 0xfffe;
+
+    /**
+     * Largest size representable by 32-bit chunk size.
+     */
+    private static final long MAX_CHUNK_SIZE = 0xffffffffL;
+    /**
+     * Size of <code>ds64</code> chunk body: RIFF size, data size, sample count and empty table.
+     */
+    private static final int DS64_SIZE = 28;
+    /**
+     * Size of format extension of <code>WAVE_FORMAT_EXTENSIBLE</code>.
+     */
+    private static final int EXTENSIBLE_SIZE = 22;
+    /**
+     * Last 14 bytes of sub format GUIDs, the first 2 bytes hold the format tag.
+     */
+    private static final byte[] SUB_FORMAT_GUID = {
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x10, (byte) 0x00, (byte) 0x80,
+            (byte) 0x00, (byte) 0x00, (byte) 0xaa, (byte) 0x00, (byte) 0x38, (byte) 0x9b, (byte) 0x71
+    };
+    /**
+     * Last 12 bytes of GUID of Wave64 <code>riff</code> chunk.
+     */
+    private static final byte[] WAVE64_RIFF_GUID = {
+            (byte) 0x2e, (byte) 0x91, (byte) 0xcf, (byte) 0x11, (byte) 0xa5, (byte) 0xd6,
+            (byte) 0x28, (byte) 0xdb, (byte) 0x04, (byte) 0xc1, (byte) 0x00, (byte) 0x00
+    };
+    /**
+     * Last 12 bytes of GUIDs of all other Wave64 chunks.
+     */
+    private static final byte[] WAVE64_GUID = {
+            (byte) 0xf3, (byte) 0xac, (byte) 0xd3, (byte) 0x11, (byte) 0x8c, (byte) 0xd1,
+            (byte) 0x00, (byte) 0xc0, (byte) 0x4f, (byte) 0x8e, (byte) 0xdb, (byte) 0x8a
+    };
+
+    private Container mContainer = Container.RF64;
+    /**
+     * Format of written samples or <code>null</code> to write samples as read from the source.
+     */
+    private SampleFormat mSampleFormat;
+    /**
+     * Converted samples and little endian view of the last PCM array, used only when samples are converted.
+     */
+    private ByteBuffer mConverted;
+    private ByteBuffer mWrapped;
     /**
      * Size of payload in bytes.
      */
-    private int mPayloadSize;
+    private long mPayloadSize;
+    /**
+     * Number of sample frames (one sample for every channel) in the payload.
+     */
+    private long mFrameCount;
+    /**
+     * Offset of sample frame count in <code>fact</code> chunk or -1 if there is no <code>fact</code> chunk.
+     */
+    private int mFactOffset;
+    /**
+     * Offset of <code>data</code> chunk size.
+     */
+    private int mDataSizeOffset;
 
     public WavRecorder(AudioRecord audioRecord, AudioStream out) {
         super(audioRecord, out);
     }
 
+    public WavRecorder(PcmSource source, AudioStream out) {
+        super(source, out);
+    }
+
+    /**
+     * Sets layout of the file. Can be changed only before recording is started.
+     *
+     * @param container layout of the file, {@link Container#RF64} by default
+     */
+    public void setContainer(Container container) {
+        if (container == null) {
+            throw new NullPointerException("Container is mandatory");
+        }
+        checkNotRecording();
+        mContainer = container;
+    }
+
+    /**
+     * @return layout of the file
+     */
+    public Container getContainer() {
+        return mContainer;
+    }
+
+    /**
+     * Sets format of samples written to <code>data</code> chunk. Samples of the source are converted in bulk
+     * by the writer thread, e.g. to 24-bit samples for processing software or to floating point samples.
+     * Header describes the converted samples, as <code>WAVE_FORMAT_EXTENSIBLE</code> for 24-bit samples or more
+     * than 2 channels and as IEEE float with <code>fact</code> chunk for floating point samples.
+     * Can be changed only before recording is started. Not supported by subclasses encoding audio.
+     *
+     * @param sampleFormat format of written samples or <code>null</code> to write samples as read from the source,
+     *                     which is the default
+     */
+    public void setSampleFormat(SampleFormat sampleFormat) {
+        int formatTag = getFormatTag();
+        if (formatTag != FORMAT_PCM && formatTag != FORMAT_IEEE_FLOAT && formatTag != FORMAT_EXTENSIBLE) {
+            throw new UnsupportedOperationException("Sample format cannot be set for audio encoded as format ["
+                    + formatTag + "]");
+        }
+        checkNotRecording();
+        mSampleFormat = sampleFormat;
+    }
+
+    /**
+     * @return format of samples written to <code>data</code> chunk, before they are encoded by subclasses
+     */
+    public SampleFormat getSampleFormat() {
+        return mSampleFormat != null ? mSampleFormat : SampleFormat.forBitsPerSample(mSource.getBitsPerSample());
+    }
+
     /**
      * Invoked where recording has started. Responsible for writing header (without payload
      * size which is unknown at the moment of creating header).
      */
     protected void onRecordingStarted() {
         try {
-            int bitsPerSample = mAudioRecord.getAudioFormat() == AudioFormat.ENCODING_PCM_16BIT ? 16 : 8;
-            int channels = mAudioRecord.getChannelCount();
-            int sampleRate = mAudioRecord.getSampleRate();
-
+            mPayloadSize = 0;
+            mFrameCount = 0;
             mOutput.setDataType(AudioStream.DataType.HEADER);
             mOutput.setLength(0); // Set file length to 0, to prevent unexpected behavior in case the file already existed
-            mOutput.write("RIFF".getBytes());
-            mOutput.write((int) 0); // Final file size not known yet, write 0
-            mOutput.write("WAVE".getBytes());
-            mOutput.write("fmt ".getBytes());
-            mOutput.write(Integer.reverseBytes(16)); // Sub-chunk size, 16 for PCM
-            mOutput.write(Short.reverseBytes((short) 1)); // AudioFormat, 1 for PCM
-            mOutput.write(Short.reverseBytes((short) channels));// Number of channels, 1 for mono, 2 for stereo
-            mOutput.write(Integer.reverseBytes(sampleRate)); // Sample rate
-            mOutput.write(Integer.reverseBytes(sampleRate * bitsPerSample * channels / 8)); // Byte rate, SampleRate*NumberOfChannels*BitsPerSample/8
-            mOutput.write(Short.reverseBytes((short) (channels * bitsPerSample / 8))); // Block align, NumberOfChannels*BitsPerSample/8
-            mOutput.write(Short.reverseBytes((short) bitsPerSample)); // Bits per sample
-            mOutput.write("data".getBytes());
-            mOutput.write(0); // Data chunk size not known yet, write 0
+            if (mContainer == Container.WAVE64) {
+                writeWave64Header();
+            } else {
+                writeRiffHeader();
+            }
         } catch (Exception ex) {
             throw new RuntimeException("Error while writing header", ex);
         }
     }
 
+    private void writeRiffHeader() {
+        byte[] extension = getFormatExtension();
+        int formatSize = extension == null ? 16 : 18 + extension.length;
+        int formatOffset = 12 + (mContainer == Container.RF64 ? 8 + DS64_SIZE : 0);
+        mFactOffset = isFactChunkRequired() ? formatOffset + 8 + formatSize + 8 : -1;
+        mDataSizeOffset = formatOffset + 8 + formatSize + (mFactOffset < 0 ? 0 : 12) + 4;
+
+        mOutput.write("RIFF".getBytes());
+        mOutput.write((int) 0); // Final file size not known yet, write 0
+        mOutput.write("WAVE".getBytes());
+        if (mContainer == Container.RF64) {
+            mOutput.write("JUNK".getBytes()); // Space for ds64 chunk
+            mOutput.write(Integer.reverseBytes(DS64_SIZE));
+            mOutput.write(new byte[DS64_SIZE]);
+        }
+        mOutput.write("fmt ".getBytes());
+        mOutput.write(Integer.reverseBytes(formatSize)); // Sub-chunk size, 16 for PCM
+        writeFormat(extension);
+        if (mFactOffset >= 0) {
+            mOutput.write("fact".getBytes());
+            mOutput.write(Integer.reverseBytes(4));
+            mOutput.write(0); // Number of sample frames not known yet, write 0
+        }
+        mOutput.write("data".getBytes());
+        mOutput.write(0); // Data chunk size not known yet, write 0
+    }
+
+    private void writeWave64Header() {
+        byte[] extension = getFormatExtension();
+        int formatSize = extension == null ? 16 : 18 + extension.length;
+        int formatPadding = -formatSize & 7; // Chunks are aligned to 8 bytes
+        mFactOffset = isFactChunkRequired() ? 40 + 24 + formatSize + formatPadding + 24 : -1;
+        mDataSizeOffset = 40 + 24 + formatSize + formatPadding + (mFactOffset < 0 ? 0 : 32) + 16;
+
+        writeWave64Guid("riff", WAVE64_RIFF_GUID);
+        writeLittleEndianLong(mOutput, 0); // Final file size not known yet, write 0
+        writeWave64Guid("wave", WAVE64_GUID);
+        writeWave64Guid("fmt ", WAVE64_GUID);
+        writeLittleEndianLong(mOutput, 24 + formatSize); // Chunk size including GUID and size
+        writeFormat(extension);
+        mOutput.write(new byte[formatPadding]);
+        if (mFactOffset >= 0) {
+            writeWave64Guid("fact", WAVE64_GUID);
+            writeLittleEndianLong(mOutput, 24 + 8);
+            writeLittleEndianLong(mOutput, 0); // Number of sample frames not known yet, write 0
+        }
+        writeWave64Guid("data", WAVE64_GUID);
+        writeLittleEndianLong(mOutput, 0); // Data chunk size not known yet, write 0
+    }
+
+    /**
+     * Writes body of <code>fmt</code> chunk.
+     *
+     * @param extension format extension or <code>null</code> if there is no extension
+     */
+    private void writeFormat(byte[] extension) {
+        mOutput.write(Short.reverseBytes((short) getFormatTag())); // AudioFormat, 1 for PCM
+        mOutput.write(Short.reverseBytes((short) mSource.getChannelCount()));// Number of channels, 1 for mono, 2 for stereo
+        mOutput.write(Integer.reverseBytes(mSource.getSampleRate())); // Sample rate
+        mOutput.write(Integer.reverseBytes(getByteRate())); // Byte rate, SampleRate*NumberOfChannels*BitsPerSample/8 for PCM
+        mOutput.write(Short.reverseBytes((short) getBlockAlign())); // Block align, NumberOfChannels*BitsPerSample/8 for PCM
+        mOutput.write(Short.reverseBytes((short) getEncodedBitsPerSample())); // Bits per sample
+        if (extension != null) {
+            mOutput.write(Short.reverseBytes((short) extension.length)); // Size of format extension
+            mOutput.write(extension);
+        }
+    }
+
+    private void writeWave64Guid(String tag, byte[] guid) {
+        mOutput.write(tag.getBytes());
+        mOutput.write(guid);
+    }
+
+    private static void writeLittleEndianLong(AudioStream out, long value) {
+        out.write(Integer.reverseBytes((int) value));
+        out.write(Integer.reverseBytes((int) (value >>> 32)));
+    }
+
     /**
      * Invoked every time PCM buffer was read.
      *
@@ -59,29 +271,343 @@ public class WavRecorder extends AbstractRecorder {
      * @param size   size of PCM buffer
      */
     protected void onSampleRead(byte[] buffer, int size) {
+        if (isEncodingSamples()) {
+            if (mWrapped == null || mWrapped.array() != buffer) {
+                mWrapped = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            onSampleRead(mWrapped, size);
+            return;
+        }
         try {
             mOutput.setDataType(AudioStream.DataType.DATA);
             mOutput.write(buffer, 0, size);
             mPayloadSize += size;
+            mFrameCount += size / getFrameSize();
+        } catch (Exception ex) {
+            throw new RuntimeException("Error while writing PCM buffer of length [" + size + "]", ex);
+        }
+    }
+
+    /**
+     * Invoked every time PCM buffer was read. Passes the buffer to the output as it is,
+     * so direct buffers are written without copying, unless samples are converted.
+     *
+     * @param buffer PCM buffer read from AudioRecord
+     * @param size   size of PCM buffer
+     */
+    @Override
+    protected void onSampleRead(ByteBuffer buffer, int size) {
+        if (isEncodingSamples()) {
+            super.onSampleRead(buffer, size); // converts samples
+            return;
+        }
+        try {
+            mOutput.setDataType(AudioStream.DataType.DATA);
+            mOutput.write(buffer);
+            mPayloadSize += size;
+            mFrameCount += size / getFrameSize();
         } catch (Exception ex) {
             throw new RuntimeException("Error while writing PCM buffer of length [" + size + "]", ex);
         }
     }
 
+    /**
+     * Samples are encoded when they are converted to another sample format.
+     *
+     * @return <code>true</code> if samples are converted
+     */
+    @Override
+    protected boolean isEncodingSamples() {
+        return mSampleFormat != null && mSampleFormat.getBitsPerSample() != mSource.getBitsPerSample();
+    }
+
+    /**
+     * Invoked every time PCM buffer was read, when samples are converted. Writes samples in the sample format.
+     *
+     * @param samples samples of PCM buffer read from AudioRecord, 8-bit samples are scaled to 16 bits
+     * @param count   number of samples
+     */
+    @Override
+    protected void onSampleRead(short[] samples, int count) {
+        try {
+            int convertedSize = count * mSampleFormat.getBytesPerSample();
+            if (mConverted == null || mConverted.capacity() < convertedSize) {
+                mConverted = ByteBuffer.allocate(convertedSize).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            SampleConverter.fromShort(samples, count, mSampleFormat, mConverted, 0);
+            writePayload(mConverted.array(), 0, convertedSize, count / mSource.getChannelCount());
+        } catch (Exception ex) {
+            throw new RuntimeException("Error while writing PCM buffer of [" + count + "] samples", ex);
+        }
+    }
+
     /**
      * Invoked when recording has finished. Responsible for updating WAV header.
      */
     protected void onRecordingFinished() {
+        finishSegment().run();
+    }
+
+    /**
+     * Returns a task updating WAV header of the current output and closing it, so segments are
+     * sealed without blocking the writer thread.
+     *
+     * @return task completing the current output
+     */
+    @Override
+    protected Runnable finishSegment() {
+        final AudioStream out = mOutput;
+        final Container container = mContainer;
+        final long payloadSize = mPayloadSize;
+        final long frameCount = mFrameCount;
+        final int factOffset = mFactOffset;
+        final int dataSizeOffset = mDataSizeOffset;
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // Chunks are word aligned in RIFF and aligned to 8 bytes in Wave64
+                    int padding = (int) (container == Container.WAVE64 ? -payloadSize & 7 : payloadSize & 1);
+                    if (padding != 0) {
+                        out.setDataType(AudioStream.DataType.DATA);
+                        out.write(new byte[padding]);
+                    }
+                    patchHeader(out, container, payloadSize, padding, frameCount, factOffset, dataSizeOffset);
+                } catch (Exception ex) {
+                    throw new RuntimeException("Error while closing WAV file", ex);
+                } finally {
+                    out.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Invoked at every checkpoint. Updates sizes in the header to describe all audio written so far
+     * and moves back to the end of the payload.
+     */
+    @Override
+    protected void onCheckpoint() {
         try {
-            mOutput.setDataType(AudioStream.DataType.HEADER);
-            mOutput.seek(4); // Write size to RIFF header
-            mOutput.write(Integer.reverseBytes(mPayloadSize + 36));
-            mOutput.seek(40); // Write size to Subchunk2Size field
-            mOutput.write(Integer.reverseBytes(mPayloadSize));
+            patchHeader(mOutput, mContainer, mPayloadSize, 0, mFrameCount, mFactOffset, mDataSizeOffset);
+            mOutput.seek(mDataSizeOffset + (mContainer == Container.WAVE64 ? 8 : 4) + mPayloadSize);
         } catch (Exception ex) {
-            throw new RuntimeException("Error while closing WAV file", ex);
-        } finally {
-            mOutput.close();
+            throw new RuntimeException("Error while updating WAV header", ex);
         }
     }
+
+    /**
+     * Repairs a WAV file which has not been finished, e.g. when the process was killed while recording.
+     * Sizes in the header are replaced with sizes computed from the length of the file, incomplete block
+     * at the end of the file is removed. Supports all containers and formats written by recorders.
+     *
+     * @param file WAV, RF64 or Wave64 file opened for writing
+     * @return number of sample frames in the repaired file
+     */
+    public static long recover(RandomAccessFile file) {
+        try {
+            file.seek(0);
+            int riff = file.readInt();
+            Container container;
+            if (riff == 0x72696666 /* riff */) {
+                container = Container.WAVE64;
+                file.seek(40);
+            } else if (riff == 0x52494646 /* RIFF */ || riff == 0x52463634 /* RF64 */) {
+                file.readInt();
+                if (file.readInt() != 0x57415645 /* WAVE */) {
+                    throw new IllegalArgumentException("Not a WAVE file");
+                }
+                container = riff == 0x52463634 ? Container.RF64 : Container.RIFF;
+            } else {
+                throw new IllegalArgumentException("Not a RIFF file");
+            }
+
+            int headerSize = container == Container.WAVE64 ? 24 : 8;
+            int formatTag = 0;
+            int blockAlign = 0;
+            int samplesPerBlock = 1;
+            int factOffset = -1;
+            long factFrameCount = 0;
+            while (file.getFilePointer() + headerSize <= file.length()) {
+                long chunk = file.getFilePointer();
+                int tag = file.readInt();
+                long size;
+                if (container == Container.WAVE64) {
+                    file.seek(chunk + 16);
+                    size = Long.reverseBytes(file.readLong()) - headerSize;
+                } else {
+                    size = Integer.reverseBytes(file.readInt()) & MAX_CHUNK_SIZE;
+                }
+                long start = file.getFilePointer();
+                if ((tag == 0x4a554e4b /* JUNK */ || tag == 0x64733634 /* ds64 */) && chunk == 12 && size == DS64_SIZE) {
+                    container = Container.RF64;
+                } else if (tag == 0x666d7420 /* fmt */) {
+                    formatTag = Short.reverseBytes(file.readShort()) & 0xffff;
+                    file.skipBytes(10); // channels, sample rate, byte rate
+                    blockAlign = Short.reverseBytes(file.readShort()) & 0xffff;
+                    file.readShort(); // bits per sample
+                    if (formatTag == 0x11 /* IMA ADPCM */ && size >= 20) {
+                        file.readShort(); // size of format extension
+                        samplesPerBlock = Short.reverseBytes(file.readShort()) & 0xffff;
+                    }
+                } else if (tag == 0x66616374 /* fact */) {
+                    factOffset = (int) start;
+                    factFrameCount = container == Container.WAVE64 ? Long.reverseBytes(file.readLong())
+                            : Integer.reverseBytes(file.readInt()) & MAX_CHUNK_SIZE;
+                } else if (tag == 0x64617461 /* data */) {
+                    if (blockAlign == 0) {
+                        throw new IllegalArgumentException("Missing fmt chunk before data chunk");
+                    }
+                    long blocks = (file.length() - start) / blockAlign;
+                    long payloadSize = blocks * blockAlign;
+                    long frameCount = blocks * samplesPerBlock;
+                    if (factFrameCount > frameCount - samplesPerBlock && factFrameCount < frameCount) {
+                        frameCount = factFrameCount; // Padding of the last block is known
+                    }
+                    int padding = (int) (container == Container.WAVE64 ? -payloadSize & 7 : payloadSize & 1);
+                    file.setLength(start + payloadSize + padding);
+                    if (padding != 0) {
+                        file.seek(start + payloadSize);
+                        file.write(new byte[padding]);
+                    }
+                    patchHeader(new RAFAudioStream(file), container, payloadSize, padding, frameCount, factOffset,
+                            (int) start - (container == Container.WAVE64 ? 8 : 4));
+                    return frameCount;
+                }
+                long next = start + size;
+                file.seek(container == Container.WAVE64 ? (next + 7) & ~7L : next + (size & 1));
+            }
+            throw new IllegalArgumentException("Missing data chunk");
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot recover WAV file", ex);
+        }
+    }
+
+    /**
+     * Writes sizes to the header of the file, padding must be already written.
+     */
+    private static void patchHeader(AudioStream out, Container container, long payloadSize, int padding,
+                                    long frameCount, int factOffset, int dataSizeOffset) {
+        out.setDataType(AudioStream.DataType.HEADER);
+        if (container == Container.WAVE64) {
+            patchWave64Header(out, payloadSize, padding, frameCount, factOffset, dataSizeOffset);
+        } else {
+            patchRiffHeader(out, container, payloadSize, padding, frameCount, factOffset, dataSizeOffset);
+        }
+    }
+
+    private static void patchRiffHeader(AudioStream out, Container container, long payloadSize, int padding,
+                                        long frameCount, int factOffset, int dataSizeOffset) {
+        long riffSize = dataSizeOffset + 4 + payloadSize + padding - 8;
+        if (container == Container.RF64) {
+            boolean promoted = riffSize > MAX_CHUNK_SIZE;
+            out.seek(0);
+            out.write((promoted ? "RF64" : "RIFF").getBytes());
+            out.write(promoted ? -1 : Integer.reverseBytes((int) riffSize)); // Size is in ds64 chunk if promoted
+            out.seek(12); // JUNK chunk is promoted to ds64 chunk
+            out.write((promoted ? "ds64" : "JUNK").getBytes());
+            if (promoted) {
+                out.seek(20);
+                writeLittleEndianLong(out, riffSize);
+                writeLittleEndianLong(out, payloadSize);
+                writeLittleEndianLong(out, frameCount);
+            }
+        } else {
+            out.seek(4); // Write size to RIFF header
+            out.write(Integer.reverseBytes((int) Math.min(riffSize, MAX_CHUNK_SIZE)));
+        }
+        if (factOffset >= 0) {
+            out.seek(factOffset); // Write number of sample frames to fact chunk
+            out.write(Integer.reverseBytes((int) Math.min(frameCount, MAX_CHUNK_SIZE)));
+        }
+        out.seek(dataSizeOffset); // Write size to Subchunk2Size field
+        out.write(Integer.reverseBytes((int) Math.min(payloadSize, MAX_CHUNK_SIZE)));
+    }
+
+    private static void patchWave64Header(AudioStream out, long payloadSize, int padding, long frameCount,
+                                          int factOffset, int dataSizeOffset) {
+        out.seek(16); // Write size of the whole file to riff chunk
+        writeLittleEndianLong(out, dataSizeOffset + 8 + payloadSize + padding);
+        if (factOffset >= 0) {
+            out.seek(factOffset); // Write number of sample frames to fact chunk
+            writeLittleEndianLong(out, frameCount);
+        }
+        out.seek(dataSizeOffset); // Write size of data chunk including GUID and size
+        writeLittleEndianLong(out, 24 + payloadSize);
+    }
+
+    /**
+     * Writes encoded audio to <code>data</code> chunk. Used by subclasses which encode PCM before writing it.
+     *
+     * @param data   encoded audio
+     * @param offset offset measured from the beginning of the data
+     * @param size   number of bytes to write
+     * @param frames number of sample frames encoded in the data
+     */
+    protected void writePayload(byte[] data, int offset, int size, int frames) {
+        mOutput.setDataType(AudioStream.DataType.DATA);
+        mOutput.write(data, offset, size);
+        mPayloadSize += size;
+        mFrameCount += frames;
+    }
+
+    /**
+     * @return format tag written to <code>fmt</code> chunk, {@link #FORMAT_PCM}, {@link #FORMAT_IEEE_FLOAT}
+     * or {@link #FORMAT_EXTENSIBLE} depending on the sample format and number of channels
+     */
+    protected int getFormatTag() {
+        SampleFormat sampleFormat = getSampleFormat();
+        if (sampleFormat.getBitsPerSample() > 16 && !sampleFormat.isFloat() || mSource.getChannelCount() > 2) {
+            return FORMAT_EXTENSIBLE;
+        }
+        return sampleFormat.isFloat() ? FORMAT_IEEE_FLOAT : FORMAT_PCM;
+    }
+
+    /**
+     * @return number of bits of a single encoded sample
+     */
+    protected int getEncodedBitsPerSample() {
+        return getSampleFormat().getBitsPerSample();
+    }
+
+    /**
+     * @return size of the smallest unit of encoded audio in bytes, a single frame for PCM
+     */
+    protected int getBlockAlign() {
+        return mSource.getChannelCount() * getSampleFormat().getBytesPerSample();
+    }
+
+    /**
+     * @return average number of bytes of encoded audio per second
+     */
+    protected int getByteRate() {
+        return mSource.getSampleRate() * getBlockAlign();
+    }
+
+    /**
+     * Gets format specific data appended to <code>fmt</code> chunk after its size.
+     *
+     * @return format extension or <code>null</code> if <code>fmt</code> chunk has no size of the extension, as for PCM
+     */
+    protected byte[] getFormatExtension() {
+        SampleFormat sampleFormat = getSampleFormat();
+        if (getFormatTag() == FORMAT_EXTENSIBLE) {
+            int channels = mSource.getChannelCount();
+            ByteBuffer extension = ByteBuffer.allocate(EXTENSIBLE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            extension.putShort((short) sampleFormat.getBitsPerSample()); // Valid bits per sample
+            extension.putInt(channels == 1 ? 0x4 : channels == 2 ? 0x3 : 0); // Channel mask, center or left and right
+            extension.putShort((short) (sampleFormat.isFloat() ? FORMAT_IEEE_FLOAT : FORMAT_PCM));
+            extension.put(SUB_FORMAT_GUID);
+            return extension.array();
+        }
+        return sampleFormat.isFloat() ? new byte[0] : null;
+    }
+
+    /**
+     * @return <code>true</code> if header has to contain <code>fact</code> chunk with number of sample
+     * frames, which is required for all formats except PCM
+     */
+    protected boolean isFactChunkRequired() {
+        return getSampleFormat().isFloat();
+    }
 }
@@ -9,6 +9,28 @@ import java.io.RandomAccessFile;
  */
 public class WavRecorderFactory extends AbstractRecorderFactory {
 
+    /**
+     * Layout of files of created recorders.
+     */
+    private final WavRecorder.Container mContainer;
+    /**
+     * Format of samples of created recorders or <code>null</code> for the format of the source.
+     */
+    private final SampleFormat mSampleFormat;
+
+    public WavRecorderFactory() {
+        this(WavRecorder.Container.RF64);
+    }
+
+    public WavRecorderFactory(WavRecorder.Container container) {
+        this(container, null);
+    }
+
+    public WavRecorderFactory(WavRecorder.Container container, SampleFormat sampleFormat) {
+        mContainer = container;
+        mSampleFormat = sampleFormat;
+    }
+
     /**
      * Creates WAV audio recorder for specified {@link android.media.AudioRecord} object.
      *
@@ -17,6 +39,23 @@ public class WavRecorderFactory extends AbstractRecorderFactory {
      * @return audio recorder for WAV file format
      */
     public WavRecorder createRecorder(AudioRecord audioRecord, AudioStream out) {
-        return new WavRecorder(audioRecord, out);
+        WavRecorder recorder = new WavRecorder(audioRecord, out);
+        recorder.setContainer(mContainer);
+        recorder.setSampleFormat(mSampleFormat);
+        return recorder;
+    }
+
+    /**
+     * Creates WAV audio recorder for specified PCM source.
+     *
+     * @param source source of the audio for new recorder
+     * @param out    output WAV file
+     * @return audio recorder for WAV file format
+     */
+    public WavRecorder createRecorder(PcmSource source, AudioStream out) {
+        WavRecorder recorder = new WavRecorder(source, out);
+        recorder.setContainer(mContainer);
+        recorder.setSampleFormat(mSampleFormat);
+        return recorder;
     }
 }